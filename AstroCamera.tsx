@@ -1,19 +1,74 @@
 import React, { useRef, useImperativeHandle, forwardRef } from 'react';
-import { requireNativeComponent, ViewProps, UIManager, findNodeHandle } from 'react-native';
+import { requireNativeComponent, ViewProps, UIManager, findNodeHandle, NativeModules } from 'react-native';
 
 interface AstroCameraProps extends ViewProps {
   iso: number;
   exposureSeconds: number;
   focusDistance: number; // 0.0 = Infinito
   burstCount?: number;
+  rawFormat?: 'dng' | 'compressed'; // 'compressed' = archivo .araw sin pérdida (no pasa por la galería)
+  // Binning por software. DngCreator no admite datos agrupados: con binFactor 2 o 3 los RAW se
+  // guardan siempre como .araw aunque rawFormat sea 'dng' (onCaptureEnded informa el formato real)
+  binFactor?: 1 | 2 | 3;
+  binMode?: 'sum' | 'average' | 'superpixel'; // superpixel sólo con binFactor 2
   onCaptureStarted?: () => void;
-  onCaptureEnded?: (event: { nativeEvent: { success: boolean; error?: string } }) => void;
+  onCaptureEnded?: (event: { nativeEvent: { success: boolean; error?: string; sessionPath?: string; rawFormat?: 'dng' | 'compressed' } }) => void;
+  // Latencia desde un cambio de iso/exposureSeconds/focusDistance hasta el primer frame que lo refleja
+  onControlLatency?: (event: { nativeEvent: { latencyMs: number; frames: number; medianMs: number } }) => void;
 }
 
 export interface AstroCameraRef {
   takePicture: () => void;
 }
 
+// Sesión de captura: un directorio con el índice binario de frames (frames.idx)
+export interface CaptureSession {
+  name: string;
+  path: string;
+  frameCount: number;
+}
+
+export type FrameSortKey = 'timestamp' | 'iso' | 'exposure' | 'focus' | 'quality' | 'fwhm' | 'stars';
+
+export interface FrameQuery {
+  minIso?: number;
+  maxIso?: number;
+  minExposureSec?: number;
+  maxExposureSec?: number;
+  minQuality?: number;
+  sortBy?: FrameSortKey;
+  descending?: boolean;
+  offset?: number;
+  limit?: number;
+}
+
+// Métricas de calidad en null hasta que el apilado en vivo las calcula (starCount -1)
+export interface SessionFrame {
+  position: number;
+  uri: string;
+  timestampNs: number;
+  iso: number;
+  exposureSec: number;
+  frameDurationSec: number;
+  focusDistance: number;
+  cameraId: string;
+  fwhm: number | null;
+  background: number | null;
+  quality: number | null;
+  starCount: number;
+}
+
+interface AstroCameraNativeModule {
+  // Más recientes primero
+  listSessions(): Promise<CaptureSession[]>;
+  // total = frames que pasan el filtro, antes de offset/limit
+  listSessionFrames(sessionPath: string, query?: FrameQuery | null): Promise<{ total: number; frames: SessionFrame[] }>;
+  // Fracción (0.05..1) de cada ventana de windowMs que pueden ocupar las exportaciones; por defecto 0.5 / 1000
+  setBatchBudget(dutyCycle: number, windowMs: number): void;
+}
+
+export const AstroCameraModule: AstroCameraNativeModule = NativeModules.AstroCameraModule;
+
 const NativeCamera = requireNativeComponent<AstroCameraProps>('AstroCameraView');
 
 export const AstroCamera = forwardRef<AstroCameraRef, AstroCameraProps>((props, ref) => {
@@ -5,23 +5,51 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.net.Uri;
 import android.util.Range;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableArray;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
 public class AstroCameraModule extends ReactContextBaseJavaModule {
     private final ReactApplicationContext reactContext;
+    private final ProcessingScheduler scheduler;
 
-    AstroCameraModule(ReactApplicationContext context) {
+    // Iteraciones por defecto de la deconvolución al exportar (0 = sin deconvolución)
+    private static final int DEFAULT_DECONVOLVE_ITERATIONS = 0;
+    private static final double DECONVOLVE_TOLERANCE = 1e-3;
+
+    AstroCameraModule(ReactApplicationContext context, ProcessingScheduler scheduler) {
         super(context);
         this.reactContext = context;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -52,6 +80,398 @@ public class AstroCameraModule extends ReactContextBaseJavaModule {
         }
     }
 
+    // Sesiones de captura (directorios con frames.idx), más recientes primero.
+    @ReactMethod
+    public void listSessions(Promise promise) {
+        File root = AstroCameraView.getSessionsRoot(reactContext);
+        File[] dirs = root.listFiles();
+        WritableArray sessions = Arguments.createArray();
+        if (dirs != null) {
+            Arrays.sort(dirs, (a, b) -> b.getName().compareTo(a.getName()));
+            for (File dir : dirs) {
+                if (!new File(dir, FrameIndex.INDEX_FILE).isFile()) continue;
+                WritableMap session = Arguments.createMap();
+                session.putString("name", dir.getName());
+                session.putString("path", dir.getAbsolutePath());
+                session.putInt("frameCount", FrameIndex.countRecords(dir));
+                sessions.pushMap(session);
+            }
+        }
+        promise.resolve(sessions);
+    }
+
+    // Lista, filtra y ordena los frames de una sesión leyendo el índice mapeado en memoria.
+    // query: { minIso, maxIso, minExposureSec, maxExposureSec, minQuality, sortBy, descending, offset, limit }
+    // sortBy: "timestamp" | "iso" | "exposure" | "focus" | "quality" | "fwhm" | "stars"
+    @ReactMethod
+    public void listSessionFrames(String sessionPath, @Nullable ReadableMap query, Promise promise) {
+        try (final FrameIndex.Reader index = new FrameIndex.Reader(new File(sessionPath))) {
+            int minIso = getInt(query, "minIso", Integer.MIN_VALUE);
+            int maxIso = getInt(query, "maxIso", Integer.MAX_VALUE);
+            long minExposure = (long) (getDouble(query, "minExposureSec", 0) * 1_000_000_000.0);
+            long maxExposure = (long) (getDouble(query, "maxExposureSec", Long.MAX_VALUE / 1e9) * 1_000_000_000.0);
+            double minQuality = getDouble(query, "minQuality", Double.NEGATIVE_INFINITY);
+            boolean filterQuality = query != null && query.hasKey("minQuality");
+
+            Integer[] matches = new Integer[index.getCount()];
+            int n = 0;
+            for (int i = 0; i < index.getCount(); i++) {
+                int iso = index.getIso(i);
+                long exposure = index.getExposureNs(i);
+                if (iso < minIso || iso > maxIso) continue;
+                if (exposure < minExposure || exposure > maxExposure) continue;
+                if (filterQuality && !(index.getQuality(i) >= minQuality)) continue;
+                matches[n++] = i;
+            }
+
+            Comparator<Integer> order = frameComparator(index, query != null && query.hasKey("sortBy") ? query.getString("sortBy") : "timestamp");
+            if (query != null && query.hasKey("descending") && query.getBoolean("descending")) {
+                order = Collections.reverseOrder(order);
+            }
+            Arrays.sort(matches, 0, n, order);
+
+            int offset = Math.max(0, getInt(query, "offset", 0));
+            int limit = getInt(query, "limit", n);
+            // En long: offset + limit grande desbordaría y no devolvería nada
+            int end = (int) Math.min(n, offset + (long) limit);
+            WritableArray frames = Arguments.createArray();
+            for (int k = offset; k < end; k++) {
+                int i = matches[k];
+                WritableMap frame = Arguments.createMap();
+                frame.putInt("position", i);
+                frame.putString("uri", index.getUri(i));
+                frame.putDouble("timestampNs", index.getTimestampNs(i));
+                frame.putInt("iso", index.getIso(i));
+                frame.putDouble("exposureSec", index.getExposureNs(i) / 1_000_000_000.0);
+                frame.putDouble("frameDurationSec", index.getFrameDurationNs(i) / 1_000_000_000.0);
+                frame.putDouble("focusDistance", index.getFocusDistance(i));
+                frame.putString("cameraId", index.getCameraId(i));
+                putFloatOrNull(frame, "fwhm", index.getFwhm(i));
+                putFloatOrNull(frame, "background", index.getBackground(i));
+                putFloatOrNull(frame, "quality", index.getQuality(i));
+                frame.putInt("starCount", index.getStarCount(i));
+                frames.pushMap(frame);
+            }
+            WritableMap result = Arguments.createMap();
+            result.putInt("total", n);
+            result.putArray("frames", frames);
+            promise.resolve(result);
+        } catch (IOException e) {
+            promise.reject("SESSION_ERROR", e.getMessage());
+        }
+    }
+
+    // Resolución de placa local. stars: [{x, y, flux}] en píxeles del frame de width x height.
+    // indexPath: índice de QuadIndexBuilder; por defecto <externalFiles>/catalog/stars.qidx.
+    // Corre como trabajo LIVE del planificador (puede tardar hasta el timeout del solver), no en el
+    // hilo de módulos nativos.
+    @ReactMethod
+    public void solvePlate(ReadableArray stars, final int width, final int height, @Nullable String indexPath,
+                           final Promise promise) {
+        final File indexFile = indexPath != null ? new File(indexPath) : getDefaultQuadIndex();
+        if (!indexFile.isFile()) {
+            promise.reject("PLATE_SOLVE_ERROR", "Índice de estrellas no encontrado: " + indexFile);
+            return;
+        }
+        final List<Star> detected = new ArrayList<>(stars.size());
+        for (int i = 0; i < stars.size(); i++) {
+            ReadableMap star = stars.getMap(i);
+            detected.add(new Star((float) star.getDouble("x"), (float) star.getDouble("y"),
+                (float) getDouble(star, "flux", stars.size() - i), 0f));
+        }
+        final long start = System.currentTimeMillis();
+        ProcessingScheduler.JobHandle job = scheduler.submit("solvePlate", ProcessingScheduler.Priority.LIVE,
+            new ProcessingScheduler.Job() {
+                @Override
+                public Object run(ProcessingScheduler.JobContext context) throws IOException {
+                    try (QuadIndex index = new QuadIndex(indexFile)) {
+                        return new PlateSolver(index).solve(detected, width, height);
+                    }
+                }
+            });
+        job.addCallback(new ProcessingScheduler.Callback() {
+            @Override
+            public void onFinished(ProcessingScheduler.JobHandle finished) {
+                if (finished.getState() != ProcessingScheduler.State.SUCCEEDED) {
+                    Throwable error = finished.getError();
+                    promise.reject("PLATE_SOLVE_ERROR", error != null ? error.getMessage() : "Resolución cancelada");
+                    return;
+                }
+                WcsSolution wcs = (WcsSolution) finished.getResult();
+                if (wcs == null) {
+                    promise.reject("NO_SOLUTION", "No se encontró solución astrométrica");
+                    return;
+                }
+                WritableMap result = Arguments.createMap();
+                result.putDouble("ra", wcs.crval1);
+                result.putDouble("dec", wcs.crval2);
+                result.putDouble("crpix1", wcs.crpix1);
+                result.putDouble("crpix2", wcs.crpix2);
+                result.putDouble("cd11", wcs.cd11);
+                result.putDouble("cd12", wcs.cd12);
+                result.putDouble("cd21", wcs.cd21);
+                result.putDouble("cd22", wcs.cd22);
+                result.putDouble("pixelScaleArcsec", wcs.getPixelScaleArcsec());
+                result.putDouble("rotationDeg", wcs.getRotationDeg());
+                result.putBoolean("mirrored", wcs.isMirrored());
+                result.putInt("matchedStars", wcs.matchedStars);
+                result.putDouble("elapsedMs", System.currentTimeMillis() - start);
+                promise.resolve(result);
+            }
+        });
+    }
+
+    // Exporta el apilado de una sesión (último checkpoint) como pirámide de teselas en
+    // <sesión>/pyramid. options: { format: "jpeg" | "webp", quality, deconvolveIterations, deconvolveFwhm }.
+    // deconvolveFwhm (px del apilado) sustituye a la FWHM mediana de las estrellas de referencia.
+    // Corre como trabajo BATCH del planificador. Resuelve con la ruta.
+    @ReactMethod
+    public void exportStackPyramid(String sessionPath, @Nullable ReadableMap options, final Promise promise) {
+        ProcessingScheduler.JobHandle job = scheduler.submit("exportStack", ProcessingScheduler.Priority.BATCH,
+            exportStackJob(sessionPath, options, scheduler.getComputePool()));
+        job.addCallback(new ProcessingScheduler.Callback() {
+            @Override
+            public void onFinished(ProcessingScheduler.JobHandle finished) {
+                switch (finished.getState()) {
+                    case SUCCEEDED:
+                        promise.resolve(finished.getResult());
+                        break;
+                    case CANCELLED:
+                        promise.reject("PYRAMID_CANCELLED", "Exportación cancelada");
+                        break;
+                    default:
+                        Throwable error = finished.getError();
+                        promise.reject("PYRAMID_ERROR", error != null ? error.getMessage() : "Error desconocido");
+                }
+            }
+        });
+    }
+
+    // Encola un trabajo de procesado y resuelve en el acto con su id; el estado se consulta con
+    // getJobProgress(). type: "exportStack" (params: sessionPath + opciones de exportStackPyramid).
+    @ReactMethod
+    public void submitJob(String type, ReadableMap params, Promise promise) {
+        ProcessingScheduler.JobHandle job;
+        switch (type) {
+            case "exportStack":
+                if (!params.hasKey("sessionPath")) {
+                    promise.reject("JOB_ERROR", "Falta sessionPath");
+                    return;
+                }
+                job = scheduler.submit(type, ProcessingScheduler.Priority.BATCH,
+                    exportStackJob(params.getString("sessionPath"), params, scheduler.getComputePool()));
+                break;
+            default:
+                promise.reject("JOB_ERROR", "Tipo de trabajo desconocido: " + type);
+                return;
+        }
+        promise.resolve(job.getId());
+    }
+
+    // { id, name, state, progress, result, error }, o null si el trabajo no existe (o ya se olvidó).
+    @ReactMethod
+    public void getJobProgress(int jobId, Promise promise) {
+        ProcessingScheduler.JobHandle job = scheduler.getJob(jobId);
+        if (job == null) {
+            promise.resolve(null);
+            return;
+        }
+        WritableMap result = Arguments.createMap();
+        result.putInt("id", job.getId());
+        result.putString("name", job.getName());
+        result.putString("state", job.getState().name().toLowerCase(Locale.US));
+        result.putDouble("progress", job.getProgress());
+        Object value = job.getResult();
+        if (value != null) result.putString("result", value.toString());
+        else result.putNull("result");
+        Throwable error = job.getError();
+        if (error != null) result.putString("error", error.getMessage());
+        else result.putNull("error");
+        promise.resolve(result);
+    }
+
+    // Resuelve true si el trabajo existía y no había terminado.
+    @ReactMethod
+    public void cancelJob(int jobId, Promise promise) {
+        promise.resolve(scheduler.cancel(jobId));
+    }
+
+    // Fracción de cada ventana de windowMs que puede ocupar un trabajo BATCH (exportaciones); el
+    // resto queda para la captura y el apilado en vivo. Se acota a [0.05, 1].
+    @ReactMethod
+    public void setBatchBudget(double dutyCycle, double windowMs) {
+        scheduler.setBatchBudget((float) dutyCycle, (long) windowMs);
+    }
+
+    // Integración del último checkpoint -> deconvolución opcional -> pirámide de teselas. Las teselas
+    // van al pool de cálculo del planificador y cada una pasa por checkpoint() del trabajo.
+    private static ProcessingScheduler.Job exportStackJob(final String sessionPath, @Nullable ReadableMap options,
+                                                          final ExecutorService workers) {
+        final TilePyramidExporter.Format format = options != null && options.hasKey("format")
+            && "webp".equals(options.getString("format")) ? TilePyramidExporter.Format.WEBP : TilePyramidExporter.Format.JPEG;
+        final int quality = getInt(options, "quality", 90);
+        final int iterations = getInt(options, "deconvolveIterations", DEFAULT_DECONVOLVE_ITERATIONS);
+        final float fwhmOverride = (float) getDouble(options, "deconvolveFwhm", 0);
+        return new ProcessingScheduler.Job() {
+            @Override
+            public Object run(final ProcessingScheduler.JobContext context) throws Exception {
+                File dir = new File(sessionPath);
+                try (StackingSession session = StackingSession.open(dir, Integer.MAX_VALUE)) {
+                    int width = session.getInputWidth() * session.getScale();
+                    int height = session.getInputHeight() * session.getScale();
+                    float[] stack = new float[width * height];
+                    session.createIntegrator(null).finish(stack);
+                    context.checkpoint();
+
+                    float exportShare = 1f;
+                    float fwhm = fwhmOverride > 0f ? fwhmOverride
+                        : RichardsonLucy.medianFwhm(session.getReferenceStars()) * session.getScale();
+                    if (iterations > 0 && fwhm > 0f) {
+                        final float deconvolveShare = 0.5f;
+                        // RL usa 'stack' como observación sin copiarlo: pico de tres frames (stack,
+                        // sharp y su buffer de iteración)
+                        float[] sharp = new float[width * height];
+                        new RichardsonLucy(fwhm, iterations, DECONVOLVE_TOLERANCE, workers).run(stack, width, height, sharp,
+                            new RichardsonLucy.Listener() {
+                                @Override
+                                public boolean onIteration(int iteration, long elapsedNs, double relativeChange) {
+                                    context.setProgress(deconvolveShare * iteration / iterations);
+                                    try {
+                                        context.checkpoint();
+                                        return true;
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                        return false;
+                                    }
+                                }
+                            }, context);
+                        context.checkpoint();
+                        // Sin otra referencia al apilado original: se libera antes de exportar
+                        stack = sharp;
+                        exportShare = 1f - deconvolveShare;
+                    }
+
+                    File out = new File(dir, "pyramid");
+                    new TilePyramidExporter(format, quality, workers).export(stack, width, height, out,
+                        subRange(context, 1f - exportShare, 1f));
+                    return out.getAbsolutePath();
+                }
+            }
+        };
+    }
+
+    // Vista de un trabajo que mapea el progreso [0, 1] de una etapa a [from, to] del total.
+    private static ProcessingScheduler.JobContext subRange(final ProcessingScheduler.JobContext context,
+                                                           final float from, final float to) {
+        return new ProcessingScheduler.JobContext() {
+            @Override
+            public void checkpoint() throws InterruptedException {
+                context.checkpoint();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return context.isCancelled();
+            }
+
+            @Override
+            public void setProgress(float progress) {
+                context.setProgress(from + (to - from) * progress);
+            }
+        };
+    }
+
+    // Contenido de pyramid.json como objeto, o null si la pirámide no existe (o está a medias).
+    @ReactMethod
+    public void getPyramidInfo(String pyramidPath, Promise promise) {
+        File info = new File(pyramidPath, TilePyramidExporter.INFO_FILE);
+        if (!info.isFile()) {
+            promise.resolve(null);
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(new String(readAll(info), StandardCharsets.UTF_8));
+            WritableMap result = Arguments.createMap();
+            result.putInt("width", json.getInt("width"));
+            result.putInt("height", json.getInt("height"));
+            result.putInt("tileSize", json.getInt("tileSize"));
+            result.putString("format", json.getString("format"));
+            JSONArray levels = json.getJSONArray("levels");
+            WritableArray levelArray = Arguments.createArray();
+            for (int i = 0; i < levels.length(); i++) {
+                JSONObject level = levels.getJSONObject(i);
+                WritableMap entry = Arguments.createMap();
+                entry.putInt("width", level.getInt("width"));
+                entry.putInt("height", level.getInt("height"));
+                entry.putInt("columns", level.getInt("columns"));
+                entry.putInt("rows", level.getInt("rows"));
+                levelArray.pushMap(entry);
+            }
+            result.putArray("levels", levelArray);
+            promise.resolve(result);
+        } catch (IOException | JSONException e) {
+            promise.reject("PYRAMID_ERROR", e.getMessage());
+        }
+    }
+
+    // URI file:// de una tesela, o null si no existe. El visor la carga directamente desde disco.
+    @ReactMethod
+    public void getPyramidTile(String pyramidPath, int level, int x, int y, Promise promise) {
+        File dir = new File(pyramidPath);
+        for (TilePyramidExporter.Format format : TilePyramidExporter.Format.values()) {
+            File tile = TilePyramidExporter.tileFile(dir, level, x, y, format);
+            if (tile.isFile()) {
+                promise.resolve(Uri.fromFile(tile).toString());
+                return;
+            }
+        }
+        promise.resolve(null);
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    private File getDefaultQuadIndex() {
+        return new File(new File(reactContext.getExternalFilesDir(null), "catalog"), "stars.qidx");
+    }
+
+    private static Comparator<Integer> frameComparator(final FrameIndex.Reader index, String sortBy) {
+        switch (sortBy) {
+            case "iso":
+                return (a, b) -> Integer.compare(index.getIso(a), index.getIso(b));
+            case "exposure":
+                return (a, b) -> Long.compare(index.getExposureNs(a), index.getExposureNs(b));
+            case "focus":
+                return (a, b) -> Float.compare(index.getFocusDistance(a), index.getFocusDistance(b));
+            case "quality":
+                return (a, b) -> Float.compare(index.getQuality(a), index.getQuality(b));
+            case "fwhm":
+                return (a, b) -> Float.compare(index.getFwhm(a), index.getFwhm(b));
+            case "stars":
+                return (a, b) -> Integer.compare(index.getStarCount(a), index.getStarCount(b));
+            default:
+                return (a, b) -> Long.compare(index.getTimestampNs(a), index.getTimestampNs(b));
+        }
+    }
+
+    private static int getInt(@Nullable ReadableMap map, String key, int fallback) {
+        return (map != null && map.hasKey(key) && !map.isNull(key)) ? map.getInt(key) : fallback;
+    }
+
+    private static double getDouble(@Nullable ReadableMap map, String key, double fallback) {
+        return (map != null && map.hasKey(key) && !map.isNull(key)) ? map.getDouble(key) : fallback;
+    }
+
+    private static void putFloatOrNull(WritableMap map, String key, float value) {
+        if (Float.isNaN(value)) map.putNull(key);
+        else map.putDouble(key, value);
+    }
+
     private void processCamera(String id, CameraCharacteristics chars, CameraManager manager, WritableArray camerasArray, boolean isPhysical) {
         Integer facing = chars.get(CameraCharacteristics.LENS_FACING);
         
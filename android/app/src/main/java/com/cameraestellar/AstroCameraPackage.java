@@ -11,16 +11,29 @@ import java.util.List;
 
 public class AstroCameraPackage implements ReactPackage {
 
+   // Los trabajos por lotes ocupan como mucho la mitad de cada segundo: el resto, para captura y
+   // apilado en vivo y para que el teléfono no se caliente en exportaciones largas.
+   // JS lo ajusta con AstroCameraModule.setBatchBudget().
+   private static final float BATCH_DUTY_CYCLE = 0.5f;
+
+   // Un único planificador compartido por la vista (guardado de frames) y el módulo (trabajos por lotes)
+   private final ProcessingScheduler mScheduler =
+       new ProcessingScheduler(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+
+   public AstroCameraPackage() {
+       mScheduler.setBatchBudget(BATCH_DUTY_CYCLE, ProcessingScheduler.DEFAULT_BUDGET_WINDOW_MS);
+   }
+
        @Override
        public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
            List<ViewManager> managers = new ArrayList<>();
-           managers.add(new AstroCameraViewManager());
+           managers.add(new AstroCameraViewManager(mScheduler));
            return managers;
        }
    @Override
    public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
        List<NativeModule> modules = new ArrayList<>();
-       modules.add(new AstroCameraModule(reactContext));
+       modules.add(new AstroCameraModule(reactContext, mScheduler));
        return modules;
    }
 }
@@ -1,7 +1,9 @@
 package com.cameraestellar;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
@@ -14,6 +16,7 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.DngCreator;
 import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.BlackLevelPattern;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
@@ -21,6 +24,8 @@ import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.util.Size;
@@ -36,22 +41,36 @@ import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AstroCameraView extends FrameLayout implements TextureView.SurfaceTextureListener {
 
     private static final String TAG = "AstroCamera";
+    private static final long DEGRADED_PREVIEW_FRAME_NS = 200_000_000L;
+    private static final long BUFFER_WAIT_MS = 2000L;
     private TextureView mTextureView;
     private String mCameraId;
     
@@ -59,7 +78,11 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
 
     private CameraDevice mCameraDevice;
     private CameraCaptureSession mCaptureSession;
-    private CaptureRequest.Builder mPreviewRequestBuilder;
+    // Peticiones preconstruidas (vista previa y ráfaga) de la cámara abierta
+    private CaptureControl mControl;
+    // La sesión está repitiendo la petición de vista previa (se para durante las ráfagas)
+    private boolean mPreviewRepeating = false;
+    private final ControlLatencyTracker mControlLatency = new ControlLatencyTracker();
     private ImageReader mJpegReader;
     private ImageReader mRawReader;
     private CameraCharacteristics mCameraChars;
@@ -68,26 +91,169 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
     
     // Manejo de condición de carrera para RAW (DNG)
     private final Map<Long, Image> mPendingRawImages = new ConcurrentHashMap<>();
+    // Sólo se retienen resultados completos cuando DngCreator los necesita; el resto usa el anillo compacto
     private final Map<Long, TotalCaptureResult> mPendingCaptureResults = new ConcurrentHashMap<>();
+    private final CaptureMetadataRing mCaptureMetadata = new CaptureMetadataRing();
+
+    // Log muestreado (1 de cada 10) fuera del hilo de callbacks
+    private final DiagnosticsLog mDiagnostics = new DiagnosticsLog(10);
 
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
 
-    // Valores manuales
-    private int mIso = 800;
-    private long mExposureNs = 100000000L; 
-    private float mFocusDistance = 0.0f; // 0.0 = Infinito (Default para Astro)
+    // Pool de escritura: compresión paralela por franjas del archivo RAW
+    private volatile ExecutorService mWriterPool;
+
+    // Formato de archivo RAW: DNG sin comprimir (DngCreator) o archivo comprimido sin pérdida
+    public static final String RAW_FORMAT_DNG = "dng";
+    public static final String RAW_FORMAT_COMPRESSED = "compressed";
+    private volatile String mRawFormat = RAW_FORMAT_DNG;
+
+    // Pool de buffers de frame + gobernador de presión de memoria
+    private volatile FrameBufferPool mFramePool;
+    private volatile boolean mPreviewDegraded = false;
+    private volatile boolean mCaptureBackpressure = false;
+    private final MemoryPressureGovernor mMemoryGovernor = new MemoryPressureGovernor(
+        new MemoryPressureGovernor.Actions() {
+            @Override
+            public void setPoolLimit(int buffers) {
+                FrameBufferPool pool = mFramePool;
+                if (pool == null) return;
+                pool.setLimit(buffers);
+                // Al encoger el pool tampoco se guardan planos de apilado ni buffers del códec ociosos
+                boolean shrunk = buffers < pool.getInitialLimit();
+                LiveStacker.setPlaneLimit(shrunk ? 0 : LiveStacker.DEFAULT_PLANE_LIMIT);
+                RawArchiveCodec.setScratchLimit(shrunk ? 0 : RawArchiveCodec.DEFAULT_SCRATCH_LIMIT);
+            }
+
+            @Override
+            public void setPreviewDegraded(boolean degraded) {
+                if (mPreviewDegraded == degraded) return;
+                mPreviewDegraded = degraded;
+                scheduleUpdatePreview();
+            }
+
+            @Override
+            public void setCaptureBackpressure(boolean blocked) {
+                mCaptureBackpressure = blocked;
+            }
+        }, MemoryPressureGovernor.ESCALATING);
+
+    // El gobernador sólo baja de nivel con tick(): se llama periódicamente en CameraBackground
+    // mientras la cámara está abierta, haya disparos o no
+    private static final long GOVERNOR_TICK_MS = 5_000L;
+    private final Runnable mGovernorTick = new Runnable() {
+        @Override
+        public void run() {
+            mMemoryGovernor.tick(SystemClock.elapsedRealtime());
+            Handler handler = mBackgroundHandler;
+            if (handler != null) handler.postDelayed(this, GOVERNOR_TICK_MS);
+        }
+    };
+
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            MemoryPressureGovernor.Level pressure;
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                pressure = MemoryPressureGovernor.Level.CRITICAL;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                pressure = MemoryPressureGovernor.Level.HIGH;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                pressure = MemoryPressureGovernor.Level.MODERATE;
+            } else {
+                return;
+            }
+            Log.w(TAG, "Presión de memoria (trim " + level + "): " + pressure);
+            mMemoryGovernor.signal(pressure, SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public void onLowMemory() {
+            mMemoryGovernor.signal(MemoryPressureGovernor.Level.CRITICAL, SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+    };
+
+    // Sesión de captura: directorio + índice binario de los frames guardados
+    private volatile File mSessionDir;
+    private volatile FrameIndex.Writer mFrameIndex;
+
+    // Binning por software aplicado al salir el RAW del reader (null = resolución completa)
+    private volatile CfaBinner mBinner;
+    private int mBinFactor = 1;
+    private String mBinMode = "sum";
+
+    // Apilado en vivo en el directorio de la sesión de captura; se crea con el primer frame guardado
+    // y se persiste al cerrar la cámara para poder reanudarlo o exportarlo
+    private volatile LiveStacker mLiveStacker;
+    private final Object mLiveStackerLock = new Object();
+    // Frames esperando integración: por encima se descartan del apilado (el RAW ya está guardado)
+    private final AtomicInteger mPendingStackFrames = new AtomicInteger();
+    private static final int MAX_PENDING_STACK_FRAMES = 2;
+
+    // Guardado de frames fuera de CameraBackground (null = en línea, como antes)
+    @Nullable private final ProcessingScheduler mScheduler;
+    private final Set<ProcessingScheduler.JobHandle> mPendingSaves =
+        Collections.newSetFromMap(new ConcurrentHashMap<ProcessingScheduler.JobHandle, Boolean>());
+    // Espera máxima por los guardados en curso al cerrar la cámara (los readers invalidan sus Image)
+    private static final long SAVE_DRAIN_TIMEOUT_MS = 5000;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Valores manuales (se escriben desde el hilo de UI y se leen en CameraBackground)
+    private volatile int mIso = 800;
+    private volatile long mExposureNs = 100000000L;
+    private volatile float mFocusDistance = 0.0f; // 0.0 = Infinito (Default para Astro)
     
-    // Tarea de actualización con Debounce
+    // Actualización inmediata y agrupada: varios cambios antes de que corra la tarea se aplican
+    // juntos con los últimos valores
+    private final AtomicBoolean mUpdatePreviewPosted = new AtomicBoolean(false);
     private final Runnable mUpdatePreviewTask = new Runnable() {
         @Override
         public void run() {
+            mUpdatePreviewPosted.set(false);
             updatePreview();
         }
     };
 
+    // Resultados de la vista previa: sólo se leen mientras hay un cambio de control pendiente
+    private final CameraCaptureSession.CaptureCallback mPreviewCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            if (!mControlLatency.isPending()) return;
+            Integer iso = result.get(CaptureResult.SENSOR_SENSITIVITY);
+            Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            Float focus = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+            Integer lensState = result.get(CaptureResult.LENS_STATE);
+            long latencyNs = mControlLatency.onResult(
+                iso != null ? iso : 0,
+                exposure != null ? exposure : 0L,
+                focus != null ? focus : Float.NaN,
+                lensState != null ? lensState : -1,
+                System.nanoTime());
+            if (latencyNs < 0) return;
+            if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_CAPTURE)) {
+                mDiagnostics.d(TAG, "Latencia control->frame: " + latencyNs / 1_000_000 + " ms ("
+                    + mControlLatency.getLastFrames() + " frames), mediana "
+                    + mControlLatency.getMedianNs() / 1_000_000 + " ms");
+            }
+            WritableMap params = Arguments.createMap();
+            params.putDouble("latencyMs", latencyNs / 1e6);
+            params.putInt("frames", mControlLatency.getLastFrames());
+            params.putDouble("medianMs", mControlLatency.getMedianNs() / 1e6);
+            sendEvent("topControlLatency", params);
+        }
+    };
+
     public AstroCameraView(@NonNull Context context) {
+        this(context, null);
+    }
+
+    public AstroCameraView(@NonNull Context context, @Nullable ProcessingScheduler scheduler) {
         super(context);
+        mScheduler = scheduler;
         init();
     }
 
@@ -115,10 +281,56 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
         scheduleUpdatePreview();
     }
 
+    public void setRawFormat(@Nullable String format) {
+        this.mRawFormat = RAW_FORMAT_COMPRESSED.equals(format) ? RAW_FORMAT_COMPRESSED : RAW_FORMAT_DNG;
+        warnIfDngBinned();
+    }
+
+    // Formato con el que se guardan de verdad los RAW (se informa en topCaptureEnded).
+    private String getEffectiveRawFormat() {
+        return mBinner != null ? RAW_FORMAT_COMPRESSED : mRawFormat;
+    }
+
+    private void warnIfDngBinned() {
+        if (mBinner != null && RAW_FORMAT_DNG.equals(mRawFormat)) {
+            Log.w(TAG, "rawFormat=\"dng\" con binning " + mBinFactor + "x" + mBinFactor
+                + ": los RAW se guardarán como " + RawArchiveCodec.EXTENSION);
+        }
+    }
+
+    // factor: 1 (off), 2 o 3.
+    public void setBinFactor(int factor) {
+        this.mBinFactor = factor;
+        updateBinner();
+    }
+
+    // mode: "sum" | "average" | "superpixel" (superpíxel sólo con 2x2).
+    public void setBinMode(@Nullable String mode) {
+        this.mBinMode = (mode != null) ? mode : "sum";
+        updateBinner();
+    }
+
+    // DngCreator no admite datos agrupados: con binning activo los RAW se guardan como archivo comprimido.
+    private void updateBinner() {
+        if (mBinFactor != 2 && mBinFactor != 3) {
+            mBinner = null;
+            return;
+        }
+        boolean superpixel = "superpixel".equals(mBinMode);
+        if (superpixel && mBinFactor != 2) {
+            Log.w(TAG, "Superpíxel sólo admite 2x2; usando binning CFA " + mBinFactor + "x" + mBinFactor);
+            superpixel = false;
+        }
+        mBinner = new CfaBinner(mBinFactor,
+            superpixel ? CfaBinner.Layout.SUPERPIXEL : CfaBinner.Layout.CFA,
+            "average".equals(mBinMode));
+        warnIfDngBinned();
+    }
+
     private void scheduleUpdatePreview() {
-        if (mBackgroundHandler != null) {
-            mBackgroundHandler.removeCallbacks(mUpdatePreviewTask);
-            mBackgroundHandler.postDelayed(mUpdatePreviewTask, 50);
+        Handler handler = mBackgroundHandler;
+        if (handler != null && mUpdatePreviewPosted.compareAndSet(false, true)) {
+            handler.post(mUpdatePreviewTask);
         }
     }
 
@@ -150,75 +362,63 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
     
         public void takePicture() {
             synchronized (mCameraStateLock) {
-                if (mCameraDevice == null || mCaptureSession == null) {
+                if (mCameraDevice == null || mCaptureSession == null || mControl == null) {
                     Log.e(TAG, "Cámara no lista para capturar.");
                     return;
                 }
                 try {
+                    mMemoryGovernor.tick(SystemClock.elapsedRealtime());
+                    if (mCaptureBackpressure) {
+                        // Contrapresión del gobernador: no encolar más frames hasta que baje la presión
+                        Log.w(TAG, "Captura rechazada: presión de memoria crítica.");
+                        WritableMap params = Arguments.createMap();
+                        params.putBoolean("success", false);
+                        params.putString("error", "Memoria insuficiente, reintente en unos segundos");
+                        sendEvent("topCaptureEnded", params);
+                        return;
+                    }
                     Log.d(TAG, "Iniciando captura. Burst Count: " + mBurstCount);
+                    ensureCaptureSession();
+                    // Los trabajos BATCH se pausan hasta que termine la ráfaga
+                    setSequenceActive(true);
                     
-                    // 1. Preparar Builder Base - PREFERIR TEMPLATE_MANUAL (6)
-                    // TEMPLATE_MANUAL ofrece mejor control sobre ganancia y exposición y desactiva post-proceso agresivo.
-                    int templateType = CameraDevice.TEMPLATE_MANUAL;
-                    // Fallback a STILL_CAPTURE si MANUAL no está soportado (raro en dispositivos Camera2 decentes)
-                    // Verificamos capabilities previamente idealmente, pero try-catch capturará si falla la creación.
-                    
-                    final CaptureRequest.Builder captureBuilder = mCameraDevice.createCaptureRequest(templateType);
-                    captureBuilder.addTarget(mJpegReader.getSurface());
-                    if (mRawReader != null) captureBuilder.addTarget(mRawReader.getSurface());
-    
-                    // 2. Parámetros Manuales (Límite Hardware 0.15s)
+                    // 1. Parámetros Manuales (Límite Hardware 0.15s)
                     int clampedIso = getClampedIso(mIso);
                     long clampedExposure = getClampedExposure(mExposureNs);
                     
-                    Log.w(TAG, "=== CAPTURA DATOS ===");
-                    Log.w(TAG, "Cámara ID Actual: " + mCameraId);
-                    Log.w(TAG, "Solicitado ISO: " + mIso + " -> Clamped: " + clampedIso);
-                    Log.w(TAG, "Solicitado Exp: " + (mExposureNs/1e9) + "s -> Clamped: " + (clampedExposure/1e9) + "s");
-                    Log.w(TAG, "Rango Exp Hardware: " + (mExposureRange.getLower()/1e9) + "s - " + (mExposureRange.getUpper()/1e9) + "s");
-    
-                    // Forzar modo manual
-                    captureBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_OFF);
-                    // CONTROL_CAPTURE_INTENT_MANUAL es redundante con TEMPLATE_MANUAL pero asegura la intención
-                    captureBuilder.set(CaptureRequest.CONTROL_CAPTURE_INTENT, CameraMetadata.CONTROL_CAPTURE_INTENT_MANUAL);
-                    captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_OFF);
-                    captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
-                    captureBuilder.set(CaptureRequest.CONTROL_AWB_MODE, CameraMetadata.CONTROL_AWB_MODE_OFF);
-                    
-                    // Desactivar cualquier "Scene Mode" o "Effect Mode"
-                    captureBuilder.set(CaptureRequest.CONTROL_SCENE_MODE, CameraMetadata.CONTROL_SCENE_MODE_DISABLED);
-                    captureBuilder.set(CaptureRequest.CONTROL_EFFECT_MODE, CameraMetadata.CONTROL_EFFECT_MODE_OFF);
-                    
-                    // Hotfix para algunos Samsung/Xiaomi: Desactivar ZSL (Zero Shutter Lag) si está activo implícitamente
-                    // captureBuilder.set(CaptureRequest.CONTROL_ENABLE_ZSL, false); // Requiere API 26+
-                    
-                    captureBuilder.set(CaptureRequest.SENSOR_SENSITIVITY, clampedIso);
-                    captureBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, clampedExposure);
-                    captureBuilder.set(CaptureRequest.SENSOR_FRAME_DURATION, clampedExposure + 5_000_000L); // +5ms overhead
-                    captureBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, mFocusDistance);
-                    captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, 90);
-    
-                    // 3. Crear lista de solicitudes para la ráfaga
-                    List<CaptureRequest> burstRequests = new ArrayList<>();
-                    for (int i = 0; i < mBurstCount; i++) {
-                        captureBuilder.setTag(i); // Marcar índice
-                        burstRequests.add(captureBuilder.build());
+                    if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_CAPTURE)) {
+                        mDiagnostics.w(TAG, "Captura cámara " + mCameraId
+                            + " | ISO " + mIso + " -> " + clampedIso
+                            + " | Exp " + (mExposureNs / 1e9) + "s -> " + (clampedExposure / 1e9) + "s"
+                            + (mExposureRange != null
+                                ? " | Rango HW " + (mExposureRange.getLower() / 1e9) + "s - " + (mExposureRange.getUpper() / 1e9) + "s"
+                                : ""));
                     }
     
+                    // 2. Ráfaga sobre el builder TEMPLATE_MANUAL preconstruido: sólo cambian ISO,
+                    // exposición, duración (+5ms overhead) y foco
+                    List<CaptureRequest> burstRequests = mControl.buildStillBurst(clampedIso, clampedExposure,
+                        clampedExposure + 5_000_000L, mFocusDistance, mBurstCount);
+    
                     CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
                         @Override
                         public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
                             Integer index = (Integer) request.getTag();
                             int idx = (index != null) ? index : 0;
                             
-                            Log.d(TAG, "Captura " + (idx + 1) + "/" + mBurstCount + " completada.");
+                            if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_FRAME)) {
+                                mDiagnostics.d(TAG, "Captura " + (idx + 1) + "/" + mBurstCount + " completada.");
+                            }
                             handleCaptureResult(result);
                             
                             // Si es la última foto, finalizar
                             if (idx == mBurstCount - 1) {
+                                setSequenceActive(false);
                                 scheduleUpdatePreview();
                                 WritableMap params = Arguments.createMap();
                                 params.putBoolean("success", true);
+                                params.putString("rawFormat", getEffectiveRawFormat());
+                                if (mSessionDir != null) params.putString("sessionPath", mSessionDir.getAbsolutePath());
                                 sendEvent("topCaptureEnded", params);
                             }
                         }
@@ -230,6 +430,7 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
                             
                             // Reportar error solo si es la última para no spamear eventos, o si es fatal
                             if (index != null && index == mBurstCount - 1) {
+                                setSequenceActive(false);
                                 scheduleUpdatePreview();
                                 WritableMap params = Arguments.createMap();
                                 params.putBoolean("success", false);
@@ -250,6 +451,7 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
                     // 4. Ejecutar
                     mCaptureSession.stopRepeating();
                     mCaptureSession.abortCaptures();
+                    mPreviewRepeating = false;
                     
                     if (mBurstCount > 1) {
                         mCaptureSession.captureBurst(burstRequests, captureCallback, mBackgroundHandler);
@@ -258,25 +460,31 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
                     }
                     
                 } catch (CameraAccessException e) {
+                    setSequenceActive(false);
                     Log.e(TAG, "Error: " + e.getMessage());
                 }
             }
         }    
     private void handleCaptureResult(TotalCaptureResult result) {
-        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
-        if (timestamp == null) {
-            Log.e(TAG, "Error: Timestamp nulo en resultado de captura.");
+        int slot = mCaptureMetadata.record(result);
+        if (slot < 0) {
+            mDiagnostics.e(TAG, "Error: Timestamp nulo en resultado de captura.");
             return;
         }
+        long timestamp = mCaptureMetadata.getTimestampNs(slot);
 
         Image pendingImage = mPendingRawImages.remove(timestamp);
         if (pendingImage != null) {
-            Log.d(TAG, "Sincronización exitosa (Result llegó último). Guardando RAW...");
-            saveRawToGallery(pendingImage, result);
-        } else {
-            Log.d(TAG, "Resultado llegó primero. Esperando imagen RAW...");
+            scheduleRawSave(pendingImage, result, slot);
+        } else if (needsFullCaptureResult()) {
+            // DngCreator necesita el TotalCaptureResult completo hasta que llegue la imagen
             mPendingCaptureResults.put(timestamp, result);
         }
+        // En otro caso el resultado pesado se libera aquí: basta con el slot compacto
+    }
+
+    private boolean needsFullCaptureResult() {
+        return RAW_FORMAT_DNG.equals(mRawFormat);
     }
 
     @Override
@@ -389,6 +597,15 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
 
             startBackgroundThread();
 
+            if (largestRawSize != null) {
+                mFramePool = FrameBufferPool.forFrame(largestRawSize.getWidth(), largestRawSize.getHeight(), 2,
+                    Runtime.getRuntime().maxMemory(), BuildConfig.DEBUG);
+                mMemoryGovernor.setPool(mFramePool);
+                Log.i(TAG, "Pool de frames: " + mFramePool.getInitialLimit() + " x " + (mFramePool.getBufferBytes() >> 20) + " MB");
+            }
+            getContext().getApplicationContext().registerComponentCallbacks(mTrimCallbacks);
+            mBackgroundHandler.postDelayed(mGovernorTick, GOVERNOR_TICK_MS);
+
             mJpegReader = ImageReader.newInstance(largestJpegSize.getWidth(), largestJpegSize.getHeight(), ImageFormat.JPEG, 2);
             mJpegReader.setOnImageAvailableListener(mJpegImageListener, mBackgroundHandler);
 
@@ -441,7 +658,6 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
     private final ImageReader.OnImageAvailableListener mJpegImageListener = new ImageReader.OnImageAvailableListener() {
         @Override
         public void onImageAvailable(ImageReader reader) {
-            Log.d(TAG, "JPEG disponible en buffer.");
             Image image = null;
             try {
                 image = reader.acquireNextImage();
@@ -455,24 +671,75 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
     private final ImageReader.OnImageAvailableListener mRawImageListener = new ImageReader.OnImageAvailableListener() {
         @Override
         public void onImageAvailable(ImageReader reader) {
-            Log.d(TAG, "RAW disponible en buffer.");
             Image image = reader.acquireNextImage(); 
             if (image == null) return;
             
             long timestamp = image.getTimestamp();
+            int slot = mCaptureMetadata.find(timestamp);
             TotalCaptureResult result = mPendingCaptureResults.remove(timestamp);
             
-            if (result != null) {
-                Log.d(TAG, "Sincronización exitosa (Imagen llegó última). Guardando RAW...");
-                saveRawToGallery(image, result);
+            if (slot >= 0 && (result != null || !needsFullCaptureResult())) {
+                scheduleRawSave(image, result, slot);
             } else {
-                Log.d(TAG, "Imagen RAW llegó primero. Esperando metadatos...");
+                // Imagen RAW llegó primero. Esperando metadatos...
                 mPendingRawImages.put(timestamp, image);
             }
         }
     };
 
-    private void saveRawToGallery(Image image, TotalCaptureResult result) {
+    // El guardado (binning, compresión, DNG) va al planificador como CAPTURE_CRITICAL para que
+    // CameraBackground quede libre para los callbacks de la ráfaga.
+    private void scheduleRawSave(final Image image, @Nullable final TotalCaptureResult result, int slot) {
+        // Los metadatos se copian ahora: cuando corra el guardado el slot puede ser de otro frame
+        final CaptureMetadataRing.Frame metadata = mCaptureMetadata.snapshot(slot);
+        if (metadata.timestampNs != image.getTimestamp()) {
+            Log.e(TAG, "Metadatos de captura desemparejados (slot " + slot + "): frame " + image.getTimestamp()
+                + " descartado");
+            image.close();
+            return;
+        }
+        ProcessingScheduler scheduler = mScheduler;
+        if (scheduler == null) {
+            saveRawToGallery(image, result, metadata);
+            return;
+        }
+        final ProcessingScheduler.JobHandle job;
+        try {
+            job = scheduler.submit("saveRaw", ProcessingScheduler.Priority.CAPTURE_CRITICAL,
+                new ProcessingScheduler.Job() {
+                    @Override
+                    public Object run(ProcessingScheduler.JobContext context) {
+                        saveRawToGallery(image, result, metadata);
+                        return null;
+                    }
+                });
+        } catch (IllegalStateException e) {
+            saveRawToGallery(image, result, metadata);
+            return;
+        }
+        mPendingSaves.add(job);
+        job.addCallback(new ProcessingScheduler.Callback() {
+            @Override
+            public void onFinished(ProcessingScheduler.JobHandle finished) {
+                mPendingSaves.remove(finished);
+                // Un guardado nunca se cancela a medias; si se descartó en cola, liberar la imagen
+                if (finished.getState() == ProcessingScheduler.State.CANCELLED) image.close();
+                if (finished.getState() == ProcessingScheduler.State.FAILED) {
+                    Log.e(TAG, "Error guardando RAW: " + finished.getError());
+                }
+            }
+        });
+    }
+
+    private void setSequenceActive(boolean active) {
+        if (mScheduler != null) mScheduler.setSequenceActive(active);
+    }
+
+    private void saveRawToGallery(Image image, @Nullable TotalCaptureResult result, CaptureMetadataRing.Frame metadata) {
+        if (result == null || mBinner != null || RAW_FORMAT_COMPRESSED.equals(mRawFormat)) {
+            saveRawArchive(image, metadata);
+            return;
+        }
         try {
             if (mCameraChars == null) return;
             
@@ -491,7 +758,16 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
                  DngCreator dngCreator = new DngCreator(mCameraChars, result)) {
                 
                 dngCreator.writeImage(output, image);
-                Log.d(TAG, "RAW (DNG) guardado: " + uri.toString());
+                int position = appendToFrameIndex(uri.toString(), metadata);
+                Image.Plane plane = image.getPlanes()[0];
+                BlackLevelPattern black = mCameraChars.get(CameraCharacteristics.SENSOR_BLACK_LEVEL_PATTERN);
+                Integer cfa = mCameraChars.get(CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT);
+                feedLiveStack(plane.getBuffer().order(ByteOrder.LITTLE_ENDIAN), plane.getRowStride(),
+                    image.getWidth(), image.getHeight(), cfa != null ? cfa : -1,
+                    black != null ? black.getOffsetForIndex(0, 0) : 0, position);
+                if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_SAVE)) {
+                    mDiagnostics.d(TAG, "RAW (DNG) guardado: " + uri);
+                }
                 
             } catch (IOException e) {
                 Log.e(TAG, "Error escritura RAW: " + e.getMessage());
@@ -501,6 +777,214 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
         }
     }
 
+    // Archivo comprimido sin pérdida. No pasa por MediaStore (la galería no conoce el formato):
+    // se guarda en el almacenamiento externo de la app, DCIM/AstroCamera.
+    private void saveRawArchive(Image image, CaptureMetadataRing.Frame metadata) {
+        FrameBufferPool.Lease binnedLease = null;
+        try {
+            if (mCameraChars == null || mWriterPool == null) return;
+
+            File dir = new File(getContext().getExternalFilesDir(Environment.DIRECTORY_DCIM), "AstroCamera");
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(TAG, "Error al crear directorio de archivo RAW: " + dir);
+                return;
+            }
+            File file = new File(dir, "ASTRO_" + System.currentTimeMillis() + RawArchiveCodec.EXTENSION);
+
+            Image.Plane plane = image.getPlanes()[0];
+            ByteBuffer data = plane.getBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            int rowStride = plane.getRowStride();
+
+            RawArchiveCodec.Header header = new RawArchiveCodec.Header();
+            header.width = image.getWidth();
+            header.height = image.getHeight();
+            Integer cfa = mCameraChars.get(CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT);
+            header.cfaArrangement = (cfa != null) ? cfa : -1;
+            Integer white = mCameraChars.get(CameraCharacteristics.SENSOR_INFO_WHITE_LEVEL);
+            header.whiteLevel = (white != null) ? white : 0;
+            BlackLevelPattern black = mCameraChars.get(CameraCharacteristics.SENSOR_BLACK_LEVEL_PATTERN);
+            header.blackLevel = (black != null) ? black.getOffsetForIndex(0, 0) : 0;
+
+            // Binning antes de cualquier otra etapa, sobre un buffer prestado del pool
+            CfaBinner binner = mBinner;
+            FrameBufferPool pool = mFramePool;
+            if (binner != null && pool != null) {
+                binnedLease = pool.acquire(BUFFER_WAIT_MS);
+                if (binnedLease != null) {
+                    ByteBuffer binned = binnedLease.buffer().order(ByteOrder.LITTLE_ENDIAN);
+                    binner.bin(data, rowStride, header.width, header.height, binned, mWriterPool);
+                    data = binned;
+                    header.width = binner.outputWidth(header.width);
+                    header.height = binner.outputHeight(header.height);
+                    rowStride = header.width * 2;
+                    header.whiteLevel = binner.outputWhiteLevel(header.whiteLevel);
+                    header.blackLevel = binner.outputBlackLevel(header.blackLevel);
+                    header.binning = binner.getFactor();
+                    if (binner.getLayout() == CfaBinner.Layout.SUPERPIXEL) {
+                        header.cfaArrangement = RawArchiveCodec.CFA_MONO;
+                    }
+                } else {
+                    Log.w(TAG, "Pool de frames agotado: guardando sin binning.");
+                }
+            }
+            header.iso = metadata.iso;
+            header.exposureNs = metadata.exposureNs;
+            header.timestampNs = image.getTimestamp();
+
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+                long t0 = System.nanoTime();
+                long bytes = RawArchiveCodec.write(output, header, data, rowStride, mWriterPool);
+                int position = appendToFrameIndex(Uri.fromFile(file).toString(), metadata);
+                feedLiveStack(data, rowStride, header.width, header.height, header.cfaArrangement, header.blackLevel,
+                    position);
+                if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_SAVE)) {
+                    mDiagnostics.d(TAG, "RAW comprimido guardado: " + file + " (" + bytes / 1024 + " KB, "
+                        + (System.nanoTime() - t0) / 1_000_000 + " ms)");
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error escritura RAW comprimido: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (binnedLease != null) binnedLease.release();
+            image.close();
+        }
+    }
+
+    public static File getSessionsRoot(Context context) {
+        return new File(context.getExternalFilesDir(null), "sessions");
+    }
+
+    // Una sesión por apertura de cámara; se crea con el primer disparo.
+    private void ensureCaptureSession() {
+        if (mFrameIndex != null) return;
+        String name = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File dir = new File(getSessionsRoot(getContext()), name);
+        try {
+            mFrameIndex = new FrameIndex.Writer(dir);
+            mSessionDir = dir;
+            Log.d(TAG, "Sesión de captura: " + dir);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creando índice de sesión: " + e.getMessage());
+        }
+    }
+
+    // Devuelve la posición del frame en el índice, o -1 si no se pudo añadir.
+    private int appendToFrameIndex(String uri, CaptureMetadataRing.Frame metadata) {
+        FrameIndex.Writer index = mFrameIndex;
+        if (index == null) return -1;
+        FrameIndex.Record record = new FrameIndex.Record();
+        record.timestampNs = metadata.timestampNs;
+        record.exposureNs = metadata.exposureNs;
+        record.frameDurationNs = metadata.frameDurationNs;
+        record.iso = metadata.iso;
+        record.focusDistance = metadata.focusDistance;
+        record.cameraId = mCameraId != null ? mCameraId : "";
+        record.uri = uri;
+        try {
+            return index.append(record);
+        } catch (IOException e) {
+            Log.e(TAG, "Error escribiendo índice de sesión: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Copia el frame recién guardado a un plano de luminancia (la Image y el buffer del binning se
+    // liberan al volver) y lo encola como trabajo LIVE para el apilado en vivo. El plano sale de los
+    // ociosos de LiveStacker y vuelve allí al terminar el trabajo.
+    private void feedLiveStack(ByteBuffer data, int rowStride, int width, int height, int cfa, int blackLevel,
+                               final int position) {
+        File dir = mSessionDir;
+        ExecutorService pool = mWriterPool;
+        final FrameIndex.Writer index = mFrameIndex;
+        if (position < 0 || dir == null || pool == null) return;
+        if (mPendingStackFrames.incrementAndGet() > MAX_PENDING_STACK_FRAMES) {
+            mPendingStackFrames.decrementAndGet();
+            Log.w(TAG, "Apilado en vivo saturado: frame " + position + " sólo guardado");
+            return;
+        }
+        boolean mono = cfa == RawArchiveCodec.CFA_MONO;
+        final LiveStacker stacker = ensureLiveStacker(dir,
+            LiveStacker.planeWidth(width, mono), LiveStacker.planeHeight(height, mono), pool);
+        if (stacker == null) {
+            mPendingStackFrames.decrementAndGet();
+            return;
+        }
+        final float[] plane = LiveStacker.acquirePlane(stacker.getWidth() * stacker.getHeight());
+        LiveStacker.luminance(data, rowStride, width, height, mono, blackLevel, plane);
+        ProcessingScheduler.Job job = new ProcessingScheduler.Job() {
+            @Override
+            public Object run(ProcessingScheduler.JobContext context) throws Exception {
+                LiveStacker.FrameStats stats = stacker.addFrame(plane, position);
+                if (stats == null) return null;
+                if (index != null) {
+                    index.updateQuality(position, stats.fwhm, stats.background, stats.quality, stats.starCount);
+                }
+                if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_SAVE)) {
+                    mDiagnostics.d(TAG, "Apilado en vivo: frame " + position + (stats.integrated ? " integrado" : " sin registro")
+                        + " (" + stats.starCount + " estrellas, FWHM " + stats.fwhm + ", " + stats.trailCount + " trazas)");
+                }
+                return null;
+            }
+        };
+        ProcessingScheduler scheduler = mScheduler;
+        if (scheduler == null) {
+            runInline(job);
+            LiveStacker.releasePlane(plane);
+            mPendingStackFrames.decrementAndGet();
+            return;
+        }
+        try {
+            scheduler.submit("liveStack", ProcessingScheduler.Priority.LIVE, job).addCallback(
+                new ProcessingScheduler.Callback() {
+                    @Override
+                    public void onFinished(ProcessingScheduler.JobHandle finished) {
+                        LiveStacker.releasePlane(plane);
+                        mPendingStackFrames.decrementAndGet();
+                        if (finished.getState() == ProcessingScheduler.State.FAILED) {
+                            Log.e(TAG, "Error en apilado en vivo: " + finished.getError());
+                        }
+                    }
+                });
+        } catch (IllegalStateException e) {
+            LiveStacker.releasePlane(plane);
+            mPendingStackFrames.decrementAndGet();
+        }
+    }
+
+    private static void runInline(ProcessingScheduler.Job job) {
+        try {
+            job.run(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "Error en apilado en vivo: " + e.getMessage());
+        }
+    }
+
+    @Nullable
+    private LiveStacker ensureLiveStacker(File dir, int width, int height, ExecutorService pool) {
+        synchronized (mLiveStackerLock) {
+            LiveStacker stacker = mLiveStacker;
+            if (stacker == null || !stacker.getDirectory().equals(dir)) {
+                try {
+                    stacker = LiveStacker.open(dir, width, height, pool);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error creando sesión de apilado: " + e.getMessage());
+                    return null;
+                }
+                mLiveStacker = stacker;
+            }
+            if (stacker.getWidth() != width || stacker.getHeight() != height) {
+                // Cambió el binning a mitad de secuencia: el acumulador no admite otra geometría
+                Log.w(TAG, "Frame " + width + "x" + height + " fuera de la geometría del apilado");
+                return null;
+            }
+            return stacker;
+        }
+    }
+
     private void saveJpegToGallery(Image image) {
         ByteBuffer buffer = image.getPlanes()[0].getBuffer();
         ContentValues values = new ContentValues();
@@ -512,7 +996,9 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
         try (OutputStream output = getContext().getContentResolver().openOutputStream(uri);
              WritableByteChannel channel = Channels.newChannel(output)) {
             channel.write(buffer);
-            Log.d(TAG, "JPEG guardado: " + uri.toString());
+            if (mDiagnostics.sample(DiagnosticsLog.CHANNEL_SAVE)) {
+                mDiagnostics.d(TAG, "JPEG guardado: " + uri);
+            }
         } catch (IOException e) {
             Log.e(TAG, "Error JPEG: " + e.getMessage());
         }
@@ -555,8 +1041,13 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
             targets.add(mJpegReader.getSurface());
             if (mRawReader != null) targets.add(mRawReader.getSurface());
 
-            mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewRequestBuilder.addTarget(surface);
+            // Builders de vista previa y ráfaga: se crean una vez por cámara abierta
+            List<Surface> stillTargets = new ArrayList<>();
+            stillTargets.add(mJpegReader.getSurface());
+            if (mRawReader != null) stillTargets.add(mRawReader.getSurface());
+            mControl = new CaptureControl(mCameraDevice, surface, stillTargets);
+            mPreviewRepeating = false;
+            mControlLatency.reset();
 
             mCameraDevice.createCaptureSession(targets,
                 new CameraCaptureSession.StateCallback() {
@@ -580,7 +1071,7 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
 
     private void updatePreview() {
         synchronized (mCameraStateLock) {
-            if (mCaptureSession == null) return;
+            if (mCaptureSession == null || mControl == null) return;
             try {
                 // Limitar la exposición de la vista previa para evitar lag (ej. máximo 1/15s)
                 long MAX_PREVIEW_EXPOSURE_NS = 66_666_666L; 
@@ -588,46 +1079,180 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
                 
                 int clampedIso = getClampedIso(mIso);
                 long clampedPreviewExposure = getClampedExposure(previewExposure);
+                float focusDistance = mFocusDistance;
+                // Bajo presión de memoria la vista previa baja a ~5 fps para aliviar ISP y buffers
+                long previewFrameDuration = mPreviewDegraded
+                    ? Math.max(clampedPreviewExposure, DEGRADED_PREVIEW_FRAME_NS)
+                    : clampedPreviewExposure;
 
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_OFF);
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
-                mPreviewRequestBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, mFocusDistance);
-                
-                // Desactivar estabilización en preview también
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_VIDEO_STABILIZATION_MODE, CameraMetadata.CONTROL_VIDEO_STABILIZATION_MODE_OFF);
-                mPreviewRequestBuilder.set(CaptureRequest.LENS_OPTICAL_STABILIZATION_MODE, CameraMetadata.LENS_OPTICAL_STABILIZATION_MODE_OFF);
-
-                mPreviewRequestBuilder.set(CaptureRequest.SENSOR_SENSITIVITY, clampedIso);
-                mPreviewRequestBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, clampedPreviewExposure);
-                mPreviewRequestBuilder.set(CaptureRequest.SENSOR_FRAME_DURATION, clampedPreviewExposure);
-                mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+                // Sólo se tocan las claves que cambiaron; sin cambios y repitiendo, no hay nada que hacer
+                int changed = mControl.applyPreview(clampedIso, clampedPreviewExposure, previewFrameDuration, focusDistance);
+                if (changed == 0 && mPreviewRepeating) return;
+                mCaptureSession.setRepeatingRequest(mControl.getPreviewRequest(), mPreviewCallback, mBackgroundHandler);
+                mPreviewRepeating = true;
+                // Sólo cambios de ISO/exposición/foco: con la duración de frame sola (degradar o restaurar
+                // la vista previa) el primer resultado ya coincide y daría una latencia falsa
+                if ((changed & CaptureControl.CHANGED_EXPOSURE) != 0) {
+                    mControlLatency.onRequested(clampedIso, clampedPreviewExposure, focusDistance, System.nanoTime());
+                }
             } catch (CameraAccessException e) {
                 Log.e(TAG, "Error en vista previa: " + e.getMessage());
             }
         }
     }
 
+    // Se llama en el hilo de UI (superficie destruida, vista desacoplada): aquí sólo se para la
+    // cámara. Readers, índice, apilado y pool de escritura se cierran en finishClose() fuera del hilo
+    // de UI cuando terminan los guardados pendientes, que aún usan la Image, el índice y el pool.
     private void closeCamera() {
+        setSequenceActive(false);
+        // Sin hilo de fondo la cámara no está abierta (o ya se cerró: llegan los dos avisos)
+        if (mBackgroundThread == null) return;
+        final ImageReader jpegReader;
+        final ImageReader rawReader;
         synchronized (mCameraStateLock) {
             if (mCaptureSession != null) { mCaptureSession.close(); mCaptureSession = null; }
             if (mCameraDevice != null) { mCameraDevice.close(); mCameraDevice = null; }
-            if (mJpegReader != null) { mJpegReader.close(); mJpegReader = null; }
-            if (mRawReader != null) { mRawReader.close(); mRawReader = null; }
-            
+            mControl = null;
+            mPreviewRepeating = false;
+            jpegReader = mJpegReader;
+            rawReader = mRawReader;
+            mJpegReader = null;
+            mRawReader = null;
+
             // Limpiar pendientes
             for (Image img : mPendingRawImages.values()) {
                 img.close();
             }
             mPendingRawImages.clear();
             mPendingCaptureResults.clear();
+            mCaptureMetadata.clear();
+
+            if (mBackgroundHandler != null) mBackgroundHandler.removeCallbacks(mGovernorTick);
+            mMemoryGovernor.reset();
+            getContext().getApplicationContext().unregisterComponentCallbacks(mTrimCallbacks);
         }
+        final FrameIndex.Writer index = mFrameIndex;
+        final File sessionDir = mSessionDir;
+        final FrameBufferPool pool = mFramePool;
+        final ExecutorService writers = mWriterPool;
         stopBackgroundThread();
+        runAfterPendingSaves(new Runnable() {
+            @Override
+            public void run() {
+                finishClose(jpegReader, rawReader, index, sessionDir, pool, writers);
+            }
+        });
+    }
+
+    // Lanza 'teardown' fuera del hilo de UI cuando terminan los guardados en curso (por sus
+    // callbacks, sin esperas bloqueantes) o, si alguno se atasca, a los SAVE_DRAIN_TIMEOUT_MS.
+    private void runAfterPendingSaves(final Runnable teardown) {
+        final AtomicBoolean started = new AtomicBoolean(false);
+        final Runnable start = new Runnable() {
+            @Override
+            public void run() {
+                if (started.compareAndSet(false, true)) runInBackground(teardown);
+            }
+        };
+        List<ProcessingScheduler.JobHandle> saves = new ArrayList<>(mPendingSaves);
+        final AtomicInteger remaining = new AtomicInteger(saves.size() + 1);
+        ProcessingScheduler.Callback onSaved = new ProcessingScheduler.Callback() {
+            @Override
+            public void onFinished(ProcessingScheduler.JobHandle finished) {
+                if (remaining.decrementAndGet() == 0) start.run();
+            }
+        };
+        for (ProcessingScheduler.JobHandle save : saves) save.addCallback(onSaved);
+        if (remaining.decrementAndGet() == 0) {
+            start.run();
+            return;
+        }
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (started.get()) return;
+                Log.w(TAG, "Guardado RAW sin terminar al cerrar la cámara");
+                start.run();
+            }
+        }, SAVE_DRAIN_TIMEOUT_MS);
+    }
+
+    private void runInBackground(final Runnable task) {
+        ProcessingScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            try {
+                scheduler.submit("closeCamera", ProcessingScheduler.Priority.LIVE, new ProcessingScheduler.Job() {
+                    @Override
+                    public Object run(ProcessingScheduler.JobContext context) {
+                        task.run();
+                        return null;
+                    }
+                });
+                return;
+            } catch (IllegalStateException e) {
+                // Planificador apagado: hilo propio
+            }
+        }
+        new Thread(task, "CameraTeardown").start();
+    }
+
+    // Segunda mitad de closeCamera(), con los guardados ya terminados. Los campos sólo se limpian si
+    // siguen siendo de esta apertura: la cámara puede haberse reabierto mientras tanto.
+    private void finishClose(@Nullable ImageReader jpegReader, @Nullable ImageReader rawReader,
+                             @Nullable FrameIndex.Writer index, @Nullable File sessionDir,
+                             @Nullable FrameBufferPool pool, @Nullable ExecutorService writers) {
+        if (jpegReader != null) jpegReader.close();
+        if (rawReader != null) rawReader.close();
+        // El apilado antes que el índice y el pool: sus trabajos en cola usan ambos
+        closeLiveStacker(sessionDir);
+        if (index != null) {
+            try { index.close(); } catch (IOException e) { Log.e(TAG, "Error cerrando índice: " + e.getMessage()); }
+        }
+        if (pool != null) {
+            for (String leak : pool.findLeaks(0)) {
+                Log.w(TAG, "Fuga de buffer de frame: " + leak);
+            }
+        }
+        if (writers != null) writers.shutdown();
+        // Con la cámara cerrada no se retienen planos ni buffers del códec hasta la próxima sesión
+        LiveStacker.trimPlanes();
+        RawArchiveCodec.trimScratch();
+        synchronized (mCameraStateLock) {
+            if (index != null && mFrameIndex == index) {
+                mFrameIndex = null;
+                mSessionDir = null;
+            }
+            if (pool != null && mFramePool == pool) {
+                mFramePool = null;
+                mMemoryGovernor.setPool(null);
+            }
+            if (writers != null && mWriterPool == writers) mWriterPool = null;
+        }
+    }
+
+    // Los trabajos de apilado aún en cola se descartan al cerrar.
+    private void closeLiveStacker(@Nullable File sessionDir) {
+        LiveStacker stacker;
+        synchronized (mLiveStackerLock) {
+            stacker = mLiveStacker;
+            if (stacker == null || sessionDir == null || !stacker.getDirectory().equals(sessionDir)) return;
+            mLiveStacker = null;
+        }
+        try {
+            stacker.close();
+            Log.d(TAG, "Sesión de apilado persistida: " + stacker.getDirectory());
+        } catch (IOException e) {
+            Log.e(TAG, "Error persistiendo sesión de apilado: " + e.getMessage());
+        }
     }
 
     private void startBackgroundThread() {
         mBackgroundThread = new HandlerThread("CameraBackground");
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mWriterPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        mDiagnostics.start();
     }
 
     private void sendEvent(String eventName, @Nullable WritableMap params) {
@@ -644,6 +1269,8 @@ public class AstroCameraView extends FrameLayout implements TextureView.SurfaceT
             mBackgroundThread.quitSafely();
             try { mBackgroundThread.join(); mBackgroundThread = null; mBackgroundHandler = null; } catch (InterruptedException e) {}
         }
+        // El pool de escritura lo apaga finishClose() tras los guardados pendientes
+        mDiagnostics.stop();
     }
     
     static class CompareSizesByArea implements Comparator<Size> {
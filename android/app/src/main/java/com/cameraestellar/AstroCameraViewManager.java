@@ -16,6 +16,12 @@ public class AstroCameraViewManager extends SimpleViewManager<AstroCameraView> {
     public static final String REACT_CLASS = "AstroCameraView";
     public static final int COMMAND_TAKE_PICTURE = 1;
 
+    private final ProcessingScheduler mScheduler;
+
+    public AstroCameraViewManager(ProcessingScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
     @Override
     public String getName() {
         return REACT_CLASS;
@@ -23,7 +29,7 @@ public class AstroCameraViewManager extends SimpleViewManager<AstroCameraView> {
 
     @Override
     public AstroCameraView createViewInstance(ThemedReactContext context) {
-        return new AstroCameraView(context);
+        return new AstroCameraView(context, mScheduler);
     }
 
     @ReactProp(name = "iso")
@@ -46,6 +52,22 @@ public class AstroCameraViewManager extends SimpleViewManager<AstroCameraView> {
         view.setBurstCount(count);
     }
 
+    @ReactProp(name = "rawFormat")
+    public void setRawFormat(AstroCameraView view, @Nullable String format) {
+        view.setRawFormat(format);
+    }
+
+    // Binning por sesión: 1 (off) / 2 / 3
+    @ReactProp(name = "binFactor", defaultInt = 1)
+    public void setBinFactor(AstroCameraView view, int factor) {
+        view.setBinFactor(factor);
+    }
+
+    @ReactProp(name = "binMode")
+    public void setBinMode(AstroCameraView view, @Nullable String mode) {
+        view.setBinMode(mode);
+    }
+
     @Override
     public Map<String, Integer> getCommandsMap() {
         return MapBuilder.of(
@@ -58,6 +80,7 @@ public class AstroCameraViewManager extends SimpleViewManager<AstroCameraView> {
         return MapBuilder.builder()
             .put("topCaptureStarted", MapBuilder.of("registrationName", "onCaptureStarted"))
             .put("topCaptureEnded", MapBuilder.of("registrationName", "onCaptureEnded"))
+            .put("topControlLatency", MapBuilder.of("registrationName", "onControlLatency"))
             .build();
     }
 
@@ -0,0 +1,128 @@
+package com.cameraestellar;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Peticiones de vista previa y de captura preconstruidas por cámara abierta.
+//
+// Los builders se crean una vez al configurar la sesión, con todas las claves fijas (modo manual,
+// AE/AF/AWB off, estabilización off, orientación...). Después sólo se tocan las cuatro claves que
+// mueve el usuario (ISO, exposición, duración de frame y foco), y sólo si cambiaron respecto a lo
+// último escrito en ese builder. La petición de vista previa construida se guarda y se reutiliza
+// mientras no cambie nada, así que reanudar la repetición tras una ráfaga no cuesta un build(); lo
+// mismo con la última ráfaga, que se vuelve a enviar tal cual si se repite el disparo.
+//
+// No es thread-safe: se usa bajo mCameraStateLock de AstroCameraView.
+public class CaptureControl {
+
+    // Qué cambió en applyPreview(): los parámetros de exposición que sigue ControlLatencyTracker
+    // (ISO, exposición, foco) o sólo la duración de frame (p. ej. al degradar la vista previa)
+    public static final int CHANGED_EXPOSURE = 1;
+    public static final int CHANGED_FRAME_DURATION = 2;
+
+    private final Variant mPreview;
+    private final Variant mStill;
+    private CaptureRequest mPreviewRequest;
+    // Última ráfaga construida: las CaptureRequest son inmutables y se reutilizan si nada cambió
+    private List<CaptureRequest> mStillBurst;
+
+    public CaptureControl(CameraDevice device, Surface previewTarget, List<Surface> stillTargets)
+            throws CameraAccessException {
+        CaptureRequest.Builder preview = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        preview.addTarget(previewTarget);
+        preview.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_OFF);
+        preview.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
+        // Desactivar estabilización en preview también
+        preview.set(CaptureRequest.CONTROL_VIDEO_STABILIZATION_MODE, CameraMetadata.CONTROL_VIDEO_STABILIZATION_MODE_OFF);
+        preview.set(CaptureRequest.LENS_OPTICAL_STABILIZATION_MODE, CameraMetadata.LENS_OPTICAL_STABILIZATION_MODE_OFF);
+        mPreview = new Variant(preview);
+
+        // TEMPLATE_MANUAL ofrece mejor control sobre ganancia y exposición y desactiva post-proceso agresivo.
+        CaptureRequest.Builder still = device.createCaptureRequest(CameraDevice.TEMPLATE_MANUAL);
+        for (Surface target : stillTargets) still.addTarget(target);
+        still.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_OFF);
+        // CONTROL_CAPTURE_INTENT_MANUAL es redundante con TEMPLATE_MANUAL pero asegura la intención
+        still.set(CaptureRequest.CONTROL_CAPTURE_INTENT, CameraMetadata.CONTROL_CAPTURE_INTENT_MANUAL);
+        still.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_OFF);
+        still.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
+        still.set(CaptureRequest.CONTROL_AWB_MODE, CameraMetadata.CONTROL_AWB_MODE_OFF);
+        // Desactivar cualquier "Scene Mode" o "Effect Mode"
+        still.set(CaptureRequest.CONTROL_SCENE_MODE, CameraMetadata.CONTROL_SCENE_MODE_DISABLED);
+        still.set(CaptureRequest.CONTROL_EFFECT_MODE, CameraMetadata.CONTROL_EFFECT_MODE_OFF);
+        still.set(CaptureRequest.JPEG_ORIENTATION, 90);
+        mStill = new Variant(still);
+    }
+
+    // Aplica los valores a la vista previa. Devuelve las marcas CHANGED_* de lo que cambió (hay que
+    // repetir la nueva petición), o 0 si la petición guardada sigue valiendo.
+    public int applyPreview(int iso, long exposureNs, long frameDurationNs, float focusDistance) {
+        int changed = mPreview.apply(iso, exposureNs, frameDurationNs, focusDistance);
+        if (changed != 0) mPreviewRequest = null;
+        return changed;
+    }
+
+    public CaptureRequest getPreviewRequest() {
+        if (mPreviewRequest == null) mPreviewRequest = mPreview.builder.build();
+        return mPreviewRequest;
+    }
+
+    // Peticiones de una ráfaga, marcadas con su índice (setTag) como espera el callback de captura.
+    public List<CaptureRequest> buildStillBurst(int iso, long exposureNs, long frameDurationNs, float focusDistance,
+                                                int count) {
+        boolean changed = mStill.apply(iso, exposureNs, frameDurationNs, focusDistance) != 0;
+        if (!changed && mStillBurst != null && mStillBurst.size() == count) return mStillBurst;
+        List<CaptureRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mStill.builder.setTag(i);
+            requests.add(mStill.builder.build());
+        }
+        mStillBurst = Collections.unmodifiableList(requests);
+        return mStillBurst;
+    }
+
+    // Un builder y los últimos valores escritos en él.
+    private static final class Variant {
+        final CaptureRequest.Builder builder;
+        private int mIso = -1;
+        private long mExposureNs = -1;
+        private long mFrameDurationNs = -1;
+        private float mFocusDistance = Float.NaN;
+
+        Variant(CaptureRequest.Builder builder) {
+            this.builder = builder;
+        }
+
+        int apply(int iso, long exposureNs, long frameDurationNs, float focusDistance) {
+            int changed = 0;
+            if (iso != mIso) {
+                builder.set(CaptureRequest.SENSOR_SENSITIVITY, iso);
+                mIso = iso;
+                changed |= CHANGED_EXPOSURE;
+            }
+            if (exposureNs != mExposureNs) {
+                builder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, exposureNs);
+                mExposureNs = exposureNs;
+                changed |= CHANGED_EXPOSURE;
+            }
+            if (frameDurationNs != mFrameDurationNs) {
+                builder.set(CaptureRequest.SENSOR_FRAME_DURATION, frameDurationNs);
+                mFrameDurationNs = frameDurationNs;
+                changed |= CHANGED_FRAME_DURATION;
+            }
+            // Float.compare: NaN inicial distinto de cualquier valor
+            if (Float.compare(focusDistance, mFocusDistance) != 0) {
+                builder.set(CaptureRequest.LENS_FOCUS_DISTANCE, focusDistance);
+                mFocusDistance = focusDistance;
+                changed |= CHANGED_EXPOSURE;
+            }
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.cameraestellar;
+
+import android.hardware.camera2.CaptureResult;
+
+// Metadatos compactos por frame extraídos del CaptureResult en el hilo de callbacks.
+// Los valores se copian a arrays primitivos preasignados (anillo de CAPACITY slots) para poder
+// soltar el TotalCaptureResult en cuanto llega, sin cajas (Long/Integer) ni mapas por frame.
+public final class CaptureMetadataRing {
+
+    public static final int CAPACITY = 64;
+
+    private final long[] mTimestampNs = new long[CAPACITY];
+    private final long[] mExposureNs = new long[CAPACITY];
+    private final long[] mFrameDurationNs = new long[CAPACITY];
+    private final int[] mIso = new int[CAPACITY];
+    private final float[] mFocusDistance = new float[CAPACITY];
+    private final int[] mLensState = new int[CAPACITY];
+    private int mNext = 0;
+
+    public CaptureMetadataRing() {
+        clear();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mTimestampNs[i] = Long.MIN_VALUE;
+        }
+        mNext = 0;
+    }
+
+    // Copia las claves que usamos y devuelve el slot, o -1 si el resultado no trae timestamp.
+    public int record(CaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (timestamp == null) return -1;
+        Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        Long frameDuration = result.get(CaptureResult.SENSOR_FRAME_DURATION);
+        Integer iso = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        Float focus = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+        Integer lensState = result.get(CaptureResult.LENS_STATE);
+        return put(timestamp,
+            exposure != null ? exposure : 0L,
+            frameDuration != null ? frameDuration : 0L,
+            iso != null ? iso : 0,
+            focus != null ? focus : Float.NaN,
+            lensState != null ? lensState : -1);
+    }
+
+    public synchronized int put(long timestampNs, long exposureNs, long frameDurationNs, int iso,
+                                float focusDistance, int lensState) {
+        int slot = mNext;
+        mNext = (mNext + 1) % CAPACITY;
+        mTimestampNs[slot] = timestampNs;
+        mExposureNs[slot] = exposureNs;
+        mFrameDurationNs[slot] = frameDurationNs;
+        mIso[slot] = iso;
+        mFocusDistance[slot] = focusDistance;
+        mLensState[slot] = lensState;
+        return slot;
+    }
+
+    // Búsqueda lineal: CAPACITY es pequeño y evita boxing de la clave.
+    public synchronized int find(long timestampNs) {
+        for (int i = 0; i < CAPACITY; i++) {
+            if (mTimestampNs[i] == timestampNs) return i;
+        }
+        return -1;
+    }
+
+    // Copia inmutable de un slot para los trabajos que lo usan más tarde: el anillo se recicla
+    // cada CAPACITY resultados y una ráfaga larga lo recorre entero antes de que acabe el guardado.
+    public static final class Frame {
+        public final long timestampNs;
+        public final long exposureNs;
+        public final long frameDurationNs;
+        public final int iso;
+        public final float focusDistance;
+        public final int lensState;
+
+        Frame(long timestampNs, long exposureNs, long frameDurationNs, int iso, float focusDistance, int lensState) {
+            this.timestampNs = timestampNs;
+            this.exposureNs = exposureNs;
+            this.frameDurationNs = frameDurationNs;
+            this.iso = iso;
+            this.focusDistance = focusDistance;
+            this.lensState = lensState;
+        }
+    }
+
+    public synchronized Frame snapshot(int slot) {
+        return new Frame(mTimestampNs[slot], mExposureNs[slot], mFrameDurationNs[slot], mIso[slot],
+            mFocusDistance[slot], mLensState[slot]);
+    }
+
+    public synchronized long getTimestampNs(int slot) {
+        return mTimestampNs[slot];
+    }
+
+    public synchronized long getExposureNs(int slot) {
+        return mExposureNs[slot];
+    }
+
+    public synchronized long getFrameDurationNs(int slot) {
+        return mFrameDurationNs[slot];
+    }
+
+    public synchronized int getIso(int slot) {
+        return mIso[slot];
+    }
+
+    public synchronized float getFocusDistance(int slot) {
+        return mFocusDistance[slot];
+    }
+
+    public synchronized int getLensState(int slot) {
+        return mLensState[slot];
+    }
+}
@@ -0,0 +1,155 @@
+package com.cameraestellar;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Binning por software consciente del CFA, al estilo del binning de sensor.
+// Se aplica justo al salir el frame RAW del ImageReader, antes de calibración y apilado,
+// así todas las etapas siguientes trabajan con 4x (2x2) o 9x (3x3) menos píxeles.
+//
+//   CFA        -> agrupa n x n fotositos del MISMO color: la salida conserva el patrón Bayer.
+//   SUPERPIXEL -> suma cada cuadro Bayer 2x2 (R+G+G+B) en un píxel monocromo. Sólo factor 2:
+//                 con 3x3 los colores no entran en proporción constante.
+//
+// Entrada y salida son planos RAW16 little-endian; la salida es compacta (rowStride = ancho*2).
+public final class CfaBinner {
+
+    public enum Layout { CFA, SUPERPIXEL }
+
+    private final int mFactor;
+    private final Layout mLayout;
+    private final boolean mAverage;
+
+    public CfaBinner(int factor, Layout layout, boolean average) {
+        if (factor != 2 && factor != 3) {
+            throw new IllegalArgumentException("Factor de binning no soportado: " + factor);
+        }
+        if (layout == Layout.SUPERPIXEL && factor != 2) {
+            throw new IllegalArgumentException("SUPERPIXEL sólo admite binning 2x2");
+        }
+        mFactor = factor;
+        mLayout = layout;
+        mAverage = average;
+    }
+
+    public int getFactor() {
+        return mFactor;
+    }
+
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    public int outputWidth(int width) {
+        // En modo CFA cada celda de salida 2x2 consume 2n x 2n de entrada
+        return mLayout == Layout.CFA ? (width / (2 * mFactor)) * 2 : width / 2;
+    }
+
+    public int outputHeight(int height) {
+        return mLayout == Layout.CFA ? (height / (2 * mFactor)) * 2 : height / 2;
+    }
+
+    // Nuevo nivel de blanco tras sumar (se satura a 16 bits).
+    public int outputWhiteLevel(int whiteLevel) {
+        if (mAverage) return whiteLevel;
+        int samples = mLayout == Layout.CFA ? mFactor * mFactor : 4;
+        return (int) Math.min(65535L, (long) whiteLevel * samples);
+    }
+
+    public int outputBlackLevel(int blackLevel) {
+        if (mAverage) return blackLevel;
+        int samples = mLayout == Layout.CFA ? mFactor * mFactor : 4;
+        return (int) Math.min(65535L, (long) blackLevel * samples);
+    }
+
+    // Agrupa 'src' (RAW16, rowStride en bytes) en 'dst'. Devuelve los bytes escritos.
+    public int bin(final ByteBuffer src, final int srcRowStride, int width, int height,
+                   final ByteBuffer dst, ExecutorService executor) throws InterruptedException {
+        final int outW = outputWidth(width);
+        final int outH = outputHeight(height);
+        int bytes = outW * outH * 2;
+        if (dst.capacity() < bytes) {
+            throw new IllegalArgumentException("Buffer de salida demasiado pequeño: " + dst.capacity() + " < " + bytes);
+        }
+        // Bandas de filas de salida pares para no partir una celda Bayer
+        final int band = 64;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int y0 = 0; y0 < outH; y0 += band) {
+            final int from = y0;
+            final int to = Math.min(outH, y0 + band);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (mLayout == Layout.CFA) {
+                        binCfaRows(src, srcRowStride, dst, outW, from, to);
+                    } else {
+                        binSuperpixelRows(src, srcRowStride, dst, outW, from, to);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (executor == null) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Fallo en binning", e);
+                }
+            }
+        } else {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Fallo en binning", e.getCause());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private void binCfaRows(ByteBuffer src, int srcRowStride, ByteBuffer dst, int outW, int from, int to) {
+        int n = mFactor;
+        int samples = n * n;
+        for (int oy = from; oy < to; oy++) {
+            // Fila de entrada del primer fotosito de este color dentro del bloque 2n x 2n
+            int baseY = (oy >> 1) * 2 * n + (oy & 1);
+            int outRow = oy * outW * 2;
+            for (int ox = 0; ox < outW; ox++) {
+                int baseX = (ox >> 1) * 2 * n + (ox & 1);
+                int sum = 0;
+                for (int j = 0; j < n; j++) {
+                    int row = (baseY + 2 * j) * srcRowStride;
+                    for (int i = 0; i < n; i++) {
+                        sum += src.getShort(row + 2 * (baseX + 2 * i)) & 0xFFFF;
+                    }
+                }
+                dst.putShort(outRow + 2 * ox, clamp(mAverage ? (sum + samples / 2) / samples : sum));
+            }
+        }
+    }
+
+    private void binSuperpixelRows(ByteBuffer src, int srcRowStride, ByteBuffer dst, int outW, int from, int to) {
+        for (int oy = from; oy < to; oy++) {
+            int row0 = (2 * oy) * srcRowStride;
+            int row1 = row0 + srcRowStride;
+            int outRow = oy * outW * 2;
+            for (int ox = 0; ox < outW; ox++) {
+                int x = 4 * ox;
+                int sum = (src.getShort(row0 + x) & 0xFFFF) + (src.getShort(row0 + x + 2) & 0xFFFF)
+                    + (src.getShort(row1 + x) & 0xFFFF) + (src.getShort(row1 + x + 2) & 0xFFFF);
+                dst.putShort(outRow + 2 * ox, clamp(mAverage ? (sum + 2) >> 2 : sum));
+            }
+        }
+    }
+
+    private static short clamp(int value) {
+        return (short) Math.min(65535, value);
+    }
+}
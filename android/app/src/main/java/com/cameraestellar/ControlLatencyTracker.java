@@ -0,0 +1,117 @@
+package com.cameraestellar;
+
+import java.util.Arrays;
+
+// Latencia control -> frame: desde que se envía un cambio de ISO/exposición/foco hasta el primer
+// CaptureResult de la vista previa que ya lo refleja (y con la lente parada, para el foco).
+//
+// Sólo se sigue el último cambio: si llega otro antes de verse el anterior, el reloj vuelve a
+// empezar con el nuevo objetivo. Sin cambio pendiente onResult() no hace nada, así que el callback
+// de la vista previa puede saltarse la lectura de claves con isPending().
+public final class ControlLatencyTracker {
+
+    // Muestras que se conservan para la mediana
+    public static final int HISTORY = 32;
+    // Frames sin coincidencia tras los que se abandona (el HAL redondeó o ignoró el valor)
+    public static final int MAX_FRAMES = 90;
+    // Misma constante que CameraMetadata.LENS_STATE_MOVING; aquí sin depender de Android
+    public static final int LENS_STATE_MOVING = 1;
+
+    // El HAL cuantiza: exposición e ISO se dan por buenos dentro de un 2 %, el foco dentro de
+    // 0.02 dioptrías o un 2 %
+    private static final float RELATIVE_TOLERANCE = 0.02f;
+    private static final float FOCUS_TOLERANCE = 0.02f;
+
+    private boolean mPending = false;
+    private int mIso;
+    private long mExposureNs;
+    private float mFocusDistance;
+    private long mRequestedNs;
+    private int mFrames;
+
+    private final long[] mHistory = new long[HISTORY];
+    private int mCount = 0;
+    private int mNext = 0;
+    private long mLastNs = -1;
+    private int mLastFrames = -1;
+    private int mUnmatched = 0;
+
+    // Un cambio de parámetros acaba de enviarse a la sesión. iso/exposure <= 0 o focus NaN = no comprobar.
+    public synchronized void onRequested(int iso, long exposureNs, float focusDistance, long nowNs) {
+        mPending = true;
+        mIso = iso;
+        mExposureNs = exposureNs;
+        mFocusDistance = focusDistance;
+        mRequestedNs = nowNs;
+        mFrames = 0;
+    }
+
+    public synchronized boolean isPending() {
+        return mPending;
+    }
+
+    // Devuelve la latencia en ns si este resultado cierra el cambio pendiente, o -1.
+    public synchronized long onResult(int iso, long exposureNs, float focusDistance, int lensState, long nowNs) {
+        if (!mPending) return -1;
+        mFrames++;
+        if (!matches(iso, exposureNs, focusDistance, lensState)) {
+            if (mFrames >= MAX_FRAMES) {
+                mPending = false;
+                mUnmatched++;
+            }
+            return -1;
+        }
+        mPending = false;
+        long latency = nowNs - mRequestedNs;
+        mLastNs = latency;
+        mLastFrames = mFrames;
+        mHistory[mNext] = latency;
+        mNext = (mNext + 1) % HISTORY;
+        if (mCount < HISTORY) mCount++;
+        return latency;
+    }
+
+    public synchronized void reset() {
+        mPending = false;
+        mCount = 0;
+        mNext = 0;
+        mLastNs = -1;
+        mLastFrames = -1;
+        mUnmatched = 0;
+    }
+
+    public synchronized long getLastNs() {
+        return mLastNs;
+    }
+
+    // Frames de vista previa recibidos hasta la coincidencia (incluida).
+    public synchronized int getLastFrames() {
+        return mLastFrames;
+    }
+
+    public synchronized long getMedianNs() {
+        if (mCount == 0) return -1;
+        long[] sorted = Arrays.copyOf(mHistory, mCount);
+        Arrays.sort(sorted);
+        return sorted[mCount / 2];
+    }
+
+    public synchronized int getSampleCount() {
+        return mCount;
+    }
+
+    public synchronized int getUnmatchedCount() {
+        return mUnmatched;
+    }
+
+    private boolean matches(int iso, long exposureNs, float focusDistance, int lensState) {
+        if (mIso > 0 && Math.abs(iso - mIso) > RELATIVE_TOLERANCE * mIso) return false;
+        if (mExposureNs > 0 && Math.abs(exposureNs - mExposureNs) > RELATIVE_TOLERANCE * mExposureNs) return false;
+        if (!Float.isNaN(mFocusDistance)) {
+            if (Float.isNaN(focusDistance) || lensState == LENS_STATE_MOVING) return false;
+            float tolerance = Math.max(FOCUS_TOLERANCE, RELATIVE_TOLERANCE * mFocusDistance);
+            if (Math.abs(focusDistance - mFocusDistance) > tolerance) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package com.cameraestellar;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+// Log de diagnóstico muestreado y asíncrono para la ruta de captura.
+// Uso: if (log.sample(CANAL)) log.d(TAG, "..." + valor);
+// Así la concatenación sólo ocurre en 1 de cada N eventos y la escritura en logcat
+// sale del hilo de callbacks de la cámara.
+public final class DiagnosticsLog {
+
+    public static final int CHANNEL_CAPTURE = 0;
+    public static final int CHANNEL_FRAME = 1;
+    public static final int CHANNEL_SAVE = 2;
+    private static final int CHANNELS = 3;
+
+    private final int[] mCounters = new int[CHANNELS];
+    private final int mSampleEvery;
+
+    private HandlerThread mThread;
+    private volatile Handler mHandler;
+
+    public DiagnosticsLog(int sampleEvery) {
+        mSampleEvery = Math.max(1, sampleEvery);
+    }
+
+    public void start() {
+        if (mThread != null) return;
+        mThread = new HandlerThread("AstroDiagnostics", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public void stop() {
+        if (mThread == null) return;
+        mHandler = null;
+        mThread.quitSafely();
+        mThread = null;
+    }
+
+    // El primer evento de cada canal siempre se registra, luego 1 de cada N.
+    public boolean sample(int channel) {
+        synchronized (mCounters) {
+            return (mCounters[channel]++ % mSampleEvery) == 0;
+        }
+    }
+
+    public void d(final String tag, final String message) {
+        post(Log.DEBUG, tag, message);
+    }
+
+    public void w(final String tag, final String message) {
+        post(Log.WARN, tag, message);
+    }
+
+    public void e(final String tag, final String message) {
+        post(Log.ERROR, tag, message);
+    }
+
+    private void post(final int priority, final String tag, final String message) {
+        Handler handler = mHandler;
+        if (handler == null) {
+            Log.println(priority, tag, message);
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Log.println(priority, tag, message);
+            }
+        });
+    }
+}
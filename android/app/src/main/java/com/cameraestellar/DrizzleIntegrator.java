@@ -0,0 +1,240 @@
+package com.cameraestellar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Integración Drizzle (Fruchter & Hook) para sensores de móvil submuestreados.
+// Cada píxel de entrada se reduce a una "gota" cuadrada de lado pixFrac (en píxeles de entrada),
+// se proyecta con la transformación del registro y se reparte sobre la rejilla de salida
+// (escala 1x/2x/3x) ponderada por el área de solape. La rotación de campo entre frames
+// aporta el dither sub-píxel de forma gratuita.
+//
+// El trabajo se divide por tiles de SALIDA: cada tarea solo escribe su propio rectángulo,
+// así que los hilos nunca compiten por la misma celda y no hace falta sincronización.
+// La rejilla de flujo y el mapa de pesos viven fuera del heap (DirectBuffers).
+public class DrizzleIntegrator {
+
+    public static final int TILE_SIZE = 256;
+
+    private final int mInputWidth;
+    private final int mInputHeight;
+    private final int mScale;
+    private final float mPixFrac;
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+
+    // Acumuladores: suma(valor * peso * área) y suma(peso * área)
+    private final FloatBuffer mFlux;
+    private final FloatBuffer mWeight;
+
+    private final ExecutorService mExecutor;
+    private int mFrameCount = 0;
+
+    public DrizzleIntegrator(int inputWidth, int inputHeight, int scale, float pixFrac, ExecutorService executor) {
+        this(inputWidth, inputHeight, scale, pixFrac,
+            allocateGrid(inputWidth * scale, inputHeight * scale),
+            allocateGrid(inputWidth * scale, inputHeight * scale),
+            executor);
+    }
+
+    // Permite acumular sobre buffers externos (p.ej. mapeados en memoria por la sesión).
+    public DrizzleIntegrator(int inputWidth, int inputHeight, int scale, float pixFrac,
+                             FloatBuffer flux, FloatBuffer weight, ExecutorService executor) {
+        if (scale < 1 || scale > 3) {
+            throw new IllegalArgumentException("Escala drizzle no soportada: " + scale);
+        }
+        if (pixFrac <= 0f || pixFrac > 1f) {
+            throw new IllegalArgumentException("pixFrac debe estar en (0, 1]: " + pixFrac);
+        }
+        long outPixels = (long) inputWidth * scale * inputHeight * scale;
+        if (flux.capacity() < outPixels || weight.capacity() < outPixels) {
+            throw new IllegalArgumentException("Buffers de salida demasiado pequeños para " + outPixels + " píxeles");
+        }
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+        mScale = scale;
+        mPixFrac = pixFrac;
+        mOutputWidth = inputWidth * scale;
+        mOutputHeight = inputHeight * scale;
+        mFlux = flux;
+        mWeight = weight;
+        mExecutor = executor;
+    }
+
+    static FloatBuffer allocateGrid(int width, int height) {
+        long bytes = (long) width * height * 4L;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Rejilla drizzle demasiado grande: " + width + "x" + height);
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public FloatBuffer getFluxBuffer() {
+        return mFlux;
+    }
+
+    public FloatBuffer getWeightBuffer() {
+        return mWeight;
+    }
+
+    // Deposita un frame calibrado (un solo plano, row-major) en la rejilla de salida.
+    public void addFrame(float[] pixels, FrameTransform transform, float frameWeight) throws InterruptedException {
+        addFrame(pixels, transform, frameWeight, null);
+    }
+
+    // Igual, pero los píxeles marcados en 'mask' (índice y*ancho + x, p.ej. trazas de satélite)
+    // no aportan flujo ni peso: la media ponderada los excluye como lo haría un rechazo.
+    public void addFrame(final float[] pixels, final FrameTransform transform, final float frameWeight,
+                         final BitSet mask) throws InterruptedException {
+        if (pixels.length < mInputWidth * mInputHeight) {
+            throw new IllegalArgumentException("Frame más pequeño que la geometría declarada");
+        }
+        // Coordenadas de salida = coordenadas de referencia * escala
+        final FrameTransform toOutput = new FrameTransform(
+            transform.a * mScale, transform.b * mScale, transform.tx * mScale,
+            transform.c * mScale, transform.d * mScale, transform.ty * mScale);
+        final FrameTransform toInput = toOutput.inverse();
+        final double halfDrop = 0.5 * mPixFrac * toOutput.linearScale();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int ty = 0; ty < mOutputHeight; ty += TILE_SIZE) {
+            for (int tx = 0; tx < mOutputWidth; tx += TILE_SIZE) {
+                final int x0 = tx;
+                final int y0 = ty;
+                final int x1 = Math.min(tx + TILE_SIZE, mOutputWidth);
+                final int y1 = Math.min(ty + TILE_SIZE, mOutputHeight);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        drizzleTile(pixels, mask, toOutput, toInput, halfDrop, frameWeight, x0, y0, x1, y1);
+                        return null;
+                    }
+                });
+            }
+        }
+        runAll(tasks);
+        mFrameCount++;
+    }
+
+    private void drizzleTile(float[] pixels, BitSet mask, FrameTransform toOutput, FrameTransform toInput, double halfDrop,
+                             float frameWeight, int x0, int y0, int x1, int y1) {
+        // Caja de entrada cuyas gotas pueden caer en este tile (esquinas expandidas por la gota)
+        double ex0 = x0 - halfDrop, ey0 = y0 - halfDrop, ex1 = x1 + halfDrop, ey1 = y1 + halfDrop;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double[] cornersX = {ex0, ex1, ex0, ex1};
+        double[] cornersY = {ey0, ey0, ey1, ey1};
+        for (int i = 0; i < 4; i++) {
+            double ix = toInput.mapX(cornersX[i], cornersY[i]);
+            double iy = toInput.mapY(cornersX[i], cornersY[i]);
+            minX = Math.min(minX, ix);
+            maxX = Math.max(maxX, ix);
+            minY = Math.min(minY, iy);
+            maxY = Math.max(maxY, iy);
+        }
+        int inX0 = Math.max(0, (int) Math.floor(minX) - 1);
+        int inY0 = Math.max(0, (int) Math.floor(minY) - 1);
+        int inX1 = Math.min(mInputWidth, (int) Math.ceil(maxX) + 1);
+        int inY1 = Math.min(mInputHeight, (int) Math.ceil(maxY) + 1);
+        if (inX0 >= inX1 || inY0 >= inY1) return;
+
+        double dropArea = 4.0 * halfDrop * halfDrop;
+
+        for (int y = inY0; y < inY1; y++) {
+            double cy = y + 0.5;
+            // Avance incremental a lo largo de la fila
+            double ox = toOutput.mapX(inX0 + 0.5, cy);
+            double oy = toOutput.mapY(inX0 + 0.5, cy);
+            int row = y * mInputWidth;
+            for (int x = inX0; x < inX1; x++, ox += toOutput.a, oy += toOutput.c) {
+                float value = pixels[row + x];
+                if (Float.isNaN(value)) continue;
+                if (mask != null && mask.get(row + x)) continue;
+
+                double left = ox - halfDrop, right = ox + halfDrop;
+                double top = oy - halfDrop, bottom = oy + halfDrop;
+                if (right <= x0 || left >= x1 || bottom <= y0 || top >= y1) continue;
+
+                int px0 = Math.max(x0, (int) Math.floor(left));
+                int px1 = Math.min(x1, (int) Math.ceil(right));
+                int py0 = Math.max(y0, (int) Math.floor(top));
+                int py1 = Math.min(y1, (int) Math.ceil(bottom));
+
+                for (int py = py0; py < py1; py++) {
+                    double overlapY = Math.min(bottom, py + 1) - Math.max(top, py);
+                    if (overlapY <= 0) continue;
+                    int outRow = py * mOutputWidth;
+                    for (int px = px0; px < px1; px++) {
+                        double overlapX = Math.min(right, px + 1) - Math.max(left, px);
+                        if (overlapX <= 0) continue;
+                        float w = (float) (frameWeight * overlapX * overlapY / dropArea);
+                        int idx = outRow + px;
+                        mFlux.put(idx, mFlux.get(idx) + value * w);
+                        mWeight.put(idx, mWeight.get(idx) + w);
+                    }
+                }
+            }
+        }
+    }
+
+    // Normaliza flujo/peso en 'out'. Las celdas sin cobertura quedan en NaN.
+    public void finish(float[] out) {
+        int n = mOutputWidth * mOutputHeight;
+        if (out.length < n) {
+            throw new IllegalArgumentException("Buffer de salida demasiado pequeño");
+        }
+        for (int i = 0; i < n; i++) {
+            float w = mWeight.get(i);
+            out[i] = (w > 0f) ? mFlux.get(i) / w : Float.NaN;
+        }
+    }
+
+    public void reset() {
+        int n = mOutputWidth * mOutputHeight;
+        for (int i = 0; i < n; i++) {
+            mFlux.put(i, 0f);
+            mWeight.put(i, 0f);
+        }
+        mFrameCount = 0;
+    }
+
+    private void runAll(List<Callable<Void>> tasks) throws InterruptedException {
+        if (mExecutor == null) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Fallo en tile drizzle", e);
+                }
+            }
+            return;
+        }
+        List<Future<Void>> futures = mExecutor.invokeAll(tasks);
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Fallo en tile drizzle", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.cameraestellar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool de DirectBuffers del tamaño de un frame RAW, compartido por apilado, escritura y vista previa.
+// Evita un allocateDirect por frame (fragmenta la memoria nativa y depende del GC para liberarla).
+//
+// Cada préstamo (Lease) lleva un contador de referencias: quien lo pasa a otra etapa llama retain(),
+// y cada etapa llama release() al terminar. El buffer vuelve al pool con la última liberación.
+// Los préstamos vivos se registran para detectar fugas (findLeaks).
+public class FrameBufferPool {
+
+    public static final int MIN_BUFFERS = 2;
+    public static final int MAX_BUFFERS = 16;
+
+    private final int mBufferBytes;
+    private final int mInitialLimit;
+    private final boolean mTrackCallSites;
+
+    private final ArrayDeque<ByteBuffer> mIdle = new ArrayDeque<>();
+    private final Map<Lease, Lease> mLeased = new IdentityHashMap<>();
+    private int mLimit;
+    private int mAllocated = 0;
+
+    public FrameBufferPool(int bufferBytes, int maxBuffers, boolean trackCallSites) {
+        if (bufferBytes <= 0) {
+            throw new IllegalArgumentException("Tamaño de buffer inválido: " + bufferBytes);
+        }
+        mBufferBytes = bufferBytes;
+        mInitialLimit = Math.max(MIN_BUFFERS, maxBuffers);
+        mLimit = mInitialLimit;
+        mTrackCallSites = trackCallSites;
+    }
+
+    // Dimensiona el pool con el tamaño RAW elegido en openCamera() y el heap disponible:
+    // como mucho un cuarto de Runtime.maxMemory() en buffers de frame.
+    public static FrameBufferPool forFrame(int width, int height, int bytesPerPixel, long maxMemory, boolean trackCallSites) {
+        long frameBytes = (long) width * height * bytesPerPixel;
+        if (frameBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame demasiado grande para un buffer: " + width + "x" + height);
+        }
+        long budget = maxMemory / 4;
+        int count = (int) Math.max(MIN_BUFFERS, Math.min(MAX_BUFFERS, budget / Math.max(1, frameBytes)));
+        return new FrameBufferPool((int) frameBytes, count, trackCallSites);
+    }
+
+    public int getBufferBytes() {
+        return mBufferBytes;
+    }
+
+    public synchronized int getLimit() {
+        return mLimit;
+    }
+
+    public synchronized int getInitialLimit() {
+        return mInitialLimit;
+    }
+
+    public synchronized int getAllocatedCount() {
+        return mAllocated;
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized int getLeasedCount() {
+        return mLeased.size();
+    }
+
+    // Préstamo no bloqueante: null si el pool está agotado (el llamador decide si degradar o esperar).
+    public synchronized Lease tryAcquire() {
+        ByteBuffer buffer = mIdle.pollFirst();
+        if (buffer == null) {
+            if (mAllocated >= mLimit) return null;
+            buffer = ByteBuffer.allocateDirect(mBufferBytes).order(ByteOrder.nativeOrder());
+            mAllocated++;
+        }
+        buffer.clear();
+        Lease lease = new Lease(buffer, mTrackCallSites ? new Throwable("Lease adquirido aquí") : null);
+        mLeased.put(lease, lease);
+        return lease;
+    }
+
+    // Préstamo bloqueante con espera máxima.
+    public synchronized Lease acquire(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        Lease lease;
+        while ((lease = tryAcquire()) == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            wait(remaining);
+        }
+        return lease;
+    }
+
+    // Ajusta el límite (entre MIN_BUFFERS y el inicial). Al reducirlo se sueltan los buffers ociosos
+    // que sobran; los prestados se descartan cuando se devuelven.
+    public synchronized void setLimit(int limit) {
+        mLimit = Math.max(MIN_BUFFERS, Math.min(limit, mInitialLimit));
+        while (mAllocated > mLimit && !mIdle.isEmpty()) {
+            mIdle.pollFirst();
+            mAllocated--;
+        }
+        notifyAll();
+    }
+
+    // Préstamos vivos desde hace más de 'olderThanMs'.
+    public synchronized List<String> findLeaks(long olderThanMs) {
+        long now = System.currentTimeMillis();
+        List<String> leaks = new ArrayList<>();
+        for (Lease lease : mLeased.keySet()) {
+            long age = now - lease.mAcquiredAt;
+            if (age < olderThanMs) continue;
+            StringBuilder sb = new StringBuilder();
+            sb.append("Buffer prestado hace ").append(age).append(" ms (refs=").append(lease.mRefs.get()).append(")");
+            if (lease.mSite != null) {
+                StackTraceElement[] trace = lease.mSite.getStackTrace();
+                for (int i = 0; i < Math.min(4, trace.length); i++) {
+                    sb.append("\n    at ").append(trace[i]);
+                }
+            }
+            leaks.add(sb.toString());
+        }
+        return leaks;
+    }
+
+    private synchronized void giveBack(Lease lease) {
+        if (mLeased.remove(lease) == null) return;
+        if (mAllocated > mLimit) {
+            mAllocated--;
+        } else {
+            mIdle.addFirst(lease.mBuffer);
+        }
+        notifyAll();
+    }
+
+    public final class Lease {
+        private final ByteBuffer mBuffer;
+        private final AtomicInteger mRefs = new AtomicInteger(1);
+        private final long mAcquiredAt = System.currentTimeMillis();
+        private final Throwable mSite;
+
+        private Lease(ByteBuffer buffer, Throwable site) {
+            mBuffer = buffer;
+            mSite = site;
+        }
+
+        public ByteBuffer buffer() {
+            if (mRefs.get() <= 0) {
+                throw new IllegalStateException("Buffer usado después de liberarse");
+            }
+            return mBuffer;
+        }
+
+        public Lease retain() {
+            int refs;
+            do {
+                refs = mRefs.get();
+                if (refs <= 0) throw new IllegalStateException("retain() sobre un buffer ya liberado");
+            } while (!mRefs.compareAndSet(refs, refs + 1));
+            return this;
+        }
+
+        public void release() {
+            int refs = mRefs.decrementAndGet();
+            if (refs == 0) {
+                giveBack(this);
+            } else if (refs < 0) {
+                throw new IllegalStateException("release() de más sobre un buffer del pool");
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.cameraestellar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// Índice binario por sesión de los frames capturados.
+//
+//   frames.idx -> cabecera de 32 bytes + registros de ancho fijo (RECORD_BYTES), sólo se añade al final
+//   frames.uri -> URIs/rutas en UTF-8; cada registro guarda su offset y longitud
+//
+// Escribir durante la captura es un append de 96 bytes. La lectura mapea el archivo en memoria
+// y accede a los campos por posición, sin parsear cabeceras DNG ni consultar MediaStore.
+// Un registro incompleto al final (crash a mitad de escritura) simplemente se ignora.
+public final class FrameIndex {
+
+    public static final String INDEX_FILE = "frames.idx";
+    public static final String URI_FILE = "frames.uri";
+
+    private static final int MAGIC = 0x58444946; // "FIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    public static final int RECORD_BYTES = 96;
+
+    // Campos del registro
+    private static final int F_TIMESTAMP = 0;
+    private static final int F_EXPOSURE = 8;
+    private static final int F_FRAME_DURATION = 16;
+    private static final int F_ISO = 24;
+    private static final int F_FOCUS = 28;
+    private static final int F_FWHM = 32;
+    private static final int F_BACKGROUND = 36;
+    private static final int F_QUALITY = 40;
+    private static final int F_STAR_COUNT = 44;
+    private static final int F_URI_OFFSET = 48;
+    private static final int F_URI_LENGTH = 56;
+    private static final int F_FLAGS = 60;
+    private static final int F_CAMERA_ID = 64;
+    private static final int CAMERA_ID_BYTES = 16;
+
+    private FrameIndex() {}
+
+    // Número de registros completos sin abrir el índice (sólo el tamaño del archivo).
+    public static int countRecords(File sessionDir) {
+        long size = new File(sessionDir, INDEX_FILE).length();
+        return (int) Math.max(0, (size - HEADER_BYTES) / RECORD_BYTES);
+    }
+
+    // Datos de un frame tal como llegan del CaptureResult. Las métricas de calidad se rellenan después.
+    public static final class Record {
+        public long timestampNs;
+        public long exposureNs;
+        public long frameDurationNs;
+        public int iso;
+        public float focusDistance;
+        public String cameraId = "";
+        public String uri = "";
+        public float fwhm = Float.NaN;
+        public float background = Float.NaN;
+        public float quality = Float.NaN;
+        public int starCount = -1;
+        public int flags;
+    }
+
+    public static final class Writer implements Closeable {
+        private final RandomAccessFile mIndexFile;
+        private final RandomAccessFile mUriFile;
+        private final FileChannel mIndex;
+        private final FileChannel mUris;
+        private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private int mCount;
+
+        public Writer(File sessionDir) throws IOException {
+            if (!sessionDir.isDirectory() && !sessionDir.mkdirs()) {
+                throw new IOException("No se pudo crear el directorio de sesión: " + sessionDir);
+            }
+            mIndexFile = new RandomAccessFile(new File(sessionDir, INDEX_FILE), "rw");
+            mUriFile = new RandomAccessFile(new File(sessionDir, URI_FILE), "rw");
+            mIndex = mIndexFile.getChannel();
+            mUris = mUriFile.getChannel();
+
+            if (mIndex.size() < HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES);
+                header.clear();
+                mIndex.write(header, 0);
+                mIndex.truncate(HEADER_BYTES);
+            }
+            // Reanudar tras los registros completos, descartando uno truncado
+            mCount = (int) ((mIndex.size() - HEADER_BYTES) / RECORD_BYTES);
+            mIndex.truncate(HEADER_BYTES + (long) mCount * RECORD_BYTES);
+        }
+
+        public synchronized int getCount() {
+            return mCount;
+        }
+
+        // Devuelve la posición del registro añadido.
+        public synchronized int append(Record r) throws IOException {
+            byte[] uri = r.uri.getBytes(StandardCharsets.UTF_8);
+            long uriOffset = mUris.size();
+            mUris.write(ByteBuffer.wrap(uri), uriOffset);
+
+            mRecord.clear();
+            mRecord.putLong(F_TIMESTAMP, r.timestampNs);
+            mRecord.putLong(F_EXPOSURE, r.exposureNs);
+            mRecord.putLong(F_FRAME_DURATION, r.frameDurationNs);
+            mRecord.putInt(F_ISO, r.iso);
+            mRecord.putFloat(F_FOCUS, r.focusDistance);
+            mRecord.putFloat(F_FWHM, r.fwhm);
+            mRecord.putFloat(F_BACKGROUND, r.background);
+            mRecord.putFloat(F_QUALITY, r.quality);
+            mRecord.putInt(F_STAR_COUNT, r.starCount);
+            mRecord.putLong(F_URI_OFFSET, uriOffset);
+            mRecord.putInt(F_URI_LENGTH, uri.length);
+            mRecord.putInt(F_FLAGS, r.flags);
+            byte[] id = r.cameraId.getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < CAMERA_ID_BYTES; i++) {
+                mRecord.put(F_CAMERA_ID + i, i < id.length ? id[i] : 0);
+            }
+            mIndex.write(mRecord, HEADER_BYTES + (long) mCount * RECORD_BYTES);
+            return mCount++;
+        }
+
+        // Métricas calculadas más tarde (detección de estrellas / apilado): actualización en sitio.
+        public synchronized void updateQuality(int position, float fwhm, float background, float quality, int starCount)
+                throws IOException {
+            if (position < 0 || position >= mCount) {
+                throw new IndexOutOfBoundsException("Registro inexistente: " + position);
+            }
+            ByteBuffer metrics = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            metrics.putFloat(fwhm).putFloat(background).putFloat(quality).putInt(starCount);
+            metrics.flip();
+            mIndex.write(metrics, HEADER_BYTES + (long) position * RECORD_BYTES + F_FWHM);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                mIndex.force(false);
+                mUris.force(false);
+            } finally {
+                mIndexFile.close();
+                mUriFile.close();
+            }
+        }
+    }
+
+    // Vista de sólo lectura mapeada en memoria.
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile mIndexFile;
+        private final RandomAccessFile mUriFile;
+        private final MappedByteBuffer mRecords;
+        private final MappedByteBuffer mUris;
+        private final int mCount;
+
+        public Reader(File sessionDir) throws IOException {
+            mIndexFile = new RandomAccessFile(new File(sessionDir, INDEX_FILE), "r");
+            mUriFile = new RandomAccessFile(new File(sessionDir, URI_FILE), "r");
+            FileChannel index = mIndexFile.getChannel();
+            long size = index.size();
+            if (size < HEADER_BYTES) {
+                close();
+                throw new IOException("Índice de frames vacío o corrupto: " + sessionDir);
+            }
+            MappedByteBuffer all = index.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            all.order(ByteOrder.LITTLE_ENDIAN);
+            if (all.getInt(0) != MAGIC || all.getInt(4) != VERSION || all.getInt(8) != RECORD_BYTES) {
+                close();
+                throw new IOException("Formato de índice no soportado: " + sessionDir);
+            }
+            mRecords = all;
+            mCount = (int) ((size - HEADER_BYTES) / RECORD_BYTES);
+            mUris = mUriFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mUriFile.length());
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        private int base(int i) {
+            return HEADER_BYTES + i * RECORD_BYTES;
+        }
+
+        public long getTimestampNs(int i) {
+            return mRecords.getLong(base(i) + F_TIMESTAMP);
+        }
+
+        public long getExposureNs(int i) {
+            return mRecords.getLong(base(i) + F_EXPOSURE);
+        }
+
+        public long getFrameDurationNs(int i) {
+            return mRecords.getLong(base(i) + F_FRAME_DURATION);
+        }
+
+        public int getIso(int i) {
+            return mRecords.getInt(base(i) + F_ISO);
+        }
+
+        public float getFocusDistance(int i) {
+            return mRecords.getFloat(base(i) + F_FOCUS);
+        }
+
+        public float getFwhm(int i) {
+            return mRecords.getFloat(base(i) + F_FWHM);
+        }
+
+        public float getBackground(int i) {
+            return mRecords.getFloat(base(i) + F_BACKGROUND);
+        }
+
+        public float getQuality(int i) {
+            return mRecords.getFloat(base(i) + F_QUALITY);
+        }
+
+        public int getStarCount(int i) {
+            return mRecords.getInt(base(i) + F_STAR_COUNT);
+        }
+
+        public int getFlags(int i) {
+            return mRecords.getInt(base(i) + F_FLAGS);
+        }
+
+        public String getCameraId(int i) {
+            int off = base(i) + F_CAMERA_ID;
+            int len = 0;
+            while (len < CAMERA_ID_BYTES && mRecords.get(off + len) != 0) len++;
+            byte[] id = new byte[len];
+            for (int k = 0; k < len; k++) id[k] = mRecords.get(off + k);
+            return new String(id, StandardCharsets.US_ASCII);
+        }
+
+        public String getUri(int i) {
+            long offset = mRecords.getLong(base(i) + F_URI_OFFSET);
+            int length = mRecords.getInt(base(i) + F_URI_LENGTH);
+            if (offset + length > mUris.capacity()) return "";
+            byte[] uri = new byte[length];
+            for (int k = 0; k < length; k++) uri[k] = mUris.get((int) offset + k);
+            return new String(uri, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mIndexFile.close();
+            } finally {
+                mUriFile.close();
+            }
+        }
+    }
+}
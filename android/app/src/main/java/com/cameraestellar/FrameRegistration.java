@@ -0,0 +1,153 @@
+package com.cameraestellar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Registro rígido (rotación de campo + traslación) de un frame contra las estrellas del frame
+// de referencia. Produce la FrameTransform frame -> referencia que consume DrizzleIntegrator.
+//
+// 1. Hipótesis: cada par de estrellas brillantes del frame se empareja con los pares de la
+//    referencia de la misma separación; dos puntos fijan rotación y traslación.
+// 2. Se puntúa cada hipótesis por el número de estrellas que caen a menos de 'tolerance' de una
+//    estrella de referencia y se queda la mejor.
+// 3. Ajuste por mínimos cuadrados (Procrustes 2D) sobre las parejas, rehaciendo el emparejado con
+//    la transformación refinada.
+// La escala se supone 1 (misma cámara y óptica en toda la secuencia).
+public final class FrameRegistration {
+
+    public static final int MIN_MATCHES = 6;
+    // Estrellas que generan hipótesis y estrellas que las puntúan
+    private static final int HYPOTHESIS_STARS = 15;
+    private static final int VERIFY_STARS = 60;
+    // Los pares muy cortos dan un ángulo poco fiable
+    private static final float MIN_PAIR_DISTANCE = 20f;
+    private static final int REFINE_PASSES = 2;
+
+    private FrameRegistration() {}
+
+    // 'reference' y 'frame' en coordenadas de píxel continuas de su frame. Devuelve null si no
+    // hay al menos MIN_MATCHES estrellas coincidentes.
+    public static FrameTransform register(List<Star> reference, List<Star> frame, float tolerance) {
+        List<Star> ref = brightest(reference, VERIFY_STARS);
+        List<Star> cur = brightest(frame, VERIFY_STARS);
+        if (ref.size() < MIN_MATCHES || cur.size() < MIN_MATCHES) return null;
+        int hr = Math.min(HYPOTHESIS_STARS, ref.size());
+        int hc = Math.min(HYPOTHESIS_STARS, cur.size());
+
+        FrameTransform best = null;
+        int bestMatches = 0;
+        for (int a = 0; a < hc; a++) {
+            for (int b = a + 1; b < hc; b++) {
+                Star ca = cur.get(a), cb = cur.get(b);
+                float d = distance(ca, cb);
+                if (d < MIN_PAIR_DISTANCE) continue;
+                for (int i = 0; i < hr; i++) {
+                    for (int j = i + 1; j < hr; j++) {
+                        Star ri = ref.get(i), rj = ref.get(j);
+                        if (Math.abs(distance(ri, rj) - d) > tolerance) continue;
+                        // Los dos sentidos del emparejado
+                        for (int k = 0; k < 2; k++) {
+                            FrameTransform t = k == 0 ? fromPair(ca, cb, ri, rj) : fromPair(ca, cb, rj, ri);
+                            int matches = countMatches(t, cur, ref, tolerance);
+                            if (matches > bestMatches) {
+                                bestMatches = matches;
+                                best = t;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (best == null || bestMatches < MIN_MATCHES) return null;
+
+        for (int pass = 0; pass < REFINE_PASSES; pass++) {
+            FrameTransform refined = refine(best, cur, ref, tolerance);
+            if (refined == null) break;
+            best = refined;
+        }
+        return countMatches(best, cur, ref, tolerance) >= MIN_MATCHES ? best : null;
+    }
+
+    private static List<Star> brightest(List<Star> stars, int count) {
+        List<Star> sorted = new ArrayList<>(stars);
+        Collections.sort(sorted, new Comparator<Star>() {
+            @Override
+            public int compare(Star a, Star b) {
+                return Float.compare(b.flux, a.flux);
+            }
+        });
+        return sorted.size() > count ? sorted.subList(0, count) : sorted;
+    }
+
+    private static float distance(Star a, Star b) {
+        return (float) Math.hypot(a.x - b.x, a.y - b.y);
+    }
+
+    // Rotación + traslación que lleva (a, b) del frame sobre (ra, rb) de la referencia.
+    private static FrameTransform fromPair(Star a, Star b, Star ra, Star rb) {
+        double angle = Math.atan2(rb.y - ra.y, rb.x - ra.x) - Math.atan2(b.y - a.y, b.x - a.x);
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        double tx = 0.5 * (ra.x + rb.x) - (cos * 0.5 * (a.x + b.x) - sin * 0.5 * (a.y + b.y));
+        double ty = 0.5 * (ra.y + rb.y) - (sin * 0.5 * (a.x + b.x) + cos * 0.5 * (a.y + b.y));
+        return new FrameTransform(cos, -sin, tx, sin, cos, ty);
+    }
+
+    private static int nearest(FrameTransform t, Star s, List<Star> ref, float tolerance) {
+        double x = t.mapX(s.x, s.y), y = t.mapY(s.x, s.y);
+        int best = -1;
+        double bestD2 = (double) tolerance * tolerance;
+        for (int i = 0; i < ref.size(); i++) {
+            Star r = ref.get(i);
+            double dx = r.x - x, dy = r.y - y;
+            double d2 = dx * dx + dy * dy;
+            if (d2 <= bestD2) {
+                bestD2 = d2;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int countMatches(FrameTransform t, List<Star> cur, List<Star> ref, float tolerance) {
+        int matches = 0;
+        for (Star s : cur) {
+            if (nearest(t, s, ref, tolerance) >= 0) matches++;
+        }
+        return matches;
+    }
+
+    // Procrustes 2D sin escala sobre las parejas que encuentra 't'.
+    private static FrameTransform refine(FrameTransform t, List<Star> cur, List<Star> ref, float tolerance) {
+        double spx = 0, spy = 0, sqx = 0, sqy = 0;
+        List<Star[]> pairs = new ArrayList<>();
+        for (Star s : cur) {
+            int i = nearest(t, s, ref, tolerance);
+            if (i < 0) continue;
+            Star r = ref.get(i);
+            pairs.add(new Star[] {s, r});
+            spx += s.x;
+            spy += s.y;
+            sqx += r.x;
+            sqy += r.y;
+        }
+        int n = pairs.size();
+        if (n < MIN_MATCHES) return null;
+        spx /= n;
+        spy /= n;
+        sqx /= n;
+        sqy /= n;
+        double sxx = 0, sxy = 0;
+        for (Star[] pair : pairs) {
+            double px = pair[0].x - spx, py = pair[0].y - spy;
+            double qx = pair[1].x - sqx, qy = pair[1].y - sqy;
+            sxx += px * qx + py * qy;
+            sxy += px * qy - py * qx;
+        }
+        double angle = Math.atan2(sxy, sxx);
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        return new FrameTransform(cos, -sin, sqx - (cos * spx - sin * spy),
+            sin, cos, sqy - (sin * spx + cos * spy));
+    }
+}
@@ -0,0 +1,55 @@
+package com.cameraestellar;
+
+// Transformación afín 2x3 que lleva coordenadas de un frame a las del frame de referencia.
+// Es el resultado del registro de estrellas (traslación + rotación de campo):
+//   x' = a*x + b*y + tx
+//   y' = c*x + d*y + ty
+public final class FrameTransform {
+    public final double a, b, tx;
+    public final double c, d, ty;
+
+    public FrameTransform(double a, double b, double tx, double c, double d, double ty) {
+        this.a = a;
+        this.b = b;
+        this.tx = tx;
+        this.c = c;
+        this.d = d;
+        this.ty = ty;
+    }
+
+    public static FrameTransform identity() {
+        return new FrameTransform(1, 0, 0, 0, 1, 0);
+    }
+
+    // Rotación (radianes) alrededor del origen seguida de traslación.
+    public static FrameTransform rigid(double angleRad, double dx, double dy) {
+        double cos = Math.cos(angleRad);
+        double sin = Math.sin(angleRad);
+        return new FrameTransform(cos, -sin, dx, sin, cos, dy);
+    }
+
+    public double mapX(double x, double y) {
+        return a * x + b * y + tx;
+    }
+
+    public double mapY(double x, double y) {
+        return c * x + d * y + ty;
+    }
+
+    // Factor de escala lineal medio (raíz del determinante).
+    public double linearScale() {
+        return Math.sqrt(Math.abs(a * d - b * c));
+    }
+
+    public FrameTransform inverse() {
+        double det = a * d - b * c;
+        if (det == 0) {
+            throw new IllegalStateException("Transformación no invertible");
+        }
+        double ia = d / det;
+        double ib = -b / det;
+        double ic = -c / det;
+        double id = a / det;
+        return new FrameTransform(ia, ib, -(ia * tx + ib * ty), ic, id, -(ic * tx + id * ty));
+    }
+}
@@ -0,0 +1,260 @@
+package com.cameraestellar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+// Apilado en vivo de una secuencia de captura sobre la StackingSession de su directorio.
+//
+// Por cada frame guardado: plano de luminancia (superpíxel 2x2 del Bayer, o el plano tal cual si
+// ya es monocromo) -> trazas de satélite (máscara) -> estrellas fuera de la máscara -> registro
+// rígido contra el frame de referencia -> drizzle sin los píxeles enmascarados sobre el acumulador
+// persistente -> trazas y recordFrame() en la sesión (checkpoint cada CHECKPOINT_INTERVAL frames, o
+// más espaciado si la rejilla es grande: StackingSession.checkpointInterval()).
+// El primer frame con estrellas suficientes es la referencia y sus estrellas quedan en la
+// cabecera de la sesión (las usa la deconvolución al exportar).
+//
+// addFrame() y close() van serializados: los trabajos LIVE pueden caer en workers distintos y el
+// acumulador no admite dos integraciones a la vez. close() marca antes el cierre, así sólo espera
+// al frame que ya se esté integrando y no a los encolados detrás, que se descartan.
+public class LiveStacker implements Closeable {
+
+    // Escala 1: el plano superpíxel ya es 1/4 del sensor y el drizzle sólo corrige el registro
+    public static final int SCALE = 1;
+    public static final float PIXFRAC = 0.8f;
+    public static final int CHECKPOINT_INTERVAL = 8;
+    // Distancia (px del plano) para dar por buena una pareja de estrellas
+    private static final float MATCH_TOLERANCE = 2f;
+
+    // Planos de luminancia ociosos para el siguiente frame (uno en cola, uno integrándose y la copia
+    // con las trazas en NaN). Bajo presión de memoria el gobernador baja el límite a 0.
+    public static final int DEFAULT_PLANE_LIMIT = 3;
+    private static final ArrayDeque<float[]> sFreePlanes = new ArrayDeque<>();
+    private static int sPlaneLimit = DEFAULT_PLANE_LIMIT;
+
+    // Métricas del frame para el índice de la sesión
+    public static final class FrameStats {
+        public final int starCount;
+        public final float fwhm;
+        public final float background;
+        // FWHM de referencia / FWHM del frame, al cuadrado (1 = tan nítido como la referencia)
+        public final float quality;
+        public final int trailCount;
+        public final boolean integrated;
+
+        FrameStats(int starCount, float fwhm, float background, float quality, int trailCount, boolean integrated) {
+            this.starCount = starCount;
+            this.fwhm = fwhm;
+            this.background = background;
+            this.quality = quality;
+            this.trailCount = trailCount;
+            this.integrated = integrated;
+        }
+    }
+
+    private final StackingSession mSession;
+    private final DrizzleIntegrator mIntegrator;
+    private final StarDetector mDetector = new StarDetector();
+    private final TrailDetector mTrailDetector;
+    private List<Star> mReference;
+    private float mReferenceFwhm = Float.NaN;
+    private boolean mClosed = false;
+    // Se lee sin el monitor: los frames en cola no esperan a que termine el cierre para descartarse
+    private volatile boolean mClosing = false;
+
+    private LiveStacker(StackingSession session, ExecutorService executor) {
+        mSession = session;
+        mIntegrator = session.createIntegrator(executor);
+        mTrailDetector = new TrailDetector(executor);
+        List<Star> reference = session.getReferenceStars();
+        if (!reference.isEmpty()) setReference(reference);
+    }
+
+    // Crea la sesión de apilado en 'dir' o reanuda la que ya hubiera con la misma geometría.
+    public static LiveStacker open(File dir, int width, int height, ExecutorService executor) throws IOException {
+        StackingSession session = StackingSession.exists(dir)
+            ? StackingSession.open(dir, CHECKPOINT_INTERVAL)
+            : StackingSession.create(dir, width, height, SCALE, PIXFRAC, CHECKPOINT_INTERVAL);
+        if (session.getInputWidth() != width || session.getInputHeight() != height) {
+            session.close();
+            throw new IOException("Sesión de apilado con otra geometría: " + dir);
+        }
+        return new LiveStacker(session, executor);
+    }
+
+    public int getWidth() {
+        return mSession.getInputWidth();
+    }
+
+    public int getHeight() {
+        return mSession.getInputHeight();
+    }
+
+    public File getDirectory() {
+        return mSession.getDirectory();
+    }
+
+    // --- Plano de luminancia ---
+
+    public static int planeWidth(int width, boolean mono) {
+        return mono ? width : width / 2;
+    }
+
+    public static int planeHeight(int height, boolean mono) {
+        return mono ? height : height / 2;
+    }
+
+    // Plano de 'size' floats, reutilizado si hay uno ocioso de ese tamaño. Su contenido es basura:
+    // luminance() lo sobrescribe entero. Se devuelve con releasePlane() cuando ya no se usa.
+    public static float[] acquirePlane(int size) {
+        synchronized (sFreePlanes) {
+            for (float[] plane : sFreePlanes) {
+                if (plane.length == size) {
+                    sFreePlanes.remove(plane);
+                    return plane;
+                }
+            }
+        }
+        return new float[size];
+    }
+
+    public static void releasePlane(float[] plane) {
+        synchronized (sFreePlanes) {
+            // Los más recientes delante: si cambia la geometría, los viejos salen primero
+            sFreePlanes.addFirst(plane);
+            while (sFreePlanes.size() > sPlaneLimit) sFreePlanes.pollLast();
+        }
+    }
+
+    public static void setPlaneLimit(int limit) {
+        synchronized (sFreePlanes) {
+            sPlaneLimit = Math.max(0, limit);
+            while (sFreePlanes.size() > sPlaneLimit) sFreePlanes.pollLast();
+        }
+    }
+
+    public static void trimPlanes() {
+        synchronized (sFreePlanes) {
+            sFreePlanes.clear();
+        }
+    }
+
+    static int idlePlaneCount() {
+        synchronized (sFreePlanes) {
+            return sFreePlanes.size();
+        }
+    }
+
+    // Copia un plano RAW16 (little-endian, lectura absoluta: no mueve la posición de 'data') a
+    // float sin nivel de negro. Bayer: media de cada cuadro 2x2; mono: píxel a píxel.
+    public static float[] luminance(ByteBuffer data, int rowStride, int width, int height, boolean mono,
+                                    int blackLevel) {
+        float[] plane = new float[planeWidth(width, mono) * planeHeight(height, mono)];
+        luminance(data, rowStride, width, height, mono, blackLevel, plane);
+        return plane;
+    }
+
+    // Igual, sobre 'plane' (al menos planeWidth() x planeHeight() floats, p. ej. de acquirePlane()).
+    public static void luminance(ByteBuffer data, int rowStride, int width, int height, boolean mono,
+                                 int blackLevel, float[] plane) {
+        int w = planeWidth(width, mono);
+        int h = planeHeight(height, mono);
+        if (mono) {
+            for (int y = 0; y < h; y++) {
+                int row = y * rowStride;
+                for (int x = 0; x < w; x++) {
+                    plane[y * w + x] = (data.getShort(row + 2 * x) & 0xFFFF) - blackLevel;
+                }
+            }
+            return;
+        }
+        for (int y = 0; y < h; y++) {
+            int row0 = 2 * y * rowStride;
+            int row1 = row0 + rowStride;
+            for (int x = 0; x < w; x++) {
+                int sum = (data.getShort(row0 + 4 * x) & 0xFFFF) + (data.getShort(row0 + 4 * x + 2) & 0xFFFF)
+                    + (data.getShort(row1 + 4 * x) & 0xFFFF) + (data.getShort(row1 + 4 * x + 2) & 0xFFFF);
+                plane[y * w + x] = 0.25f * sum - blackLevel;
+            }
+        }
+    }
+
+    // --- Integración ---
+
+    // Integra el plano (getWidth() x getHeight()) del frame 'frameIndex' (posición en el índice de
+    // la sesión). Devuelve null si el apilador ya está cerrado o el frame ya estaba integrado.
+    public FrameStats addFrame(float[] plane, int frameIndex) throws IOException, InterruptedException {
+        if (mClosing) return null;
+        synchronized (this) {
+            return integrate(plane, frameIndex);
+        }
+    }
+
+    private FrameStats integrate(float[] plane, int frameIndex) throws IOException, InterruptedException {
+        if (mClosed || mSession.isFrameIntegrated(frameIndex)) return null;
+        int w = mSession.getInputWidth();
+        int h = mSession.getInputHeight();
+        List<TrailDetector.Trail> trails = mTrailDetector.detect(plane, w, h);
+        float[] background = StarDetector.estimateBackground(plane, w, h);
+        BitSet mask = null;
+        List<Star> stars;
+        if (trails.isEmpty()) {
+            stars = mDetector.detect(plane, w, h, background);
+        } else {
+            mask = new BitSet(w * h);
+            TrailDetector.rasterize(trails, w, h, mask);
+            // Una traza da máximos locales en toda su longitud: se buscan estrellas con ella en NaN
+            float[] starPlane = acquirePlane(w * h);
+            try {
+                System.arraycopy(plane, 0, starPlane, 0, w * h);
+                for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) starPlane[i] = Float.NaN;
+                stars = mDetector.detect(starPlane, w, h, background);
+            } finally {
+                releasePlane(starPlane);
+            }
+        }
+        float fwhm = RichardsonLucy.medianFwhm(stars);
+
+        FrameTransform transform;
+        if (mReference == null) {
+            if (stars.size() < FrameRegistration.MIN_MATCHES) {
+                return new FrameStats(stars.size(), fwhm, background[0], 0f, trails.size(), false);
+            }
+            mSession.setReferenceStars(stars);
+            setReference(stars);
+            transform = FrameTransform.identity();
+        } else {
+            transform = FrameRegistration.register(mReference, stars, MATCH_TOLERANCE);
+            if (transform == null) {
+                return new FrameStats(stars.size(), fwhm, background[0], 0f, trails.size(), false);
+            }
+        }
+        float quality = fwhm > 0f && mReferenceFwhm > 0f ? (mReferenceFwhm / fwhm) * (mReferenceFwhm / fwhm) : 1f;
+        mIntegrator.addFrame(plane, transform, 1f, mask);
+        // Las trazas se guardan antes de contar el frame: un reproceso tras el checkpoint las encuentra
+        mSession.writeTrailMask(frameIndex, trails);
+        mSession.recordFrame(frameIndex, quality);
+        return new FrameStats(stars.size(), fwhm, background[0], quality, trails.size(), true);
+    }
+
+    private void setReference(List<Star> stars) {
+        mReference = stars;
+        mReferenceFwhm = RichardsonLucy.medianFwhm(stars);
+    }
+
+    // Persiste el acumulador y cierra la sesión; los frames que lleguen después se ignoran.
+    @Override
+    public void close() throws IOException {
+        mClosing = true;
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            mSession.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.cameraestellar;
+
+// Gobernador de presión de memoria del pipeline RAW.
+// Recibe señales (onTrimMemory / onLowMemory, o simuladas) y delega en una política intercambiable
+// qué hacer en cada nivel. Las acciones concretas (encoger el pool, degradar la vista previa,
+// frenar el secuenciador) las implementa quien posee esos recursos.
+//
+// El sistema no avisa cuando la presión desaparece, así que tick() baja un nivel cada
+// COOLDOWN_MS sin señales nuevas.
+public class MemoryPressureGovernor {
+
+    public static final long COOLDOWN_MS = 30_000L;
+
+    public enum Level { NORMAL, MODERATE, HIGH, CRITICAL }
+
+    // Efectos disponibles sobre el pipeline.
+    public interface Actions {
+        void setPoolLimit(int buffers);
+        void setPreviewDegraded(boolean degraded);
+        void setCaptureBackpressure(boolean blocked);
+    }
+
+    public interface Policy {
+        void apply(Level level, FrameBufferPool pool, Actions actions);
+    }
+
+    // Política por defecto, escalonada: encoger pool -> degradar vista previa -> frenar capturas.
+    public static final Policy ESCALATING = new Policy() {
+        @Override
+        public void apply(Level level, FrameBufferPool pool, Actions actions) {
+            int full = pool != null ? pool.getInitialLimit() : FrameBufferPool.MIN_BUFFERS;
+            switch (level) {
+                case NORMAL:
+                    actions.setPoolLimit(full);
+                    actions.setPreviewDegraded(false);
+                    actions.setCaptureBackpressure(false);
+                    break;
+                case MODERATE:
+                    actions.setPoolLimit(Math.max(FrameBufferPool.MIN_BUFFERS, full / 2));
+                    actions.setPreviewDegraded(false);
+                    actions.setCaptureBackpressure(false);
+                    break;
+                case HIGH:
+                    actions.setPoolLimit(FrameBufferPool.MIN_BUFFERS);
+                    actions.setPreviewDegraded(true);
+                    actions.setCaptureBackpressure(false);
+                    break;
+                case CRITICAL:
+                    actions.setPoolLimit(FrameBufferPool.MIN_BUFFERS);
+                    actions.setPreviewDegraded(true);
+                    actions.setCaptureBackpressure(true);
+                    break;
+            }
+        }
+    };
+
+    private final Actions mActions;
+    private volatile Policy mPolicy;
+    private volatile FrameBufferPool mPool;
+
+    private Level mLevel = Level.NORMAL;
+    private long mLastSignalMs = 0L;
+
+    public MemoryPressureGovernor(Actions actions, Policy policy) {
+        mActions = actions;
+        mPolicy = policy != null ? policy : ESCALATING;
+    }
+
+    public void setPolicy(Policy policy) {
+        mPolicy = policy != null ? policy : ESCALATING;
+    }
+
+    public void setPool(FrameBufferPool pool) {
+        mPool = pool;
+    }
+
+    public synchronized Level getLevel() {
+        return mLevel;
+    }
+
+    // Una señal sólo puede subir el nivel; las bajadas las hace tick().
+    public synchronized void signal(Level level, long nowMs) {
+        mLastSignalMs = nowMs;
+        if (level.ordinal() > mLevel.ordinal()) {
+            transition(level);
+        }
+    }
+
+    public synchronized void tick(long nowMs) {
+        if (mLevel == Level.NORMAL) return;
+        if (nowMs - mLastSignalMs >= COOLDOWN_MS) {
+            mLastSignalMs = nowMs;
+            transition(Level.values()[mLevel.ordinal() - 1]);
+        }
+    }
+
+    public synchronized void reset() {
+        mLastSignalMs = 0L;
+        if (mLevel != Level.NORMAL) transition(Level.NORMAL);
+    }
+
+    private void transition(Level level) {
+        mLevel = level;
+        mPolicy.apply(level, mPool, mActions);
+    }
+}
@@ -0,0 +1,265 @@
+package com.cameraestellar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Resolución de placa ciega y local contra un QuadIndex.
+//
+// 1. Se toman las estrellas detectadas más brillantes y se recorren sus quads en orden de brillo
+//    (primero los que sólo usan las 4, 5, 6... más brillantes).
+// 2. El código de cada quad (y el de su reflejo, por si la imagen es especular) se busca en el
+//    índice. Se descartan candidatos cuya escala implícita no encaja en el rango de campo.
+// 3. Con las 4 correspondencias se ajusta una WCS TAN y se verifica proyectando las estrellas
+//    del catálogo en el campo: se acepta si suficientes caen sobre estrellas detectadas.
+// 4. La solución final se reajusta con todas las estrellas emparejadas.
+public class PlateSolver {
+
+    public static final int DEFAULT_MAX_STARS = 30;
+    private static final double CODE_TOLERANCE = 0.015;
+    private static final int MIN_MATCHES = 8;
+    // Estrellas de catálogo/detectadas que entran en la verificación
+    private static final int VERIFY_STARS = 60;
+    // Radio de emparejamiento relativo al lado largo: absorbe la distorsión de ópticas gran angular
+    private static final double MATCH_RADIUS_FRACTION = 0.0075;
+
+    private final QuadIndex mIndex;
+    private final double mMinFovDeg;
+    private final double mMaxFovDeg;
+    private final long mTimeoutMs;
+    private final int mMaxStars;
+
+    public PlateSolver(QuadIndex index) {
+        this(index, 15.0, 60.0, 1000, DEFAULT_MAX_STARS);
+    }
+
+    // Campo medido sobre el lado largo de la imagen, en grados.
+    public PlateSolver(QuadIndex index, double minFovDeg, double maxFovDeg, long timeoutMs, int maxStars) {
+        mIndex = index;
+        mMinFovDeg = minFovDeg;
+        mMaxFovDeg = maxFovDeg;
+        mTimeoutMs = timeoutMs;
+        mMaxStars = maxStars;
+    }
+
+    // Devuelve la solución o null si no se encuentra antes del timeout.
+    public WcsSolution solve(List<Star> detected, int width, int height) {
+        final long deadline = System.currentTimeMillis() + mTimeoutMs;
+        final Star[] stars = detected.toArray(new Star[0]);
+        Arrays.sort(stars, (a, b) -> Float.compare(b.flux, a.flux));
+        int n = Math.min(mMaxStars, stars.length);
+        if (n < 4) return null;
+
+        final int longSide = Math.max(width, height);
+        final double minScale = mMinFovDeg / longSide;
+        final double maxScale = mMaxFovDeg / longSide;
+        final Verifier verifier = new Verifier(stars, width, height);
+
+        final double[] x = new double[4];
+        final double[] y = new double[4];
+        final double[] code = new double[4];
+        final int[] order = new int[4];
+        final int[] quad = new int[4];
+        final WcsSolution[] found = new WcsSolution[1];
+
+        for (int d = 3; d < n; d++) {
+            for (int c = 2; c < d; c++) {
+                for (int b = 1; b < c; b++) {
+                    for (int a = 0; a < b; a++) {
+                        if (System.currentTimeMillis() > deadline) return null;
+                        quad[0] = a;
+                        quad[1] = b;
+                        quad[2] = c;
+                        quad[3] = d;
+                        for (int k = 0; k < 4; k++) {
+                            x[k] = stars[quad[k]].x;
+                            y[k] = stars[quad[k]].y;
+                        }
+                        for (int parity = 0; parity < 2; parity++) {
+                            if (!QuadIndex.computeCode(x, y, parity == 1, order, code)) break;
+                            final Star starA = stars[quad[order[0]]];
+                            final Star starB = stars[quad[order[1]]];
+                            final Star starC = stars[quad[order[2]]];
+                            final Star starD = stars[quad[order[3]]];
+                            final double abPixels = Math.hypot(starB.x - starA.x, starB.y - starA.y);
+                            if (abPixels * maxScale < mIndex.getMinScaleDeg()
+                                    || abPixels * minScale > mIndex.getMaxScaleDeg()) {
+                                break;
+                            }
+                            mIndex.forEachNear(code, CODE_TOLERANCE, new QuadIndex.QuadVisitor() {
+                                @Override
+                                public boolean visit(int q) {
+                                    int sa = mIndex.getQuadStar(q, 0);
+                                    int sb = mIndex.getQuadStar(q, 1);
+                                    double abDeg = WcsSolution.separation(mIndex.getStarRa(sa), mIndex.getStarDec(sa),
+                                        mIndex.getStarRa(sb), mIndex.getStarDec(sb));
+                                    double scale = abDeg / abPixels;
+                                    if (scale < minScale || scale > maxScale) return true;
+                                    Star[] image = {starA, starB, starC, starD};
+                                    int[] catalog = {sa, sb, mIndex.getQuadStar(q, 2), mIndex.getQuadStar(q, 3)};
+                                    WcsSolution wcs = fit(image, catalog, 4, width / 2.0, height / 2.0, 0);
+                                    if (wcs == null) return true;
+                                    found[0] = verifier.verify(wcs);
+                                    return found[0] == null && System.currentTimeMillis() <= deadline;
+                                }
+                            });
+                            if (found[0] != null) return found[0];
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Ajuste lineal por mínimos cuadrados de la WCS TAN (crpix fijo) a n correspondencias.
+    // Dos pasadas: la primera proyecta sobre el centroide del catálogo, la segunda sobre el crval obtenido.
+    private WcsSolution fit(Star[] image, int[] catalog, int n, double crpix1, double crpix2, int matches) {
+        double sx = 0, sy = 0, sz = 0;
+        for (int i = 0; i < n; i++) {
+            double ra = Math.toRadians(mIndex.getStarRa(catalog[i]));
+            double dec = Math.toRadians(mIndex.getStarDec(catalog[i]));
+            sx += Math.cos(dec) * Math.cos(ra);
+            sy += Math.cos(dec) * Math.sin(ra);
+            sz += Math.sin(dec);
+        }
+        double ra0 = Math.toDegrees(Math.atan2(sy, sx));
+        double dec0 = Math.toDegrees(Math.atan2(sz, Math.hypot(sx, sy)));
+        double[] xi = new double[n];
+        double[] eta = new double[n];
+        double[] std = new double[2];
+        double[] cd = new double[6];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < n; i++) {
+                if (!WcsSolution.project(mIndex.getStarRa(catalog[i]), mIndex.getStarDec(catalog[i]), ra0, dec0, std)) {
+                    return null;
+                }
+                xi[i] = std[0];
+                eta[i] = std[1];
+            }
+            if (!leastSquares(image, n, crpix1, crpix2, xi, eta, cd)) return null;
+            // El término constante es el desplazamiento del centro de la imagen en el plano tangente
+            double[] center = new double[2];
+            WcsSolution.deproject(cd[2], cd[5], ra0, dec0, center);
+            ra0 = center[0];
+            dec0 = center[1];
+        }
+        return new WcsSolution(ra0, dec0, crpix1, crpix2, cd[0], cd[1], cd[3], cd[4], matches);
+    }
+
+    // xi = cd[0]*dx + cd[1]*dy + cd[2], eta = cd[3]*dx + cd[4]*dy + cd[5] con dx = x - crpix1, dy = y - crpix2.
+    private static boolean leastSquares(Star[] image, int n, double crpix1, double crpix2,
+                                        double[] xi, double[] eta, double[] cd) {
+        double sxx = 0, sxy = 0, sx = 0, syy = 0, sy = 0;
+        double bx0 = 0, bx1 = 0, bx2 = 0, by0 = 0, by1 = 0, by2 = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = image[i].x - crpix1;
+            double dy = image[i].y - crpix2;
+            sxx += dx * dx;
+            sxy += dx * dy;
+            sx += dx;
+            syy += dy * dy;
+            sy += dy;
+            bx0 += dx * xi[i];
+            bx1 += dy * xi[i];
+            bx2 += xi[i];
+            by0 += dx * eta[i];
+            by1 += dy * eta[i];
+            by2 += eta[i];
+        }
+        double[][] m = {{sxx, sxy, sx}, {sxy, syy, sy}, {sx, sy, n}};
+        double det = det3(m);
+        if (Math.abs(det) < 1e-12) return false;
+        double[] bx = {bx0, bx1, bx2};
+        double[] by = {by0, by1, by2};
+        for (int k = 0; k < 3; k++) {
+            cd[k] = det3(replaceColumn(m, k, bx)) / det;
+            cd[3 + k] = det3(replaceColumn(m, k, by)) / det;
+        }
+        return true;
+    }
+
+    private static double det3(double[][] m) {
+        return m[0][0] * (m[1][1] * m[2][2] - m[1][2] * m[2][1])
+            - m[0][1] * (m[1][0] * m[2][2] - m[1][2] * m[2][0])
+            + m[0][2] * (m[1][0] * m[2][1] - m[1][1] * m[2][0]);
+    }
+
+    private static double[][] replaceColumn(double[][] m, int column, double[] values) {
+        double[][] out = new double[3][];
+        for (int r = 0; r < 3; r++) {
+            out[r] = m[r].clone();
+            out[r][column] = values[r];
+        }
+        return out;
+    }
+
+    // Verificación contra el catálogo: proyecta las estrellas del índice que caen en el campo y
+    // cuenta cuántas tienen una estrella detectada dentro del radio de emparejamiento.
+    private final class Verifier {
+        private final Star[] mStars;
+        private final int mWidth;
+        private final int mHeight;
+        private final double mRadius2;
+        private final int mDetectedCount;
+
+        Verifier(Star[] stars, int width, int height) {
+            mStars = stars;
+            mWidth = width;
+            mHeight = height;
+            double radius = Math.max(3.0, MATCH_RADIUS_FRACTION * Math.max(width, height));
+            mRadius2 = radius * radius;
+            mDetectedCount = Math.min(VERIFY_STARS, stars.length);
+        }
+
+        WcsSolution verify(WcsSolution wcs) {
+            double fieldRadius = 0.5 * Math.hypot(mWidth, mHeight) * wcs.getPixelScaleArcsec() / 3600.0;
+            if (fieldRadius >= 89.0) return null;
+            int from = mIndex.lowerBoundDec((float) (wcs.crval2 - fieldRadius));
+            List<Integer> inField = new ArrayList<>();
+            List<double[]> pixels = new ArrayList<>();
+            for (int s = from; s < mIndex.getStarCount() && mIndex.getStarDec(s) <= wcs.crval2 + fieldRadius; s++) {
+                if (WcsSolution.separation(wcs.crval1, wcs.crval2, mIndex.getStarRa(s), mIndex.getStarDec(s)) > fieldRadius) {
+                    continue;
+                }
+                double[] p = wcs.skyToPixel(mIndex.getStarRa(s), mIndex.getStarDec(s));
+                if (p == null || p[0] < 0 || p[1] < 0 || p[0] >= mWidth || p[1] >= mHeight) continue;
+                inField.add(s);
+                pixels.add(p);
+            }
+            // Sólo las más brillantes del catálogo, para no inflar coincidencias al azar
+            Integer[] byMag = new Integer[inField.size()];
+            for (int i = 0; i < byMag.length; i++) byMag[i] = i;
+            Arrays.sort(byMag, (a, b) -> Float.compare(mIndex.getStarMag(inField.get(a)), mIndex.getStarMag(inField.get(b))));
+            int catalogCount = Math.min(VERIFY_STARS, byMag.length);
+
+            Star[] matchedImage = new Star[catalogCount];
+            int[] matchedCatalog = new int[catalogCount];
+            boolean[] used = new boolean[mDetectedCount];
+            int matches = 0;
+            for (int k = 0; k < catalogCount; k++) {
+                double[] p = pixels.get(byMag[k]);
+                int best = -1;
+                double bestD2 = mRadius2;
+                for (int i = 0; i < mDetectedCount; i++) {
+                    if (used[i]) continue;
+                    double dx = mStars[i].x - p[0], dy = mStars[i].y - p[1];
+                    double d2 = dx * dx + dy * dy;
+                    if (d2 <= bestD2) {
+                        bestD2 = d2;
+                        best = i;
+                    }
+                }
+                if (best < 0) continue;
+                used[best] = true;
+                matchedImage[matches] = mStars[best];
+                matchedCatalog[matches] = inField.get(byMag[k]);
+                matches++;
+            }
+            int required = Math.max(MIN_MATCHES, Math.min(mDetectedCount, catalogCount) / 4);
+            if (matches < required) return null;
+            WcsSolution refined = fit(matchedImage, matchedCatalog, matches, wcs.crpix1, wcs.crpix2, matches);
+            return refined != null ? refined : wcs;
+        }
+    }
+}
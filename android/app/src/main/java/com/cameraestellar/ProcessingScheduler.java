@@ -0,0 +1,401 @@
+package com.cameraestellar;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Planificador de trabajos de procesado (guardado, apilado, deconvolución, exportación...) con
+// prioridades, para que nada compita a ciegas con la captura en el hilo CameraBackground.
+//
+//   CAPTURE_CRITICAL -> guardar frames recién capturados: siempre primero
+//   LIVE             -> lo que el usuario está mirando (vista previa del apilado)
+//   BATCH            -> exportaciones y reprocesados largos
+//
+// Pool fijo de hilos. BATCH nunca ocupa todos: se reserva uno para las otras clases. Mientras hay
+// una secuencia en curso los BATCH no arrancan y los que corren se pausan en su próximo
+// checkpoint(). Fuera de secuencia, los BATCH respetan un ciclo de trabajo (fracción de CPU por
+// ventana): checkpoint() duerme lo necesario al agotar su cuota.
+//
+// La cancelación es cooperativa: cancel() marca el trabajo y checkpoint() lanza
+// CancellationException, así el trabajo suelta sus recursos por la vía normal de excepciones.
+//
+// Los BATCH que reparten teselas en paralelo usan getComputePool() (compartido, un hilo por núcleo)
+// en lugar de crear su propio pool, y cada tesela llama a checkpoint() del trabajo: así la pausa
+// y el ciclo de trabajo frenan también a los hilos de cálculo, no sólo al hilo coordinador.
+public class ProcessingScheduler {
+
+    public enum Priority { CAPTURE_CRITICAL, LIVE, BATCH }
+
+    public enum State { QUEUED, RUNNING, PAUSED, SUCCEEDED, FAILED, CANCELLED }
+
+    public interface Job {
+        // Devuelve el resultado (p.ej. una ruta) o null.
+        Object run(JobContext context) throws Exception;
+    }
+
+    // Lo que un trabajo ve del planificador. Llamar a checkpoint() con frecuencia (cada tesela,
+    // cada iteración...) para responder a cancelaciones, pausas y al ciclo de trabajo. Puede
+    // llamarse desde los hilos del pool de cálculo que trabajan para el trabajo.
+    public interface JobContext {
+        void checkpoint() throws InterruptedException;
+        boolean isCancelled();
+        void setProgress(float progress);
+    }
+
+    public interface Callback {
+        void onFinished(JobHandle job);
+    }
+
+    // Trabajos terminados que se conservan para consultar su estado
+    private static final int MAX_FINISHED = 64;
+    public static final long DEFAULT_BUDGET_WINDOW_MS = 1000;
+
+    private final Object mLock = new Object();
+    private final List<ArrayDeque<JobHandle>> mQueues = new ArrayList<>();
+    private final Map<Integer, JobHandle> mJobs = new LinkedHashMap<>();
+    private final Thread[] mWorkers;
+    private final ExecutorService mComputePool;
+    private final int mMaxBatchWorkers;
+    private int mRunningBatch = 0;
+    private int mNextId = 1;
+    private boolean mSequenceActive = false;
+    private float mBatchDutyCycle = 1f;
+    private long mBudgetWindowNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_WINDOW_MS);
+    private boolean mShutdown = false;
+
+    public ProcessingScheduler(int workers) {
+        int count = Math.max(1, workers);
+        mMaxBatchWorkers = Math.max(1, count - 1);
+        for (int i = 0; i < Priority.values().length; i++) mQueues.add(new ArrayDeque<JobHandle>());
+        mWorkers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, "Processing-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+        mComputePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Compute-" + mCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public JobHandle submit(String name, Priority priority, Job job) {
+        synchronized (mLock) {
+            if (mShutdown) throw new IllegalStateException("Planificador detenido");
+            JobHandle handle = new JobHandle(mNextId++, name, priority, job);
+            mJobs.put(handle.mId, handle);
+            mQueues.get(priority.ordinal()).addLast(handle);
+            pruneFinished();
+            mLock.notifyAll();
+            return handle;
+        }
+    }
+
+    public JobHandle getJob(int id) {
+        synchronized (mLock) {
+            return mJobs.get(id);
+        }
+    }
+
+    public boolean cancel(int id) {
+        JobHandle handle = getJob(id);
+        return handle != null && handle.cancel();
+    }
+
+    // Durante una secuencia de captura el trabajo BATCH se detiene por completo.
+    public void setSequenceActive(boolean active) {
+        synchronized (mLock) {
+            mSequenceActive = active;
+            mLock.notifyAll();
+        }
+    }
+
+    public boolean isSequenceActive() {
+        synchronized (mLock) {
+            return mSequenceActive;
+        }
+    }
+
+    // Fracción (0, 1] de cada ventana que puede ocupar cada trabajo BATCH.
+    public void setBatchBudget(float dutyCycle, long windowMs) {
+        synchronized (mLock) {
+            mBatchDutyCycle = Math.max(0.05f, Math.min(1f, dutyCycle));
+            mBudgetWindowNs = TimeUnit.MILLISECONDS.toNanos(Math.max(10, windowMs));
+        }
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    // Pool de cálculo paralelo para las teselas de los trabajos BATCH. Sus tareas duermen dentro de
+    // checkpoint() cuando el trabajo se pausa o agota su cuota, así que las etapas de captura y LIVE
+    // no deben depender de él.
+    public ExecutorService getComputePool() {
+        return mComputePool;
+    }
+
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            for (JobHandle handle : mJobs.values()) handle.cancel();
+            mLock.notifyAll();
+        }
+        mComputePool.shutdown();
+    }
+
+    private void workerLoop() {
+        while (true) {
+            JobHandle handle;
+            synchronized (mLock) {
+                while ((handle = nextRunnable()) == null) {
+                    if (mShutdown) return;
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (handle.mPriority == Priority.BATCH) mRunningBatch++;
+                handle.mState = State.RUNNING;
+                handle.mSliceStartNs = System.nanoTime();
+            }
+            execute(handle);
+            synchronized (mLock) {
+                if (handle.mPriority == Priority.BATCH) mRunningBatch--;
+                pruneFinished();
+                mLock.notifyAll();
+            }
+            handle.fireCallbacks();
+        }
+    }
+
+    // Primera cola no vacía por prioridad; BATCH sólo si no hay secuencia y queda hueco.
+    private JobHandle nextRunnable() {
+        for (Priority priority : Priority.values()) {
+            if (priority == Priority.BATCH && (mSequenceActive || mRunningBatch >= mMaxBatchWorkers)) continue;
+            JobHandle handle = mQueues.get(priority.ordinal()).pollFirst();
+            if (handle != null) return handle;
+        }
+        return null;
+    }
+
+    private void execute(JobHandle handle) {
+        Object result = null;
+        Throwable error = null;
+        try {
+            handle.checkpoint();
+            result = handle.mJob.run(handle);
+        } catch (Exception | OutOfMemoryError e) {
+            // Incluye CancellationException e InterruptedException
+            error = e;
+        }
+        synchronized (mLock) {
+            if (handle.mCancelled || error instanceof CancellationException || error instanceof InterruptedException) {
+                handle.mState = State.CANCELLED;
+            } else if (error != null) {
+                handle.mState = State.FAILED;
+                handle.mError = error;
+            } else {
+                handle.mState = State.SUCCEEDED;
+                handle.mResult = result;
+                handle.mProgress = 1f;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    private void pruneFinished() {
+        int finished = 0;
+        for (JobHandle handle : mJobs.values()) {
+            if (handle.isFinished()) finished++;
+        }
+        Iterator<JobHandle> it = mJobs.values().iterator();
+        while (finished > MAX_FINISHED && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    public final class JobHandle implements JobContext {
+        private final int mId;
+        private final String mName;
+        private final Priority mPriority;
+        private final Job mJob;
+        private final List<Callback> mCallbacks = new ArrayList<>();
+        private State mState = State.QUEUED;
+        private volatile boolean mCancelled = false;
+        private volatile float mProgress = 0f;
+        private Object mResult;
+        private Throwable mError;
+        // Lo actualizan el hilo del trabajo y los del pool de cálculo desde checkpoint()
+        private volatile long mSliceStartNs;
+        private boolean mCallbacksFired = false;
+
+        JobHandle(int id, String name, Priority priority, Job job) {
+            mId = id;
+            mName = name;
+            mPriority = priority;
+            mJob = job;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        public State getState() {
+            synchronized (mLock) {
+                return mState;
+            }
+        }
+
+        public float getProgress() {
+            return mProgress;
+        }
+
+        public Object getResult() {
+            synchronized (mLock) {
+                return mResult;
+            }
+        }
+
+        public Throwable getError() {
+            synchronized (mLock) {
+                return mError;
+            }
+        }
+
+        public boolean isFinished() {
+            synchronized (mLock) {
+                return mState == State.SUCCEEDED || mState == State.FAILED || mState == State.CANCELLED;
+            }
+        }
+
+        // Si aún está en cola se descarta; si corre, se detendrá en su próximo checkpoint().
+        public boolean cancel() {
+            boolean dequeued;
+            synchronized (mLock) {
+                if (isFinished()) return false;
+                mCancelled = true;
+                dequeued = mState == State.QUEUED && mQueues.get(mPriority.ordinal()).remove(this);
+                if (dequeued) mState = State.CANCELLED;
+                mLock.notifyAll();
+            }
+            if (dequeued) fireCallbacks();
+            return true;
+        }
+
+        // Se llama una vez al terminar (o en el acto si ya terminó), desde el hilo del trabajo.
+        public void addCallback(Callback callback) {
+            synchronized (mLock) {
+                if (!mCallbacksFired) {
+                    mCallbacks.add(callback);
+                    return;
+                }
+            }
+            callback.onFinished(this);
+        }
+
+        public boolean await(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            synchronized (mLock) {
+                while (!isFinished()) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) return false;
+                    mLock.wait(left);
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void setProgress(float progress) {
+            mProgress = Math.max(0f, Math.min(1f, progress));
+        }
+
+        @Override
+        public void checkpoint() throws InterruptedException {
+            if (mCancelled) throw new CancellationException(mName + " cancelado");
+            if (mPriority != Priority.BATCH) return;
+            synchronized (mLock) {
+                // Pausa mientras dure la secuencia de captura
+                while (mSequenceActive && !mCancelled && !mShutdown) {
+                    mState = State.PAUSED;
+                    mLock.wait();
+                }
+                if (mState == State.PAUSED) {
+                    mState = State.RUNNING;
+                    mSliceStartNs = System.nanoTime();
+                }
+            }
+            if (mCancelled) throw new CancellationException(mName + " cancelado");
+
+            // Ciclo de trabajo: al agotar la cuota de la ventana, dormir el resto
+            float duty;
+            long window;
+            synchronized (mLock) {
+                duty = mBatchDutyCycle;
+                window = mBudgetWindowNs;
+            }
+            if (duty >= 1f) return;
+            long busy = System.nanoTime() - mSliceStartNs;
+            if (busy >= duty * window) {
+                long sleepNs = (long) (busy * (1f - duty) / duty);
+                synchronized (mLock) {
+                    long deadline = System.nanoTime() + sleepNs;
+                    long left;
+                    while (!mCancelled && !mShutdown && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(mLock, left);
+                    }
+                }
+                mSliceStartNs = System.nanoTime();
+                if (mCancelled) throw new CancellationException(mName + " cancelado");
+            }
+        }
+
+        private void fireCallbacks() {
+            List<Callback> callbacks;
+            synchronized (mLock) {
+                mCallbacksFired = true;
+                callbacks = new ArrayList<>(mCallbacks);
+                mCallbacks.clear();
+            }
+            for (Callback callback : callbacks) callback.onFinished(this);
+        }
+    }
+}
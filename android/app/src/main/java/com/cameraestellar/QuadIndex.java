@@ -0,0 +1,246 @@
+package com.cameraestellar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Índice de quads de estrellas para resolver placas sin conexión (estilo astrometry.net).
+// Lo genera QuadIndexBuilder a partir de un catálogo de estrellas brillantes y se lee
+// mapeado en memoria: nada del catálogo pasa al heap.
+//
+// Formato (little-endian):
+//   cabecera   64 B  -> magic "QIDX", versión, nº estrellas, nº quads, bins de código,
+//                       escala mín/máx de quad (grados), offsets de cada sección
+//   estrellas  12 B  -> float ra, dec (grados), mag. Ordenadas por dec para búsquedas por zona.
+//   celdas     int[BINS^4 + 1] -> primer quad de cada celda del espacio de códigos
+//   quads      32 B  -> int A, B, C, D (índices de estrella) + float cx, cy, dx, dy
+//
+// Código de un quad: A y B son el par más separado; se lleva A a (0,0) y B a (1,1) con una
+// semejanza y el código son las coordenadas de C y D. Es invariante a traslación, rotación y
+// escala. Se canoniza con cx <= dx y cx + dx <= 1 (si no, se intercambian C/D o A/B).
+public final class QuadIndex implements Closeable {
+
+    static final int MAGIC = 0x51494458; // "QIDX"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int STAR_BYTES = 12;
+    static final int QUAD_BYTES = 32;
+
+    // C y D caen dentro del círculo de diámetro AB: coordenadas en [-0.21, 1.21]
+    static final float CODE_MIN = -0.25f;
+    static final float CODE_MAX = 1.25f;
+
+    static final int OFF_MAGIC = 0;
+    static final int OFF_VERSION = 4;
+    static final int OFF_STAR_COUNT = 8;
+    static final int OFF_QUAD_COUNT = 12;
+    static final int OFF_CODE_BINS = 16;
+    static final int OFF_MIN_SCALE = 20;
+    static final int OFF_MAX_SCALE = 24;
+    static final int OFF_STARS = 28;
+    static final int OFF_CELLS = 32;
+    static final int OFF_QUADS = 36;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final int mStarCount;
+    private final int mQuadCount;
+    private final int mBins;
+    private final float mMinScaleDeg;
+    private final float mMaxScaleDeg;
+    private final int mStarsOffset;
+    private final int mCellsOffset;
+    private final int mQuadsOffset;
+
+    public QuadIndex(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mMap = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mFile.length());
+            mMap.order(ByteOrder.LITTLE_ENDIAN);
+            if (mMap.getInt(OFF_MAGIC) != MAGIC || mMap.getInt(OFF_VERSION) != VERSION) {
+                throw new IOException("Índice de quads no válido: " + file);
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mStarCount = mMap.getInt(OFF_STAR_COUNT);
+        mQuadCount = mMap.getInt(OFF_QUAD_COUNT);
+        mBins = mMap.getInt(OFF_CODE_BINS);
+        mMinScaleDeg = mMap.getFloat(OFF_MIN_SCALE);
+        mMaxScaleDeg = mMap.getFloat(OFF_MAX_SCALE);
+        mStarsOffset = mMap.getInt(OFF_STARS);
+        mCellsOffset = mMap.getInt(OFF_CELLS);
+        mQuadsOffset = mMap.getInt(OFF_QUADS);
+    }
+
+    public int getStarCount() {
+        return mStarCount;
+    }
+
+    public int getQuadCount() {
+        return mQuadCount;
+    }
+
+    public float getMinScaleDeg() {
+        return mMinScaleDeg;
+    }
+
+    public float getMaxScaleDeg() {
+        return mMaxScaleDeg;
+    }
+
+    public float getStarRa(int star) {
+        return mMap.getFloat(mStarsOffset + star * STAR_BYTES);
+    }
+
+    public float getStarDec(int star) {
+        return mMap.getFloat(mStarsOffset + star * STAR_BYTES + 4);
+    }
+
+    public float getStarMag(int star) {
+        return mMap.getFloat(mStarsOffset + star * STAR_BYTES + 8);
+    }
+
+    // Primera estrella con dec >= 'dec' (búsqueda binaria sobre la sección ordenada).
+    public int lowerBoundDec(float dec) {
+        int lo = 0, hi = mStarCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStarDec(mid) < dec) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public int getQuadStar(int quad, int k) {
+        return mMap.getInt(mQuadsOffset + quad * QUAD_BYTES + 4 * k);
+    }
+
+    public float getQuadCode(int quad, int k) {
+        return mMap.getFloat(mQuadsOffset + quad * QUAD_BYTES + 16 + 4 * k);
+    }
+
+    // Visita los quads cuyo código está a distancia <= tol del dado (recorre sólo las celdas
+    // vecinas). Si 'visitor' devuelve false se corta la búsqueda y se devuelve false.
+    public boolean forEachNear(double[] code, double tol, QuadVisitor visitor) {
+        int[] lo = new int[4];
+        int[] hi = new int[4];
+        for (int k = 0; k < 4; k++) {
+            lo[k] = bin(code[k] - tol);
+            hi[k] = bin(code[k] + tol);
+        }
+        double tol2 = tol * tol;
+        for (int a = lo[0]; a <= hi[0]; a++) {
+            for (int b = lo[1]; b <= hi[1]; b++) {
+                for (int c = lo[2]; c <= hi[2]; c++) {
+                    for (int d = lo[3]; d <= hi[3]; d++) {
+                        int cell = ((a * mBins + b) * mBins + c) * mBins + d;
+                        int from = mMap.getInt(mCellsOffset + 4 * cell);
+                        int to = mMap.getInt(mCellsOffset + 4 * (cell + 1));
+                        for (int q = from; q < to; q++) {
+                            double dist2 = 0;
+                            for (int k = 0; k < 4; k++) {
+                                double diff = getQuadCode(q, k) - code[k];
+                                dist2 += diff * diff;
+                            }
+                            if (dist2 <= tol2 && !visitor.visit(q)) return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    public interface QuadVisitor {
+        boolean visit(int quad);
+    }
+
+    int bin(double value) {
+        int b = (int) ((value - CODE_MIN) / (CODE_MAX - CODE_MIN) * mBins);
+        return Math.max(0, Math.min(mBins - 1, b));
+    }
+
+    static int cellOf(float[] code, int bins) {
+        int cell = 0;
+        for (int k = 0; k < 4; k++) {
+            int b = (int) ((code[k] - CODE_MIN) / (CODE_MAX - CODE_MIN) * bins);
+            cell = cell * bins + Math.max(0, Math.min(bins - 1, b));
+        }
+        return cell;
+    }
+
+    // Código canónico de 4 puntos en un plano. 'order' recibe los índices (0..3) en orden A, B, C, D.
+    // Con 'mirror' se calcula el de la imagen reflejada (reflexión sobre la recta AB).
+    // Devuelve false si C o D caen fuera del círculo de diámetro AB (quad no indexable).
+    static boolean computeCode(double[] x, double[] y, boolean mirror, int[] order, double[] code) {
+        int ia = 0, ib = 1;
+        double best = -1;
+        for (int i = 0; i < 4; i++) {
+            for (int j = i + 1; j < 4; j++) {
+                double dx = x[j] - x[i], dy = y[j] - y[i];
+                double d2 = dx * dx + dy * dy;
+                if (d2 > best) {
+                    best = d2;
+                    ia = i;
+                    ib = j;
+                }
+            }
+        }
+        if (best <= 0) return false;
+        int ic = -1, id = -1;
+        for (int i = 0; i < 4; i++) {
+            if (i == ia || i == ib) continue;
+            if (ic < 0) ic = i;
+            else id = i;
+        }
+        // z = (P - A) / (B - A) * (1 + i) en números complejos
+        double abx = x[ib] - x[ia], aby = y[ib] - y[ia];
+        double norm = abx * abx + aby * aby;
+        double[] cd = new double[4];
+        int[] pts = {ic, id};
+        for (int k = 0; k < 2; k++) {
+            double vx = x[pts[k]] - x[ia], vy = y[pts[k]] - y[ia];
+            double re = (vx * abx + vy * aby) / norm;
+            double im = (vy * abx - vx * aby) / norm;
+            double u = re - im;
+            double v = re + im;
+            cd[2 * k] = mirror ? v : u;
+            cd[2 * k + 1] = mirror ? u : v;
+            double ox = cd[2 * k] - 0.5, oy = cd[2 * k + 1] - 0.5;
+            if (ox * ox + oy * oy > 0.5) return false;
+        }
+        if (cd[0] + cd[2] > 1) {
+            int t = ia;
+            ia = ib;
+            ib = t;
+            for (int k = 0; k < 4; k++) cd[k] = 1 - cd[k];
+        }
+        if (cd[0] > cd[2]) {
+            int t = ic;
+            ic = id;
+            id = t;
+            double tx = cd[0], ty = cd[1];
+            cd[0] = cd[2];
+            cd[1] = cd[3];
+            cd[2] = tx;
+            cd[3] = ty;
+        }
+        order[0] = ia;
+        order[1] = ib;
+        order[2] = ic;
+        order[3] = id;
+        System.arraycopy(cd, 0, code, 0, 4);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
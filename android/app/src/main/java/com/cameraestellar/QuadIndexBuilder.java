@@ -0,0 +1,219 @@
+package com.cameraestellar;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Genera el índice de quads (QuadIndex) a partir de un catálogo de estrellas brillantes.
+// Se ejecuta en el PC, sin Android, y el .qidx resultante se copia al dispositivo.
+//
+//   java -cp out com.cameraestellar.QuadIndexBuilder catalogo.csv estrellas.qidx [magMax] [escalas]
+//
+// catalogo.csv: una estrella por línea "ra,dec,mag" en grados (se ignoran cabecera y columnas extra).
+// escalas: lados de celda en grados separados por comas (por defecto 3,6,12). Para cada escala se
+// cubre el cielo con celdas y en cada una se forman todos los quads de sus 8 estrellas más
+// brillantes, con lado AB entre 0.5 y 2 veces la celda. Así hay quads para campos de 15-60 grados.
+public final class QuadIndexBuilder {
+
+    private static final int STARS_PER_CELL = 8;
+    private static final int CODE_BINS = 16;
+    // Los ids de estrella se deduplican empaquetados en 16 bits
+    private static final int MAX_STARS = 65535;
+
+    private QuadIndexBuilder() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("uso: QuadIndexBuilder catalogo.csv salida.qidx [magMax] [escalas]");
+            System.exit(1);
+        }
+        float maxMag = args.length > 2 ? Float.parseFloat(args[2]) : 6.5f;
+        double[] scales = {3, 6, 12};
+        if (args.length > 3) {
+            String[] parts = args[3].split(",");
+            scales = new double[parts.length];
+            for (int i = 0; i < parts.length; i++) scales[i] = Double.parseDouble(parts[i]);
+        }
+        long t0 = System.currentTimeMillis();
+        float[][] stars = readCatalog(new File(args[0]), maxMag);
+        List<int[]> quads = new ArrayList<>();
+        List<float[]> codes = new ArrayList<>();
+        buildQuads(stars, scales, quads, codes);
+        double minScale = Double.MAX_VALUE, maxScale = 0;
+        for (double cell : scales) {
+            minScale = Math.min(minScale, cell * 0.5);
+            maxScale = Math.max(maxScale, cell * 2.0);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            write(out, stars, quads, codes, (float) minScale, (float) maxScale);
+        }
+        System.out.println(String.format(Locale.US, "%d estrellas, %d quads, %.1f MB en %d ms",
+            stars.length, quads.size(), new File(args[1]).length() / 1048576.0, System.currentTimeMillis() - t0));
+    }
+
+    // Estrellas {ra, dec, mag} hasta magMax, las MAX_STARS más brillantes, ordenadas por dec.
+    static float[][] readCatalog(File csv, float maxMag) throws IOException {
+        List<float[]> stars = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(csv))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.split("[,;\\t]");
+                if (cols.length < 3) continue;
+                try {
+                    float ra = Float.parseFloat(cols[0].trim());
+                    float dec = Float.parseFloat(cols[1].trim());
+                    float mag = Float.parseFloat(cols[2].trim());
+                    if (mag <= maxMag) stars.add(new float[] {ra, dec, mag});
+                } catch (NumberFormatException e) {
+                    // Cabecera o línea no numérica
+                }
+            }
+        }
+        stars.sort((a, b) -> Float.compare(a[2], b[2]));
+        if (stars.size() > MAX_STARS) stars = stars.subList(0, MAX_STARS);
+        float[][] sorted = stars.toArray(new float[0][]);
+        Arrays.sort(sorted, (a, b) -> Float.compare(a[1], b[1]));
+        return sorted;
+    }
+
+    static void buildQuads(float[][] stars, double[] scales, List<int[]> quads, List<float[]> codes) {
+        Set<Long> seen = new HashSet<>();
+        double[] x = new double[4];
+        double[] y = new double[4];
+        double[] std = new double[2];
+        double[] code = new double[4];
+        int[] order = new int[4];
+        for (double cell : scales) {
+            double radius = cell * 0.75;
+            for (double dec = -90 + cell / 2; dec < 90; dec += cell) {
+                int raCells = Math.max(1, (int) Math.round(360 * Math.cos(Math.toRadians(dec)) / cell));
+                for (int r = 0; r < raCells; r++) {
+                    double ra = (r + 0.5) * 360.0 / raCells;
+                    int[] members = brightestNear(stars, ra, dec, radius, STARS_PER_CELL);
+                    int n = members.length;
+                    for (int a = 0; a < n; a++) {
+                        for (int b = a + 1; b < n; b++) {
+                            for (int c = b + 1; c < n; c++) {
+                                for (int d = c + 1; d < n; d++) {
+                                    int[] ids = {members[a], members[b], members[c], members[d]};
+                                    int[] sortedIds = ids.clone();
+                                    Arrays.sort(sortedIds);
+                                    long key = ((long) sortedIds[0] << 48) | ((long) sortedIds[1] << 32)
+                                        | ((long) sortedIds[2] << 16) | sortedIds[3];
+                                    if (seen.contains(key)) continue;
+                                    // Plano tangente en una estrella del quad: el código apenas depende del punto elegido
+                                    double ra0 = stars[ids[0]][0], dec0 = stars[ids[0]][1];
+                                    boolean ok = true;
+                                    for (int k = 0; k < 4 && ok; k++) {
+                                        ok = WcsSolution.project(stars[ids[k]][0], stars[ids[k]][1], ra0, dec0, std);
+                                        x[k] = std[0];
+                                        y[k] = std[1];
+                                    }
+                                    if (!ok || !QuadIndex.computeCode(x, y, false, order, code)) continue;
+                                    double ab = WcsSolution.separation(stars[ids[order[0]]][0], stars[ids[order[0]]][1],
+                                        stars[ids[order[1]]][0], stars[ids[order[1]]][1]);
+                                    if (ab < cell * 0.5 || ab > cell * 2.0) continue;
+                                    seen.add(key);
+                                    quads.add(new int[] {ids[order[0]], ids[order[1]], ids[order[2]], ids[order[3]]});
+                                    codes.add(new float[] {(float) code[0], (float) code[1], (float) code[2], (float) code[3]});
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Índices de las 'count' estrellas más brillantes a menos de 'radius' grados de (ra, dec).
+    private static int[] brightestNear(float[][] stars, double ra, double dec, double radius, int count) {
+        int from = lowerBound(stars, (float) (dec - radius));
+        List<Integer> near = new ArrayList<>();
+        for (int i = from; i < stars.length && stars[i][1] <= dec + radius; i++) {
+            if (WcsSolution.separation(ra, dec, stars[i][0], stars[i][1]) <= radius) near.add(i);
+        }
+        near.sort((a, b) -> Float.compare(stars[a][2], stars[b][2]));
+        int n = Math.min(count, near.size());
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = near.get(i);
+        return out;
+    }
+
+    private static int lowerBound(float[][] stars, float dec) {
+        int lo = 0, hi = stars.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (stars[mid][1] < dec) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    static void write(OutputStream stream, float[][] stars, List<int[]> quads, List<float[]> codes,
+                      float minScale, float maxScale) throws IOException {
+        int cellCount = CODE_BINS * CODE_BINS * CODE_BINS * CODE_BINS;
+        // Ordenar los quads por celda del espacio de códigos (counting sort)
+        int[] cellOf = new int[quads.size()];
+        int[] start = new int[cellCount + 1];
+        for (int q = 0; q < quads.size(); q++) {
+            cellOf[q] = QuadIndex.cellOf(codes.get(q), CODE_BINS);
+            start[cellOf[q] + 1]++;
+        }
+        for (int c = 0; c < cellCount; c++) start[c + 1] += start[c];
+        int[] sorted = new int[quads.size()];
+        int[] next = Arrays.copyOf(start, cellCount);
+        for (int q = 0; q < quads.size(); q++) sorted[next[cellOf[q]]++] = q;
+
+        int starsOffset = QuadIndex.HEADER_BYTES;
+        int cellsOffset = starsOffset + stars.length * QuadIndex.STAR_BYTES;
+        int quadsOffset = cellsOffset + (cellCount + 1) * 4;
+
+        DataOutputStream out = new DataOutputStream(stream);
+        ByteBuffer header = ByteBuffer.allocate(QuadIndex.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(QuadIndex.OFF_MAGIC, QuadIndex.MAGIC);
+        header.putInt(QuadIndex.OFF_VERSION, QuadIndex.VERSION);
+        header.putInt(QuadIndex.OFF_STAR_COUNT, stars.length);
+        header.putInt(QuadIndex.OFF_QUAD_COUNT, quads.size());
+        header.putInt(QuadIndex.OFF_CODE_BINS, CODE_BINS);
+        header.putFloat(QuadIndex.OFF_MIN_SCALE, minScale);
+        header.putFloat(QuadIndex.OFF_MAX_SCALE, maxScale);
+        header.putInt(QuadIndex.OFF_STARS, starsOffset);
+        header.putInt(QuadIndex.OFF_CELLS, cellsOffset);
+        header.putInt(QuadIndex.OFF_QUADS, quadsOffset);
+        out.write(header.array());
+
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(QuadIndex.QUAD_BYTES, QuadIndex.STAR_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        for (float[] s : stars) {
+            buf.clear();
+            buf.putFloat(s[0]).putFloat(s[1]).putFloat(s[2]);
+            out.write(buf.array(), 0, QuadIndex.STAR_BYTES);
+        }
+        for (int c = 0; c <= cellCount; c++) {
+            buf.clear();
+            buf.putInt(start[c]);
+            out.write(buf.array(), 0, 4);
+        }
+        for (int q : sorted) {
+            int[] ids = quads.get(q);
+            float[] code = codes.get(q);
+            buf.clear();
+            for (int k = 0; k < 4; k++) buf.putInt(ids[k]);
+            for (int k = 0; k < 4; k++) buf.putFloat(code[k]);
+            out.write(buf.array(), 0, QuadIndex.QUAD_BYTES);
+        }
+        out.flush();
+    }
+}
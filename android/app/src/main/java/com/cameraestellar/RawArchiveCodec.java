@@ -0,0 +1,445 @@
+package com.cameraestellar;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Archivo RAW comprimido sin pérdida (.araw) para ráfagas largas.
+//
+// DngCreator sólo escribe DNG sin comprimir, así que el modo archivo usa un contenedor propio:
+// predictor MED (LOCO-I) sobre la retícula del mismo color Bayer (vecinos a distancia 2)
+// + códigos Rice adaptativos por bloques de 16 residuos. La imagen se parte en franjas
+// horizontales independientes que se comprimen en paralelo en el pool de escritura.
+//
+// Formato (little-endian):
+//   cabecera fija | tabla de franjas (offset long, longitud int) | franjas
+public final class RawArchiveCodec {
+
+    public static final String EXTENSION = ".araw";
+
+    private static final int MAGIC = 0x57415241; // "ARAW"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    public static final int DEFAULT_STRIPE_ROWS = 128;
+
+    // Valor de SENSOR_INFO_COLOR_FILTER_ARRANGEMENT para sensores monocromo (superpíxel)
+    public static final int CFA_MONO = 5;
+
+    private static final int BLOCK = 16;
+    private static final int K_BITS = 4;
+    private static final int ESCAPE_Q = 32;
+    private static final int RAW_BITS = 17; // zigzag de un residuo de 16 bits
+
+    // Buffers de trabajo por franja (píxeles del predictor + bits de salida) que se reutilizan entre
+    // escrituras en vez de asignarse por franja. Quedan como mucho sScratchLimit ociosos; el
+    // gobernador de memoria baja el límite a 0 bajo presión para que no retengan nada.
+    public static final int DEFAULT_SCRATCH_LIMIT = Runtime.getRuntime().availableProcessors();
+    private static final ArrayDeque<Scratch> sFreeScratch = new ArrayDeque<>();
+    private static int sScratchLimit = DEFAULT_SCRATCH_LIMIT;
+
+    private static final class Scratch {
+        int[] px = new int[0];
+        byte[] bits = new byte[0];
+        final int[] block = new int[BLOCK];
+    }
+
+    private RawArchiveCodec() {}
+
+    private static Scratch acquireScratch() {
+        synchronized (sFreeScratch) {
+            Scratch scratch = sFreeScratch.pollFirst();
+            if (scratch != null) return scratch;
+        }
+        return new Scratch();
+    }
+
+    private static void releaseScratch(Scratch scratch) {
+        synchronized (sFreeScratch) {
+            if (sFreeScratch.size() < sScratchLimit) sFreeScratch.addFirst(scratch);
+        }
+    }
+
+    public static void setScratchLimit(int limit) {
+        synchronized (sFreeScratch) {
+            sScratchLimit = Math.max(0, limit);
+            while (sFreeScratch.size() > sScratchLimit) sFreeScratch.pollLast();
+        }
+    }
+
+    // Suelta los buffers ociosos sin cambiar el límite (cierre de cámara).
+    public static void trimScratch() {
+        synchronized (sFreeScratch) {
+            sFreeScratch.clear();
+        }
+    }
+
+    static int idleScratchCount() {
+        synchronized (sFreeScratch) {
+            return sFreeScratch.size();
+        }
+    }
+
+    // Metadatos mínimos que acompañan al archivo (el resto vive en el índice de sesión).
+    public static final class Header {
+        public int width;
+        public int height;
+        public int cfaArrangement;
+        public int whiteLevel;
+        public int blackLevel;
+        public int iso;
+        public long exposureNs;
+        public long timestampNs;
+        public int stripeRows = DEFAULT_STRIPE_ROWS;
+        public int binning = 1;
+    }
+
+    // Comprime un plano RAW16 (pixelStride 2) y lo escribe completo en 'out'.
+    public static long write(OutputStream out, Header header, ByteBuffer data, int rowStride,
+                             ExecutorService executor) throws IOException, InterruptedException {
+        // En la cabecera va el alto real de franja, no el pedido: read() parte por ahí
+        int stripeRows = effectiveStripeRows(header.stripeRows);
+        byte[][] stripes = encodeStripes(data, rowStride, header.width, header.height, stripeRows, executor);
+
+        int tableBytes = stripes.length * 12;
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES + tableBytes).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(MAGIC);
+        head.putInt(VERSION);
+        head.putInt(header.width);
+        head.putInt(header.height);
+        head.putInt(header.cfaArrangement);
+        head.putInt(header.whiteLevel);
+        head.putInt(header.blackLevel);
+        head.putInt(header.iso);
+        head.putLong(header.exposureNs);
+        head.putLong(header.timestampNs);
+        head.putInt(stripeRows);
+        head.putInt(stripes.length);
+        head.putInt(header.binning);
+        head.position(HEADER_BYTES);
+
+        long offset = HEADER_BYTES + tableBytes;
+        for (byte[] stripe : stripes) {
+            head.putLong(offset);
+            head.putInt(stripe.length);
+            offset += stripe.length;
+        }
+        out.write(head.array());
+        for (byte[] stripe : stripes) {
+            out.write(stripe);
+        }
+        return offset;
+    }
+
+    public static byte[][] encodeStripes(final ByteBuffer data, final int rowStride, final int width, final int height,
+                                         int stripeRows, ExecutorService executor)
+            throws InterruptedException {
+        final int rows = effectiveStripeRows(stripeRows);
+        int count = (height + rows - 1) / rows;
+        List<Callable<byte[]>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int y0 = i * rows;
+            final int y1 = Math.min(height, y0 + rows);
+            tasks.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return encodeStripe(data, rowStride, width, y0, y1);
+                }
+            });
+        }
+        byte[][] result = new byte[count][];
+        if (executor == null) {
+            for (int i = 0; i < count; i++) {
+                result[i] = encodeStripe(data, rowStride, width, i * rows, Math.min(height, (i + 1) * rows));
+            }
+            return result;
+        }
+        List<Future<byte[]>> futures = executor.invokeAll(tasks);
+        for (int i = 0; i < count; i++) {
+            try {
+                result[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Fallo comprimiendo franja " + i, e.getCause());
+            }
+        }
+        return result;
+    }
+
+    // Múltiplo de 2 para que cada franja empiece en la misma fase del patrón Bayer
+    static int effectiveStripeRows(int stripeRows) {
+        return Math.max(2, stripeRows & ~1);
+    }
+
+    static byte[] encodeStripe(ByteBuffer data, int rowStride, int width, int y0, int y1) {
+        Scratch scratch = acquireScratch();
+        try {
+            return encodeStripe(data, rowStride, width, y0, y1, scratch);
+        } finally {
+            releaseScratch(scratch);
+        }
+    }
+
+    private static byte[] encodeStripe(ByteBuffer data, int rowStride, int width, int y0, int y1, Scratch scratch) {
+        int rows = y1 - y0;
+        // Copia local de la franja: el predictor lee filas anteriores de la misma franja
+        if (scratch.px.length < rows * width) scratch.px = new int[rows * width];
+        int[] px = scratch.px;
+        for (int r = 0; r < rows; r++) {
+            int base = (y0 + r) * rowStride;
+            for (int x = 0; x < width; x++) {
+                px[r * width + x] = data.getShort(base + 2 * x) & 0xFFFF;
+            }
+        }
+        if (scratch.bits.length < rows * width + 64) scratch.bits = new byte[rows * width + 64];
+        BitWriter bits = new BitWriter(scratch.bits);
+        int[] block = scratch.block;
+        int n = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int x = 0; x < width; x++) {
+                int e = px[r * width + x] - predict(px, width, r, x);
+                block[n++] = (e << 1) ^ (e >> 31);
+                if (n == BLOCK) {
+                    writeBlock(bits, block, n);
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0) writeBlock(bits, block, n);
+        byte[] out = bits.toByteArray();
+        // Si la franja no comprimía, el buffer creció: se conserva el grande para la siguiente
+        scratch.bits = bits.buffer();
+        return out;
+    }
+
+    // MED sobre los vecinos del mismo color (distancia 2 en la retícula Bayer).
+    private static int predict(int[] px, int width, int r, int x) {
+        boolean hasLeft = x >= 2;
+        boolean hasUp = r >= 2;
+        if (hasLeft && hasUp) {
+            int a = px[r * width + x - 2];
+            int b = px[(r - 2) * width + x];
+            int c = px[(r - 2) * width + x - 2];
+            int max = Math.max(a, b);
+            int min = Math.min(a, b);
+            if (c >= max) return min;
+            if (c <= min) return max;
+            return a + b - c;
+        }
+        if (hasLeft) return px[r * width + x - 2];
+        if (hasUp) return px[(r - 2) * width + x];
+        return 0;
+    }
+
+    private static void writeBlock(BitWriter bits, int[] block, int n) {
+        long sum = 0;
+        for (int i = 0; i < n; i++) sum += block[i];
+        long mean = sum / n;
+        int k = 0;
+        while (k < 15 && (1L << (k + 1)) <= mean) k++;
+        bits.write(k, K_BITS);
+        for (int i = 0; i < n; i++) {
+            int v = block[i];
+            int q = v >>> k;
+            if (q >= ESCAPE_Q) {
+                bits.writeOnes(ESCAPE_Q);
+                bits.write(v, RAW_BITS);
+            } else {
+                bits.writeOnes(q);
+                bits.write(0, 1);
+                if (k > 0) bits.write(v & ((1 << k) - 1), k);
+            }
+        }
+    }
+
+    // --- Lectura ---
+
+    public static Header readHeader(DataInputStream in, List<long[]> stripeTable) throws IOException {
+        byte[] fixed = new byte[HEADER_BYTES];
+        in.readFully(fixed);
+        ByteBuffer head = ByteBuffer.wrap(fixed).order(ByteOrder.LITTLE_ENDIAN);
+        if (head.getInt() != MAGIC || head.getInt() != VERSION) {
+            throw new IOException("No es un archivo " + EXTENSION + " válido");
+        }
+        Header header = new Header();
+        header.width = head.getInt();
+        header.height = head.getInt();
+        header.cfaArrangement = head.getInt();
+        header.whiteLevel = head.getInt();
+        header.blackLevel = head.getInt();
+        header.iso = head.getInt();
+        header.exposureNs = head.getLong();
+        header.timestampNs = head.getLong();
+        header.stripeRows = head.getInt();
+        int count = head.getInt();
+        header.binning = Math.max(1, head.getInt());
+
+        byte[] table = new byte[count * 12];
+        in.readFully(table);
+        ByteBuffer tb = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            stripeTable.add(new long[] {tb.getLong(), tb.getInt()});
+        }
+        return header;
+    }
+
+    // Descomprime el archivo completo a un plano RAW16 row-major.
+    public static short[] read(InputStream input, Header outHeader) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        List<long[]> table = new ArrayList<>();
+        Header header = readHeader(in, table);
+        short[] pixels = new short[header.width * header.height];
+        for (int i = 0; i < table.size(); i++) {
+            byte[] stripe = new byte[(int) table.get(i)[1]];
+            in.readFully(stripe);
+            int y0 = i * header.stripeRows;
+            int y1 = Math.min(header.height, y0 + header.stripeRows);
+            decodeStripe(stripe, pixels, header.width, y0, y1);
+        }
+        if (outHeader != null) {
+            outHeader.width = header.width;
+            outHeader.height = header.height;
+            outHeader.cfaArrangement = header.cfaArrangement;
+            outHeader.whiteLevel = header.whiteLevel;
+            outHeader.blackLevel = header.blackLevel;
+            outHeader.iso = header.iso;
+            outHeader.exposureNs = header.exposureNs;
+            outHeader.timestampNs = header.timestampNs;
+            outHeader.stripeRows = header.stripeRows;
+            outHeader.binning = header.binning;
+        }
+        return pixels;
+    }
+
+    static void decodeStripe(byte[] stripe, short[] out, int width, int y0, int y1) {
+        Scratch scratch = acquireScratch();
+        try {
+            decodeStripe(stripe, out, width, y0, y1, scratch);
+        } finally {
+            releaseScratch(scratch);
+        }
+    }
+
+    private static void decodeStripe(byte[] stripe, short[] out, int width, int y0, int y1, Scratch scratch) {
+        int rows = y1 - y0;
+        if (scratch.px.length < rows * width) scratch.px = new int[rows * width];
+        int[] px = scratch.px;
+        BitReader bits = new BitReader(stripe);
+        int total = rows * width;
+        int i = 0;
+        while (i < total) {
+            int k = bits.read(K_BITS);
+            int n = Math.min(BLOCK, total - i);
+            for (int j = 0; j < n; j++, i++) {
+                int q = bits.countOnes(ESCAPE_Q);
+                int v;
+                if (q == ESCAPE_Q) {
+                    v = bits.read(RAW_BITS);
+                } else {
+                    bits.read(1);
+                    v = (q << k) | (k > 0 ? bits.read(k) : 0);
+                }
+                int e = (v >>> 1) ^ -(v & 1);
+                int r = i / width;
+                int x = i % width;
+                px[i] = predict(px, width, r, x) + e;
+            }
+        }
+        for (int p = 0; p < total; p++) {
+            out[y0 * width + p] = (short) px[p];
+        }
+    }
+
+    // --- E/S de bits (MSB primero) ---
+
+    private static final class BitWriter {
+        private byte[] mBuf;
+        private int mLen = 0;
+        private long mAcc = 0;
+        private int mAccBits = 0;
+
+        BitWriter(byte[] buf) {
+            mBuf = buf.length > 0 ? buf : new byte[64];
+        }
+
+        void write(int value, int count) {
+            mAcc = (mAcc << count) | (value & ((1L << count) - 1));
+            mAccBits += count;
+            while (mAccBits >= 8) {
+                mAccBits -= 8;
+                put((byte) (mAcc >>> mAccBits));
+            }
+        }
+
+        void writeOnes(int count) {
+            while (count > 0) {
+                int chunk = Math.min(count, 24);
+                write((1 << chunk) - 1, chunk);
+                count -= chunk;
+            }
+        }
+
+        private void put(byte b) {
+            if (mLen == mBuf.length) mBuf = Arrays.copyOf(mBuf, mLen * 2);
+            mBuf[mLen++] = b;
+        }
+
+        byte[] toByteArray() {
+            if (mAccBits > 0) {
+                put((byte) (mAcc << (8 - mAccBits)));
+                mAccBits = 0;
+            }
+            return Arrays.copyOf(mBuf, mLen);
+        }
+
+        byte[] buffer() {
+            return mBuf;
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] mBuf;
+        private int mPos = 0;
+        private long mAcc = 0;
+        private int mAccBits = 0;
+
+        BitReader(byte[] buf) {
+            mBuf = buf;
+        }
+
+        private void fill(int count) {
+            while (mAccBits < count) {
+                int b = mPos < mBuf.length ? (mBuf[mPos++] & 0xFF) : 0;
+                mAcc = (mAcc << 8) | b;
+                mAccBits += 8;
+            }
+        }
+
+        int read(int count) {
+            fill(count);
+            mAccBits -= count;
+            return (int) ((mAcc >>> mAccBits) & ((1L << count) - 1));
+        }
+
+        int countOnes(int limit) {
+            int q = 0;
+            while (q < limit) {
+                fill(1);
+                if (((mAcc >>> (mAccBits - 1)) & 1) == 0) break;
+                mAccBits--;
+                q++;
+            }
+            return q;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.cameraestellar;
+
+// FFT 2D real -> complejo para tiles cuadrados de lado potencia de 2.
+//
+// El plan (twiddles e inversión de bits) es inmutable y se comparte entre hilos; cada hilo usa
+// su propio Scratch. Las filas reales de longitud n se transforman con una FFT compleja de n/2
+// (pares en la parte real, impares en la imaginaria) y se separan después, así que el espectro
+// sólo guarda las n/2 + 1 frecuencias no redundantes de cada fila:
+//   re/im[y * (n/2 + 1) + k]
+public final class RealFft2d {
+
+    private final int mSize;
+    private final int mHalf;
+    private final int mSpectrumWidth;
+
+    // FFT compleja de n/2 (filas) y de n (columnas)
+    private final Plan mRowPlan;
+    private final Plan mColumnPlan;
+    // e^{-2*pi*i*k/n} para separar la transformada real, k = 0..n/2
+    private final float[] mSplitCos;
+    private final float[] mSplitSin;
+
+    public RealFft2d(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("El tamaño de la FFT debe ser potencia de 2: " + size);
+        }
+        mSize = size;
+        mHalf = size / 2;
+        mSpectrumWidth = mHalf + 1;
+        mRowPlan = new Plan(mHalf);
+        mColumnPlan = new Plan(size);
+        mSplitCos = new float[mHalf + 1];
+        mSplitSin = new float[mHalf + 1];
+        for (int k = 0; k <= mHalf; k++) {
+            double angle = -2 * Math.PI * k / size;
+            mSplitCos[k] = (float) Math.cos(angle);
+            mSplitSin[k] = (float) Math.sin(angle);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    // Número de floats de cada array (re o im) del espectro.
+    public int spectrumLength() {
+        return mSize * mSpectrumWidth;
+    }
+
+    public Scratch newScratch() {
+        return new Scratch(mSize);
+    }
+
+    // Buffers de trabajo de un hilo.
+    public static final class Scratch {
+        final float[] re;
+        final float[] im;
+
+        Scratch(int size) {
+            re = new float[size];
+            im = new float[size];
+        }
+    }
+
+    public void forward(float[] input, float[] re, float[] im, Scratch scratch) {
+        int n = mSize;
+        int h = mHalf;
+        int sw = mSpectrumWidth;
+        float[] zr = scratch.re;
+        float[] zi = scratch.im;
+        for (int y = 0; y < n; y++) {
+            int row = y * n;
+            for (int m = 0; m < h; m++) {
+                zr[m] = input[row + 2 * m];
+                zi[m] = input[row + 2 * m + 1];
+            }
+            mRowPlan.transform(zr, zi, false);
+            int out = y * sw;
+            for (int k = 0; k <= h; k++) {
+                int a = k == h ? 0 : k;
+                int b = k == 0 ? 0 : h - k;
+                // Fe = (Z[k] + conj(Z[h-k])) / 2, Fo = (Z[k] - conj(Z[h-k])) / 2i
+                float er = 0.5f * (zr[a] + zr[b]);
+                float ei = 0.5f * (zi[a] - zi[b]);
+                float or = 0.5f * (zi[a] + zi[b]);
+                float oi = -0.5f * (zr[a] - zr[b]);
+                float c = mSplitCos[k], s = mSplitSin[k];
+                re[out + k] = er + c * or - s * oi;
+                im[out + k] = ei + c * oi + s * or;
+            }
+        }
+        for (int k = 0; k < sw; k++) {
+            for (int y = 0; y < n; y++) {
+                zr[y] = re[y * sw + k];
+                zi[y] = im[y * sw + k];
+            }
+            mColumnPlan.transform(zr, zi, false);
+            for (int y = 0; y < n; y++) {
+                re[y * sw + k] = zr[y];
+                im[y * sw + k] = zi[y];
+            }
+        }
+    }
+
+    // Inversa normalizada. Destruye re/im.
+    public void inverse(float[] re, float[] im, float[] output, Scratch scratch) {
+        int n = mSize;
+        int h = mHalf;
+        int sw = mSpectrumWidth;
+        float[] zr = scratch.re;
+        float[] zi = scratch.im;
+        for (int k = 0; k < sw; k++) {
+            for (int y = 0; y < n; y++) {
+                zr[y] = re[y * sw + k];
+                zi[y] = im[y * sw + k];
+            }
+            mColumnPlan.transform(zr, zi, true);
+            for (int y = 0; y < n; y++) {
+                re[y * sw + k] = zr[y];
+                im[y * sw + k] = zi[y];
+            }
+        }
+        // Columnas (n) y filas como FFT compleja de n/2
+        float norm = 1f / ((float) n * h);
+        for (int y = 0; y < n; y++) {
+            int in = y * sw;
+            for (int k = 0; k < h; k++) {
+                // Fe = (X[k] + conj(X[h-k])) / 2, Fo = (X[k] - conj(X[h-k])) * e^{+i..} / 2
+                float xr = re[in + k], xi = im[in + k];
+                float yr = re[in + h - k], yi = -im[in + h - k];
+                float er = 0.5f * (xr + yr);
+                float ei = 0.5f * (xi + yi);
+                float dr = 0.5f * (xr - yr);
+                float di = 0.5f * (xi - yi);
+                float c = mSplitCos[k], s = -mSplitSin[k];
+                float or = dr * c - di * s;
+                float oi = dr * s + di * c;
+                // Z = Fe + i*Fo
+                zr[k] = er - oi;
+                zi[k] = ei + or;
+            }
+            mRowPlan.transform(zr, zi, true);
+            int row = y * n;
+            for (int m = 0; m < h; m++) {
+                output[row + 2 * m] = zr[m] * norm;
+                output[row + 2 * m + 1] = zi[m] * norm;
+            }
+        }
+    }
+
+    // FFT compleja radix-2 iterativa en sitio. La inversa no normaliza.
+    private static final class Plan {
+        private final int mLength;
+        private final int[] mReverse;
+        private final float[] mCos;
+        private final float[] mSin;
+
+        Plan(int length) {
+            mLength = length;
+            mReverse = new int[length];
+            int bits = Integer.numberOfTrailingZeros(length);
+            for (int i = 0; i < length; i++) {
+                mReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+            mCos = new float[Math.max(1, length / 2)];
+            mSin = new float[Math.max(1, length / 2)];
+            for (int i = 0; i < length / 2; i++) {
+                double angle = -2 * Math.PI * i / length;
+                mCos[i] = (float) Math.cos(angle);
+                mSin[i] = (float) Math.sin(angle);
+            }
+        }
+
+        void transform(float[] re, float[] im, boolean inverse) {
+            int n = mLength;
+            for (int i = 0; i < n; i++) {
+                int j = mReverse[i];
+                if (j > i) {
+                    float t = re[i];
+                    re[i] = re[j];
+                    re[j] = t;
+                    t = im[i];
+                    im[i] = im[j];
+                    im[j] = t;
+                }
+            }
+            float sign = inverse ? -1f : 1f;
+            for (int len = 2; len <= n; len <<= 1) {
+                int half = len >> 1;
+                int step = n / len;
+                for (int start = 0; start < n; start += len) {
+                    for (int k = 0; k < half; k++) {
+                        float wr = mCos[k * step];
+                        float wi = sign * mSin[k * step];
+                        int p = start + k;
+                        int q = p + half;
+                        float tr = re[q] * wr - im[q] * wi;
+                        float ti = re[q] * wi + im[q] * wr;
+                        re[q] = re[p] - tr;
+                        im[q] = im[p] - ti;
+                        re[p] += tr;
+                        im[p] += ti;
+                    }
+                }
+            }
+        }
+    }
+}
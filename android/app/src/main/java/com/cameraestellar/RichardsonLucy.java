@@ -0,0 +1,296 @@
+package com.cameraestellar;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Deconvolución Richardson-Lucy del apilado final con PSF gaussiana:
+//   u(t+1) = u(t) * [ (d / (u(t) (x) P)) (x) P' ]
+// Las convoluciones se hacen por FFT sobre tiles solapados de lado potencia de 2. Cada iteración
+// es global: todos los tiles leen u(t) y escriben su núcleo en u(t+1), así que el margen sólo
+// tiene que cubrir dos radios de la PSF (las dos convoluciones) y no crece con las iteraciones.
+//
+// La PSF es simétrica (P' = P) y centrada en el origen, así que su espectro es real: se calcula
+// una vez y cada convolución es FFT, producto por un array real e inversa. El plan FFT se comparte
+// y cada trabajador reutiliza su Workspace en todas las iteraciones.
+public class RichardsonLucy {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+    private static final float EPSILON = 1e-6f;
+
+    // Informe por iteración. Devolver false detiene la deconvolución tras esa iteración.
+    public interface Listener {
+        boolean onIteration(int iteration, long elapsedNs, double relativeChange);
+    }
+
+    private final float mSigma;
+    private final int mMaxIterations;
+    private final double mTolerance;
+    private final ExecutorService mExecutor;
+
+    private final int mTileSize;
+    private final int mMargin;
+    private final int mCore;
+    private final RealFft2d mFft;
+    private final float[] mPsfSpectrum;
+
+    // fwhm en píxeles; tolerance: cambio relativo medio por debajo del cual se para (0 = nunca).
+    public RichardsonLucy(float fwhm, int maxIterations, double tolerance, ExecutorService executor) {
+        this(fwhm, maxIterations, tolerance, DEFAULT_TILE_SIZE, executor);
+    }
+
+    public RichardsonLucy(float fwhm, int maxIterations, double tolerance, int tileSize, ExecutorService executor) {
+        if (!(fwhm > 0f)) {
+            throw new IllegalArgumentException("FWHM no válida: " + fwhm);
+        }
+        mSigma = fwhm / 2.3548f;
+        mMaxIterations = maxIterations;
+        mTolerance = tolerance;
+        mExecutor = executor;
+        int radius = (int) Math.ceil(3 * mSigma);
+        mMargin = 2 * radius;
+        // El tile crece si la PSF es tan ancha que el núcleo útil quedaría pequeño
+        int size = tileSize;
+        while (size - 2 * mMargin < size / 2) size *= 2;
+        mTileSize = size;
+        mCore = size - 2 * mMargin;
+        mFft = new RealFft2d(size);
+        mPsfSpectrum = psfSpectrum(mFft, mSigma, radius);
+    }
+
+    // Mediana de la FWHM de las estrellas detectadas (ignora valores no válidos), o NaN.
+    public static float medianFwhm(List<Star> stars) {
+        float[] values = new float[stars.size()];
+        int n = 0;
+        for (Star star : stars) {
+            if (star.fwhm > 0f && !Float.isNaN(star.fwhm)) values[n++] = star.fwhm;
+        }
+        if (n == 0) return Float.NaN;
+        Arrays.sort(values, 0, n);
+        return values[n / 2];
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    // Deconvoluciona 'image' (w x h, row-major) en 'out'. Los NaN (zonas sin cobertura del
+    // drizzle) se rellenan con la mediana para el cálculo y se conservan en la salida.
+    // 'image' hace de observación sin copiarse: al volver los negativos quedan a 0 (los NaN se
+    // restauran). Además de 'image' y 'out' sólo se reserva un frame más.
+    // Devuelve el número de iteraciones realizadas.
+    public int run(float[] image, int width, int height, float[] out, Listener listener) throws InterruptedException {
+        return run(image, width, height, out, listener, null);
+    }
+
+    // Igual, como trabajo del ProcessingScheduler: cada tile llama a checkpoint(), así la pausa,
+    // el ciclo de trabajo y la cancelación llegan a los hilos del pool.
+    public int run(float[] image, int width, int height, float[] out, Listener listener,
+                   @Nullable ProcessingScheduler.JobContext job) throws InterruptedException {
+        BitSet uncovered = prepare(image);
+        try {
+            return iterate(image, width, height, out, listener, job, uncovered);
+        } finally {
+            for (int i = uncovered.nextSetBit(0); i >= 0; i = uncovered.nextSetBit(i + 1)) image[i] = Float.NaN;
+        }
+    }
+
+    private int iterate(final float[] observed, final int width, final int height, float[] out, Listener listener,
+                        @Nullable final ProcessingScheduler.JobContext job, BitSet uncovered)
+            throws InterruptedException {
+        final float[] next = new float[width * height];
+        System.arraycopy(observed, 0, out, 0, width * height);
+
+        final int tilesX = (width + mCore - 1) / mCore;
+        final int tilesY = (height + mCore - 1) / mCore;
+        final int tileCount = tilesX * tilesY;
+        int workers = mExecutor != null ? Math.min(tileCount, Runtime.getRuntime().availableProcessors()) : 1;
+        final Workspace[] workspaces = new Workspace[workers];
+        for (int k = 0; k < workers; k++) workspaces[k] = new Workspace();
+
+        float[] current = out;
+        float[] target = next;
+        int iteration = 0;
+        while (iteration < mMaxIterations) {
+            long start = System.nanoTime();
+            final float[] src = current;
+            final float[] dst = target;
+            final AtomicInteger nextTile = new AtomicInteger();
+            List<Callable<double[]>> tasks = new ArrayList<>(workers);
+            for (final Workspace ws : workspaces) {
+                tasks.add(new Callable<double[]>() {
+                    @Override
+                    public double[] call() throws InterruptedException {
+                        double[] change = new double[2];
+                        for (int t = nextTile.getAndIncrement(); t < tileCount; t = nextTile.getAndIncrement()) {
+                            if (job != null) job.checkpoint();
+                            iterateTile(ws, observed, src, dst, width, height,
+                                (t % tilesX) * mCore, (t / tilesX) * mCore, change);
+                        }
+                        return change;
+                    }
+                });
+            }
+            double delta = 0, total = 0;
+            for (double[] change : runAll(tasks)) {
+                delta += change[0];
+                total += change[1];
+            }
+            current = dst;
+            target = src;
+            iteration++;
+            double relative = total > 0 ? delta / total : 0;
+            boolean proceed = listener == null || listener.onIteration(iteration, System.nanoTime() - start, relative);
+            if (!proceed || relative < mTolerance) break;
+        }
+        if (current != out) System.arraycopy(current, 0, out, 0, width * height);
+        for (int i = uncovered.nextSetBit(0); i >= 0; i = uncovered.nextSetBit(i + 1)) out[i] = Float.NaN;
+        return iteration;
+    }
+
+    // Buffers de un trabajador, reutilizados en todas las iteraciones.
+    private final class Workspace {
+        final RealFft2d.Scratch scratch = mFft.newScratch();
+        final float[] observed = new float[mTileSize * mTileSize];
+        final float[] estimate = new float[mTileSize * mTileSize];
+        final float[] work = new float[mTileSize * mTileSize];
+        final float[] re = new float[mFft.spectrumLength()];
+        final float[] im = new float[mFft.spectrumLength()];
+    }
+
+    private void iterateTile(Workspace ws, float[] observed, float[] src, float[] dst, int width, int height,
+                             int coreX, int coreY, double[] change) {
+        int n = mTileSize;
+        int x0 = coreX - mMargin;
+        int y0 = coreY - mMargin;
+        extract(observed, width, height, x0, y0, ws.observed);
+        extract(src, width, height, x0, y0, ws.estimate);
+
+        // ratio = d / (u (x) P)
+        convolve(ws, ws.estimate, ws.work);
+        for (int i = 0; i < n * n; i++) {
+            ws.work[i] = ws.observed[i] / Math.max(ws.work[i], EPSILON);
+        }
+        // corrección = ratio (x) P
+        convolve(ws, ws.work, ws.work);
+
+        int xEnd = Math.min(width, coreX + mCore);
+        int yEnd = Math.min(height, coreY + mCore);
+        double delta = 0, total = 0;
+        for (int y = coreY; y < yEnd; y++) {
+            int tileRow = (y - y0) * n - x0;
+            int row = y * width;
+            for (int x = coreX; x < xEnd; x++) {
+                float old = ws.estimate[tileRow + x];
+                float updated = old * ws.work[tileRow + x];
+                dst[row + x] = updated;
+                delta += Math.abs(updated - old);
+                total += Math.abs(old);
+            }
+        }
+        change[0] += delta;
+        change[1] += total;
+    }
+
+    private void convolve(Workspace ws, float[] input, float[] output) {
+        mFft.forward(input, ws.re, ws.im, ws.scratch);
+        for (int i = 0; i < mPsfSpectrum.length; i++) {
+            ws.re[i] *= mPsfSpectrum[i];
+            ws.im[i] *= mPsfSpectrum[i];
+        }
+        mFft.inverse(ws.re, ws.im, output, ws.scratch);
+    }
+
+    // Copia el tile [x0, x0+n) x [y0, y0+n) replicando el borde fuera de la imagen.
+    private void extract(float[] image, int width, int height, int x0, int y0, float[] tile) {
+        int n = mTileSize;
+        for (int ty = 0; ty < n; ty++) {
+            int y = Math.max(0, Math.min(height - 1, y0 + ty));
+            int row = y * width;
+            int out = ty * n;
+            for (int tx = 0; tx < n; tx++) {
+                int x = Math.max(0, Math.min(width - 1, x0 + tx));
+                tile[out + tx] = image[row + x];
+            }
+        }
+    }
+
+    // Deja la imagen no negativa con los NaN sustituidos por la mediana, en sitio. Devuelve dónde
+    // estaban los NaN.
+    private static BitSet prepare(float[] image) {
+        float[] sample = new float[Math.min(image.length, 65536)];
+        int step = Math.max(1, image.length / sample.length);
+        int n = 0;
+        for (int i = 0; i < image.length && n < sample.length; i += step) {
+            if (!Float.isNaN(image[i])) sample[n++] = image[i];
+        }
+        Arrays.sort(sample, 0, n);
+        float fill = n > 0 ? Math.max(0f, sample[n / 2]) : 0f;
+        BitSet nan = new BitSet(image.length);
+        for (int i = 0; i < image.length; i++) {
+            float v = image[i];
+            if (Float.isNaN(v)) {
+                nan.set(i);
+                image[i] = fill;
+            } else if (v < 0f) {
+                image[i] = 0f;
+            }
+        }
+        return nan;
+    }
+
+    // Espectro (parte real) de la gaussiana normalizada centrada en el origen con wrap-around.
+    private static float[] psfSpectrum(RealFft2d fft, float sigma, int radius) {
+        int n = fft.getSize();
+        float[] kernel = new float[n * n];
+        double sum = 0;
+        double inv = 1.0 / (2.0 * sigma * sigma);
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                float v = (float) Math.exp(-(dx * dx + dy * dy) * inv);
+                kernel[((dy + n) % n) * n + (dx + n) % n] = v;
+                sum += v;
+            }
+        }
+        for (int i = 0; i < kernel.length; i++) kernel[i] /= sum;
+        float[] re = new float[fft.spectrumLength()];
+        float[] im = new float[fft.spectrumLength()];
+        fft.forward(kernel, re, im, fft.newScratch());
+        return re;
+    }
+
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws InterruptedException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (mExecutor == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (InterruptedException | CancellationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Fallo en la deconvolución", e);
+                }
+            }
+            return results;
+        }
+        for (Future<T> future : mExecutor.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // Cancelación del trabajo vista desde un tile: se propaga tal cual
+                if (e.getCause() instanceof CancellationException) throw (CancellationException) e.getCause();
+                if (e.getCause() instanceof InterruptedException) throw (InterruptedException) e.getCause();
+                throw new IllegalStateException("Fallo en la deconvolución", e.getCause());
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,399 @@
+package com.cameraestellar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
+// Estado de apilado persistente y reanudable tras un crash (OOM, app en segundo plano,
+// onDetachedFromWindow() -> closeCamera()).
+//
+// Estructura del directorio de sesión:
+//   session.hdr  -> geometría drizzle, slot activo, estrellas del frame de referencia (mmap)
+//   slot0.acc    -> snapshot A: tabla de frames (índice + calidad) + flujo + pesos (mmap)
+//   slot1.acc    -> snapshot B
+//   masks/       -> trazas detectadas por frame (frame_NNNNNN.trl, segmentos, no bitmaps)
+//
+// El acumulador vivo está en DirectBuffers. Cada N frames se copia al slot inactivo,
+// se hace force() y sólo entonces se conmuta el slot activo en la cabecera. Así un crash
+// en mitad de un checkpoint deja intacto el snapshot anterior y, al reanudar, como mucho
+// se reprocesan N-1 frames.
+//
+// Cada frame drizzle cubre casi toda la rejilla, así que un checkpoint copia siempre las dos
+// rejillas completas. N crece con la rejilla (checkpointInterval()) para que esa copia no pase de
+// CHECKPOINT_BYTES_PER_FRAME por frame integrado: con 48 MP de rejilla son 384 MB cada 48 frames.
+public class StackingSession implements Closeable {
+
+    private static final int MAGIC = 0x41534553; // "ASES"
+    private static final int VERSION = 1;
+
+    public static final int MAX_REF_STARS = 1024;
+    public static final int MAX_FRAMES = 16384;
+
+    private static final String HEADER_FILE = "session.hdr";
+    private static final String[] SLOT_FILES = {"slot0.acc", "slot1.acc"};
+    private static final String MASK_DIR = "masks";
+
+    // Cabecera
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_INPUT_WIDTH = 8;
+    private static final int OFF_INPUT_HEIGHT = 12;
+    private static final int OFF_SCALE = 16;
+    private static final int OFF_PIXFRAC = 20;
+    private static final int OFF_ACTIVE_SLOT = 24;
+    private static final int OFF_SEQUENCE = 32;
+    private static final int OFF_REF_STAR_COUNT = 40;
+    private static final int OFF_REF_STARS = 64;
+    private static final int STAR_BYTES = 16;
+    private static final int HEADER_BYTES = OFF_REF_STARS + MAX_REF_STARS * STAR_BYTES;
+
+    // Slot: [frameCount][reservado][frames (int índice, float calidad)...][flujo][pesos]
+    private static final int SLOT_META_BYTES = 4096 + MAX_FRAMES * 8;
+
+    // Bytes de checkpoint (flujo + pesos) amortizados por frame
+    static final long CHECKPOINT_BYTES_PER_FRAME = 8L << 20;
+
+    private final File mDir;
+    private final int mInputWidth;
+    private final int mInputHeight;
+    private final int mScale;
+    private final float mPixFrac;
+    private final int mGridPixels;
+    private final int mCheckpointInterval;
+
+    private final RandomAccessFile mHeaderFile;
+    private final MappedByteBuffer mHeader;
+
+    private final FloatBuffer mFlux;
+    private final FloatBuffer mWeight;
+
+    private int[] mFrameIndices = new int[64];
+    private float[] mQualityScores = new float[64];
+    private int mFrameCount = 0;
+    private final BitSet mIntegrated = new BitSet();
+
+    private int mFramesSinceCheckpoint = 0;
+    private boolean mDirty = false;
+
+    private StackingSession(File dir, int inputWidth, int inputHeight, int scale, float pixFrac,
+                            int checkpointInterval, RandomAccessFile headerFile, MappedByteBuffer header) {
+        mDir = dir;
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+        mScale = scale;
+        mPixFrac = pixFrac;
+        mGridPixels = inputWidth * scale * inputHeight * scale;
+        mCheckpointInterval = checkpointInterval(checkpointInterval, mGridPixels);
+        mHeaderFile = headerFile;
+        mHeader = header;
+        mFlux = DrizzleIntegrator.allocateGrid(inputWidth * scale, inputHeight * scale);
+        mWeight = DrizzleIntegrator.allocateGrid(inputWidth * scale, inputHeight * scale);
+    }
+
+    // Intervalo efectivo: el pedido, o más frames si la rejilla es tan grande que cada checkpoint
+    // superaría CHECKPOINT_BYTES_PER_FRAME por frame.
+    static int checkpointInterval(int requested, long gridPixels) {
+        long bytes = gridPixels * 8L;
+        long minimum = (bytes + CHECKPOINT_BYTES_PER_FRAME - 1) / CHECKPOINT_BYTES_PER_FRAME;
+        return (int) Math.min(MAX_FRAMES, Math.max(Math.max(1, requested), minimum));
+    }
+
+    public static boolean exists(File dir) {
+        return new File(dir, HEADER_FILE).isFile();
+    }
+
+    public static StackingSession create(File dir, int inputWidth, int inputHeight, int scale, float pixFrac,
+                                         int checkpointInterval) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio de sesión: " + dir);
+        }
+        RandomAccessFile file = new RandomAccessFile(new File(dir, HEADER_FILE), "rw");
+        MappedByteBuffer header = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(OFF_VERSION, VERSION);
+        header.putInt(OFF_INPUT_WIDTH, inputWidth);
+        header.putInt(OFF_INPUT_HEIGHT, inputHeight);
+        header.putInt(OFF_SCALE, scale);
+        header.putFloat(OFF_PIXFRAC, pixFrac);
+        header.putInt(OFF_ACTIVE_SLOT, -1);
+        header.putLong(OFF_SEQUENCE, 0L);
+        header.putInt(OFF_REF_STAR_COUNT, 0);
+        // El magic se escribe al final: una cabecera a medias no se reconoce como sesión
+        header.putInt(OFF_MAGIC, MAGIC);
+        header.force();
+        return new StackingSession(dir, inputWidth, inputHeight, scale, pixFrac, checkpointInterval, file, header);
+    }
+
+    // Reabre una sesión existente restaurando el último snapshot consistente.
+    public static StackingSession open(File dir, int checkpointInterval) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(dir, HEADER_FILE), "rw");
+        MappedByteBuffer header = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(OFF_MAGIC) != MAGIC || header.getInt(OFF_VERSION) != VERSION) {
+            file.close();
+            throw new IOException("Cabecera de sesión inválida: " + dir);
+        }
+        try {
+            StackingSession session = new StackingSession(dir,
+                header.getInt(OFF_INPUT_WIDTH), header.getInt(OFF_INPUT_HEIGHT),
+                header.getInt(OFF_SCALE), header.getFloat(OFF_PIXFRAC),
+                checkpointInterval, file, header);
+            int active = header.getInt(OFF_ACTIVE_SLOT);
+            if (active >= 0) {
+                session.restoreSlot(active);
+            }
+            return session;
+        } catch (IOException | RuntimeException e) {
+            // Slot ilegible o truncado: no dejar la cabecera mapeada y abierta
+            file.close();
+            throw e;
+        }
+    }
+
+    public File getDirectory() {
+        return mDir;
+    }
+
+    public int getInputWidth() {
+        return mInputWidth;
+    }
+
+    public int getInputHeight() {
+        return mInputHeight;
+    }
+
+    public int getScale() {
+        return mScale;
+    }
+
+    public float getPixFrac() {
+        return mPixFrac;
+    }
+
+    public int getCheckpointInterval() {
+        return mCheckpointInterval;
+    }
+
+    public FloatBuffer getFluxBuffer() {
+        return mFlux;
+    }
+
+    public FloatBuffer getWeightBuffer() {
+        return mWeight;
+    }
+
+    // Integrador que acumula directamente sobre el estado vivo de la sesión.
+    public DrizzleIntegrator createIntegrator(ExecutorService executor) {
+        return new DrizzleIntegrator(mInputWidth, mInputHeight, mScale, mPixFrac, mFlux, mWeight, executor);
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized int getFrameIndex(int position) {
+        return mFrameIndices[position];
+    }
+
+    public synchronized float getQualityScore(int position) {
+        return mQualityScores[position];
+    }
+
+    public synchronized boolean isFrameIntegrated(int frameIndex) {
+        return mIntegrated.get(frameIndex);
+    }
+
+    // --- Frame de referencia ---
+
+    public synchronized void setReferenceStars(List<Star> stars) {
+        int count = Math.min(stars.size(), MAX_REF_STARS);
+        for (int i = 0; i < count; i++) {
+            Star s = stars.get(i);
+            int off = OFF_REF_STARS + i * STAR_BYTES;
+            mHeader.putFloat(off, s.x);
+            mHeader.putFloat(off + 4, s.y);
+            mHeader.putFloat(off + 8, s.flux);
+            mHeader.putFloat(off + 12, s.fwhm);
+        }
+        mHeader.putInt(OFF_REF_STAR_COUNT, count);
+        mHeader.force();
+    }
+
+    public synchronized List<Star> getReferenceStars() {
+        int count = mHeader.getInt(OFF_REF_STAR_COUNT);
+        List<Star> stars = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int off = OFF_REF_STARS + i * STAR_BYTES;
+            stars.add(new Star(mHeader.getFloat(off), mHeader.getFloat(off + 4),
+                mHeader.getFloat(off + 8), mHeader.getFloat(off + 12)));
+        }
+        return stars;
+    }
+
+    // --- Máscaras de trazas ---
+
+    // Guarda las trazas de un frame. Se almacenan los segmentos (20 B por traza) y la máscara
+    // de píxeles se regenera con TrailDetector.rasterize() al integrar o reprocesar.
+    public void writeTrailMask(int frameIndex, List<TrailDetector.Trail> trails) throws IOException {
+        File dir = new File(mDir, MASK_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear " + dir);
+        }
+        File file = maskFile(frameIndex);
+        if (trails.isEmpty()) {
+            file.delete();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(trails.size());
+            for (TrailDetector.Trail t : trails) {
+                out.writeFloat(t.x0);
+                out.writeFloat(t.y0);
+                out.writeFloat(t.x1);
+                out.writeFloat(t.y1);
+                out.writeFloat(t.halfWidth);
+            }
+        }
+    }
+
+    // Trazas guardadas para el frame, o lista vacía si no tiene.
+    public List<TrailDetector.Trail> readTrailMask(int frameIndex) throws IOException {
+        File file = maskFile(frameIndex);
+        List<TrailDetector.Trail> trails = new ArrayList<>();
+        if (!file.isFile()) return trails;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                trails.add(new TrailDetector.Trail(in.readFloat(), in.readFloat(), in.readFloat(),
+                    in.readFloat(), in.readFloat()));
+            }
+        }
+        return trails;
+    }
+
+    private File maskFile(int frameIndex) {
+        return new File(new File(mDir, MASK_DIR), String.format(Locale.US, "frame_%06d.trl", frameIndex));
+    }
+
+    // --- Registro de frames y checkpoints ---
+
+    // Llamar después de integrar el frame en el acumulador vivo.
+    public synchronized void recordFrame(int frameIndex, float qualityScore) throws IOException {
+        if (mFrameCount >= MAX_FRAMES) {
+            throw new IOException("Sesión llena (" + MAX_FRAMES + " frames)");
+        }
+        if (mFrameCount == mFrameIndices.length) {
+            mFrameIndices = Arrays.copyOf(mFrameIndices, mFrameCount * 2);
+            mQualityScores = Arrays.copyOf(mQualityScores, mFrameCount * 2);
+        }
+        mFrameIndices[mFrameCount] = frameIndex;
+        mQualityScores[mFrameCount] = qualityScore;
+        mFrameCount++;
+        mIntegrated.set(frameIndex);
+        mDirty = true;
+
+        if (++mFramesSinceCheckpoint >= mCheckpointInterval) {
+            checkpoint();
+        }
+    }
+
+    public synchronized void checkpoint() throws IOException {
+        if (!mDirty) return;
+        int active = mHeader.getInt(OFF_ACTIVE_SLOT);
+        int target = (active == 0) ? 1 : 0;
+
+        try (RandomAccessFile slotFile = new RandomAccessFile(new File(mDir, SLOT_FILES[target]), "rw")) {
+            FileChannel channel = slotFile.getChannel();
+            long gridBytes = (long) mGridPixels * 4L;
+
+            MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOT_META_BYTES);
+            meta.order(ByteOrder.LITTLE_ENDIAN);
+            meta.putInt(0, mFrameCount);
+            for (int i = 0; i < mFrameCount; i++) {
+                meta.putInt(4096 + i * 8, mFrameIndices[i]);
+                meta.putFloat(4096 + i * 8 + 4, mQualityScores[i]);
+            }
+
+            MappedByteBuffer flux = channel.map(FileChannel.MapMode.READ_WRITE, SLOT_META_BYTES, gridBytes);
+            flux.order(ByteOrder.nativeOrder());
+            flux.asFloatBuffer().put(liveView(mFlux));
+
+            MappedByteBuffer weight = channel.map(FileChannel.MapMode.READ_WRITE, SLOT_META_BYTES + gridBytes, gridBytes);
+            weight.order(ByteOrder.nativeOrder());
+            weight.asFloatBuffer().put(liveView(mWeight));
+
+            meta.force();
+            flux.force();
+            weight.force();
+        }
+
+        // Conmutar sólo cuando el snapshot es durable
+        mHeader.putInt(OFF_ACTIVE_SLOT, target);
+        mHeader.putLong(OFF_SEQUENCE, mHeader.getLong(OFF_SEQUENCE) + 1);
+        mHeader.force();
+
+        mFramesSinceCheckpoint = 0;
+        mDirty = false;
+    }
+
+    private void restoreSlot(int slot) throws IOException {
+        try (RandomAccessFile slotFile = new RandomAccessFile(new File(mDir, SLOT_FILES[slot]), "r")) {
+            FileChannel channel = slotFile.getChannel();
+            long gridBytes = (long) mGridPixels * 4L;
+
+            MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_ONLY, 0, SLOT_META_BYTES);
+            meta.order(ByteOrder.LITTLE_ENDIAN);
+            int count = meta.getInt(0);
+            mFrameIndices = new int[Math.max(64, count)];
+            mQualityScores = new float[Math.max(64, count)];
+            for (int i = 0; i < count; i++) {
+                mFrameIndices[i] = meta.getInt(4096 + i * 8);
+                mQualityScores[i] = meta.getFloat(4096 + i * 8 + 4);
+                mIntegrated.set(mFrameIndices[i]);
+            }
+            mFrameCount = count;
+
+            MappedByteBuffer flux = channel.map(FileChannel.MapMode.READ_ONLY, SLOT_META_BYTES, gridBytes);
+            flux.order(ByteOrder.nativeOrder());
+            liveView(mFlux).put(flux.asFloatBuffer());
+
+            MappedByteBuffer weight = channel.map(FileChannel.MapMode.READ_ONLY, SLOT_META_BYTES + gridBytes, gridBytes);
+            weight.order(ByteOrder.nativeOrder());
+            liveView(mWeight).put(weight.asFloatBuffer());
+        }
+    }
+
+    // Vista con posición propia para copias masivas sin alterar el buffer compartido.
+    private FloatBuffer liveView(FloatBuffer buffer) {
+        FloatBuffer view = buffer.duplicate();
+        view.clear();
+        view.limit(mGridPixels);
+        return view;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            mHeaderFile.close();
+        }
+    }
+}
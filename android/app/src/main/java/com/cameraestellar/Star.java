@@ -0,0 +1,16 @@
+package com.cameraestellar;
+
+// Estrella detectada: centroide en píxeles, flujo integrado y FWHM estimada.
+public final class Star {
+    public final float x;
+    public final float y;
+    public final float flux;
+    public final float fwhm;
+
+    public Star(float x, float y, float flux, float fwhm) {
+        this.x = x;
+        this.y = y;
+        this.flux = flux;
+        this.fwhm = fwhm;
+    }
+}
@@ -0,0 +1,120 @@
+package com.cameraestellar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Detección de estrellas sobre un plano calibrado (luminancia del RAW, w x h, NaN = sin datos).
+//
+// Máximos locales 3x3 por encima de fondo + k*sigma (mediana y MAD sobre una muestra). Para cada
+// uno se mide en una ventana de MOMENT_RADIUS: flujo sobre el fondo, centroide ponderado y FWHM
+// equivalente a una gaussiana con ese flujo y ese pico. Los píxeles calientes (un solo píxel,
+// FWHM casi nula) se descartan. Devuelve las estrellas más brillantes primero.
+public class StarDetector {
+
+    public static final int DEFAULT_MAX_STARS = 200;
+    private static final int MOMENT_RADIUS = 5;
+    private static final int CENTROID_RADIUS = 3;
+    // FWHM mínima (px) para no confundir un píxel caliente con una estrella
+    private static final float MIN_FWHM = 1.0f;
+
+    private final float mSigmaThreshold;
+    private final int mMaxStars;
+
+    public StarDetector() {
+        this(5f, DEFAULT_MAX_STARS);
+    }
+
+    public StarDetector(float sigmaThreshold, int maxStars) {
+        mSigmaThreshold = sigmaThreshold;
+        mMaxStars = maxStars;
+    }
+
+    public List<Star> detect(float[] image, int width, int height) {
+        return detect(image, width, height, estimateBackground(image, width, height));
+    }
+
+    // 'background' = {mediana, sigma} de estimateBackground(), si el llamador ya la calculó.
+    public List<Star> detect(float[] image, int width, int height, float[] background) {
+        List<Star> stars = new ArrayList<>();
+        if (Float.isNaN(background[0])) return stars;
+        float threshold = background[0] + mSigmaThreshold * background[1];
+
+        int r = MOMENT_RADIUS;
+        for (int y = r; y < height - r; y++) {
+            int row = y * width;
+            for (int x = r; x < width - r; x++) {
+                float v = image[row + x];
+                if (!(v > threshold) || !isLocalMax(image, width, row + x, v)) continue;
+                Star star = measure(image, width, x, y, background[0]);
+                if (star != null) stars.add(star);
+            }
+        }
+        Collections.sort(stars, new Comparator<Star>() {
+            @Override
+            public int compare(Star a, Star b) {
+                return Float.compare(b.flux, a.flux);
+            }
+        });
+        return stars.size() > mMaxStars ? new ArrayList<>(stars.subList(0, mMaxStars)) : stars;
+    }
+
+    // Fondo y ruido del plano: {mediana, 1.4826 * MAD} sobre una muestra; NaN si no hay datos.
+    public static float[] estimateBackground(float[] image, int width, int height) {
+        float[] sample = new float[Math.min(width * height, 65536)];
+        int step = Math.max(1, width * height / sample.length);
+        int n = 0;
+        for (int i = 0; i < width * height && n < sample.length; i += step) {
+            if (!Float.isNaN(image[i])) sample[n++] = image[i];
+        }
+        if (n == 0) return new float[] {Float.NaN, Float.NaN};
+        Arrays.sort(sample, 0, n);
+        float median = sample[n / 2];
+        for (int i = 0; i < n; i++) sample[i] = Math.abs(sample[i] - median);
+        Arrays.sort(sample, 0, n);
+        return new float[] {median, Math.max(1e-6f, 1.4826f * sample[n / 2])};
+    }
+
+    // Máximo estricto frente a los vecinos ya recorridos y no estricto frente a los siguientes,
+    // así una meseta de dos píxeles iguales produce un único candidato.
+    private static boolean isLocalMax(float[] image, int width, int i, float v) {
+        return v > image[i - width - 1] && v > image[i - width] && v > image[i - width + 1] && v > image[i - 1]
+            && v >= image[i + 1] && v >= image[i + width - 1] && v >= image[i + width] && v >= image[i + width + 1];
+    }
+
+    private static Star measure(float[] image, int width, int cx, int cy, float background) {
+        int r = MOMENT_RADIUS;
+        double flux = 0;
+        for (int dy = -r; dy <= r; dy++) {
+            int row = (cy + dy) * width;
+            for (int dx = -r; dx <= r; dx++) {
+                float v = image[row + cx + dx];
+                if (Float.isNaN(v)) return null;
+                // Sin recortar negativos: el ruido del fondo se cancela en la suma
+                flux += v - background;
+            }
+        }
+        double peak = image[cy * width + cx] - background;
+        if (flux <= 0 || peak <= 0) return null;
+
+        // Centroide con pesos positivos en el núcleo
+        double sum = 0, sx = 0, sy = 0;
+        for (int dy = -CENTROID_RADIUS; dy <= CENTROID_RADIUS; dy++) {
+            int row = (cy + dy) * width;
+            for (int dx = -CENTROID_RADIUS; dx <= CENTROID_RADIUS; dx++) {
+                double f = image[row + cx + dx] - background;
+                if (f <= 0) continue;
+                sum += f;
+                sx += f * dx;
+                sy += f * dy;
+            }
+        }
+        // Gaussiana: flujo = 2*pi*s^2*pico  ->  FWHM = 2.3548 * s
+        float fwhm = (float) (2.3548 * Math.sqrt(flux / (2 * Math.PI * peak)));
+        if (fwhm < MIN_FWHM) return null;
+        // Coordenadas continuas como las de DrizzleIntegrator: el píxel x cubre [x, x + 1)
+        return new Star((float) (cx + 0.5 + sx / sum), (float) (cy + 0.5 + sy / sum), (float) flux, fwhm);
+    }
+}
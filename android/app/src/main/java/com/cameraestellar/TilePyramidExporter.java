@@ -0,0 +1,330 @@
+package com.cameraestellar;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Exporta el apilado estirado como pirámide de tiles para el visor (pan/zoom) de React Native.
+// El visor abre el nivel 0 (una sola tesela con toda la imagen) y pide más por ruta según hace zoom,
+// así nunca cruza el bridge una imagen completa.
+//
+// Estructura:
+//   pyramid.json        -> tamaño, tileSize, formato y dimensiones de cada nivel (se escribe al final)
+//   {nivel}/{x}_{y}.jpg -> teselas de TILE_SIZE x TILE_SIZE (las del borde pueden ser menores)
+// El nivel 0 cabe en una tesela; el último es la resolución completa.
+//
+// El estirado se hace una vez a 8 bits y cada nivel se obtiene del anterior promediando 2x2 en
+// una sola pasada descendente. Mientras se reduce un nivel, sus teselas se codifican en paralelo.
+public class TilePyramidExporter {
+
+    public static final int TILE_SIZE = 256;
+    public static final String INFO_FILE = "pyramid.json";
+    // Fondo del cielo tras el estirado automático (fracción del rango de salida)
+    private static final float TARGET_BACKGROUND = 0.25f;
+    private static final float SHADOW_CLIP_SIGMA = 2.8f;
+
+    public enum Format {
+        JPEG("jpg"),
+        WEBP("webp");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private final Format mFormat;
+    private final int mQuality;
+    private final ExecutorService mExecutor;
+
+    public TilePyramidExporter(Format format, int quality, ExecutorService executor) {
+        mFormat = format;
+        mQuality = Math.max(1, Math.min(100, quality));
+        mExecutor = executor;
+    }
+
+    public static int levelCount(int width, int height) {
+        int levels = 1;
+        int size = Math.max(width, height);
+        while (size > TILE_SIZE) {
+            size = (size + 1) / 2;
+            levels++;
+        }
+        return levels;
+    }
+
+    public static File tileFile(File dir, int level, int x, int y, Format format) {
+        return new File(new File(dir, Integer.toString(level)), x + "_" + y + "." + format.extension);
+    }
+
+    // Exporta 'image' (un plano, w x h, NaN = sin datos) a 'dir', sustituyendo una pirámide anterior.
+    public void export(float[] image, int width, int height, File dir) throws IOException, InterruptedException {
+        export(image, width, height, dir, null);
+    }
+
+    // Igual, como trabajo del ProcessingScheduler: checkpoint() entre niveles y antes de cada tesela
+    // en los codificadores (pausa, ciclo de trabajo y cancelación), y progreso por tesela.
+    public void export(float[] image, int width, int height, File dir,
+                       @Nullable final ProcessingScheduler.JobContext job) throws IOException, InterruptedException {
+        clear(dir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear " + dir);
+        }
+        int levels = levelCount(width, height);
+        int[] widths = new int[levels];
+        int[] heights = new int[levels];
+        int totalTiles = 0;
+        for (int level = levels - 1, w = width, h = height; level >= 0; level--, w = (w + 1) / 2, h = (h + 1) / 2) {
+            totalTiles += ((w + TILE_SIZE - 1) / TILE_SIZE) * ((h + TILE_SIZE - 1) / TILE_SIZE);
+        }
+        Progress progress = new Progress(job, totalTiles);
+
+        if (job != null) job.checkpoint();
+        byte[] pixels = stretch(image, width * height);
+        int w = width, h = height;
+        for (int level = levels - 1; level >= 0; level--) {
+            widths[level] = w;
+            heights[level] = h;
+            File levelDir = new File(dir, Integer.toString(level));
+            if (!levelDir.isDirectory() && !levelDir.mkdirs()) {
+                throw new IOException("No se pudo crear " + levelDir);
+            }
+            if (job != null) job.checkpoint();
+            List<Future<Void>> pending = submitLevel(pixels, w, h, levelDir, progress);
+            // La reducción del siguiente nivel solapa con la codificación de éste
+            byte[] smaller = null;
+            int nw = (w + 1) / 2, nh = (h + 1) / 2;
+            if (level > 0) smaller = downsample(pixels, w, h, nw, nh);
+            await(pending);
+            if (job != null) job.checkpoint();
+            pixels = smaller;
+            w = nw;
+            h = nh;
+        }
+        writeInfo(dir, width, height, widths, heights);
+    }
+
+    // Codifica las teselas de un nivel: un trabajador por hilo, cada uno con su Bitmap reutilizado.
+    private List<Future<Void>> submitLevel(final byte[] pixels, final int w, final int h, final File levelDir,
+                                           final Progress progress) throws IOException, InterruptedException {
+        final int columns = (w + TILE_SIZE - 1) / TILE_SIZE;
+        final int tileCount = columns * ((h + TILE_SIZE - 1) / TILE_SIZE);
+        final AtomicInteger next = new AtomicInteger();
+        int workers = mExecutor != null ? Math.min(tileCount, Runtime.getRuntime().availableProcessors()) : 1;
+        List<Callable<Void>> tasks = new ArrayList<>(workers);
+        for (int k = 0; k < workers; k++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, InterruptedException {
+                    Bitmap full = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                    int[] argb = new int[TILE_SIZE * TILE_SIZE];
+                    try {
+                        for (int t = next.getAndIncrement(); t < tileCount; t = next.getAndIncrement()) {
+                            progress.checkpoint();
+                            int tx = t % columns;
+                            int ty = t / columns;
+                            encodeTile(pixels, w, h, tx, ty, full, argb, levelDir);
+                            progress.tileDone();
+                        }
+                    } finally {
+                        full.recycle();
+                    }
+                    return null;
+                }
+            });
+        }
+        List<Future<Void>> futures = new ArrayList<>(workers);
+        if (mExecutor == null) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException | InterruptedException | CancellationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Fallo al codificar teselas", e);
+                }
+            }
+        } else {
+            for (Callable<Void> task : tasks) futures.add(mExecutor.submit(task));
+        }
+        return futures;
+    }
+
+    private void encodeTile(byte[] pixels, int w, int h, int tx, int ty, Bitmap full, int[] argb, File levelDir)
+            throws IOException {
+        int x0 = tx * TILE_SIZE;
+        int y0 = ty * TILE_SIZE;
+        int tw = Math.min(TILE_SIZE, w - x0);
+        int th = Math.min(TILE_SIZE, h - y0);
+        for (int y = 0; y < th; y++) {
+            int src = (y0 + y) * w + x0;
+            int dst = y * tw;
+            for (int x = 0; x < tw; x++) {
+                int v = pixels[src + x] & 0xFF;
+                argb[dst + x] = 0xFF000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+        // Las teselas del borde son menores: Bitmap propio del tamaño justo
+        Bitmap bitmap = (tw == TILE_SIZE && th == TILE_SIZE) ? full : Bitmap.createBitmap(tw, th, Bitmap.Config.ARGB_8888);
+        try {
+            bitmap.setPixels(argb, 0, tw, 0, 0, tw, th);
+            File file = new File(levelDir, tx + "_" + ty + "." + mFormat.extension);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                if (!bitmap.compress(compressFormat(), mQuality, out)) {
+                    throw new IOException("No se pudo codificar " + file);
+                }
+            }
+        } finally {
+            if (bitmap != full) bitmap.recycle();
+        }
+    }
+
+    // Teselas codificadas sobre el total de la pirámide, compartido por los codificadores.
+    private static final class Progress {
+        private final ProcessingScheduler.JobContext mJob;
+        private final int mTotal;
+        private final AtomicInteger mDone = new AtomicInteger();
+
+        Progress(@Nullable ProcessingScheduler.JobContext job, int total) {
+            mJob = job;
+            mTotal = Math.max(1, total);
+        }
+
+        void checkpoint() throws InterruptedException {
+            if (mJob != null) mJob.checkpoint();
+        }
+
+        void tileDone() {
+            int done = mDone.incrementAndGet();
+            if (mJob != null) mJob.setProgress((float) done / mTotal);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat compressFormat() {
+        if (mFormat == Format.JPEG) return Bitmap.CompressFormat.JPEG;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static void await(List<Future<Void>> futures) throws IOException, InterruptedException {
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                if (e.getCause() instanceof CancellationException) throw (CancellationException) e.getCause();
+                if (e.getCause() instanceof InterruptedException) throw (InterruptedException) e.getCause();
+                throw new IllegalStateException("Fallo al codificar teselas", e.getCause());
+            }
+        }
+    }
+
+    // Estirado automático a 8 bits: punto negro a mediana - 2.8 sigma (MAD) y función de
+    // transferencia de medios tonos que lleva el fondo a TARGET_BACKGROUND.
+    static byte[] stretch(float[] image, int count) {
+        float[] sample = new float[Math.min(count, 65536)];
+        int step = Math.max(1, count / sample.length);
+        int n = 0;
+        for (int i = 0; i < count && n < sample.length; i += step) {
+            if (!Float.isNaN(image[i])) sample[n++] = image[i];
+        }
+        byte[] out = new byte[count];
+        if (n == 0) return out;
+        Arrays.sort(sample, 0, n);
+        float median = sample[n / 2];
+        float white = sample[Math.min(n - 1, (int) (n * 0.9995f))];
+        for (int i = 0; i < n; i++) sample[i] = Math.abs(sample[i] - median);
+        Arrays.sort(sample, 0, n);
+        float black = Math.max(median - SHADOW_CLIP_SIGMA * 1.4826f * sample[n / 2], 0f);
+        if (black >= median) black = median - 1e-6f;
+        float range = Math.max(white - black, 1e-6f);
+        float midtone = mtf(TARGET_BACKGROUND, (median - black) / range);
+
+        for (int i = 0; i < count; i++) {
+            float v = image[i];
+            if (Float.isNaN(v)) continue;
+            float x = Math.max(0f, Math.min(1f, (v - black) / range));
+            out[i] = (byte) Math.round(255f * mtf(midtone, x));
+        }
+        return out;
+    }
+
+    // Función de transferencia de medios tonos: mtf(m, 0) = 0, mtf(m, m) = 0.5, mtf(m, 1) = 1.
+    private static float mtf(float m, float x) {
+        if (x <= 0f) return 0f;
+        if (x >= 1f) return 1f;
+        return (m - 1f) * x / ((2f * m - 1f) * x - m);
+    }
+
+    private static byte[] downsample(byte[] pixels, int w, int h, int nw, int nh) {
+        byte[] out = new byte[nw * nh];
+        for (int y = 0; y < nh; y++) {
+            int y0 = 2 * y;
+            int y1 = Math.min(h - 1, y0 + 1);
+            for (int x = 0; x < nw; x++) {
+                int x0 = 2 * x;
+                int x1 = Math.min(w - 1, x0 + 1);
+                int sum = (pixels[y0 * w + x0] & 0xFF) + (pixels[y0 * w + x1] & 0xFF)
+                    + (pixels[y1 * w + x0] & 0xFF) + (pixels[y1 * w + x1] & 0xFF);
+                out[y * nw + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+        return out;
+    }
+
+    private void writeInfo(File dir, int width, int height, int[] widths, int[] heights) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.US, "{\"width\":%d,\"height\":%d,\"tileSize\":%d,\"format\":\"%s\",\"levels\":[",
+            width, height, TILE_SIZE, mFormat.extension));
+        for (int level = 0; level < widths.length; level++) {
+            if (level > 0) json.append(',');
+            json.append(String.format(Locale.US, "{\"width\":%d,\"height\":%d,\"columns\":%d,\"rows\":%d}",
+                widths[level], heights[level],
+                (widths[level] + TILE_SIZE - 1) / TILE_SIZE, (heights[level] + TILE_SIZE - 1) / TILE_SIZE));
+        }
+        json.append("]}");
+        File tmp = new File(dir, INFO_FILE + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+        if (!tmp.renameTo(new File(dir, INFO_FILE))) {
+            throw new IOException("No se pudo escribir " + INFO_FILE);
+        }
+    }
+
+    // Borra una pirámide anterior (sólo los ficheros que genera este exportador).
+    private static void clear(File dir) {
+        new File(dir, INFO_FILE).delete();
+        File[] entries = dir.listFiles();
+        if (entries == null) return;
+        for (File entry : entries) {
+            if (!entry.isDirectory() || !entry.getName().matches("\\d+")) continue;
+            File[] tiles = entry.listFiles();
+            if (tiles != null) {
+                for (File tile : tiles) tile.delete();
+            }
+            entry.delete();
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.cameraestellar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Detección de trazas de satélites/aviones por transformada de Hough.
+//
+// 1. Se reduce el frame calibrado (media de bloques DOWNSAMPLE x DOWNSAMPLE).
+// 2. Semillas: píxeles por encima de fondo + k*sigma cuyo entorno brillante es alargado
+//    (las estrellas son manchas compactas y no votan).
+// 3. Hough (theta, rho) en paralelo por tiles: cada trabajador acumula en su propio array
+//    y al final se suman, sin contención.
+// 4. Se extraen los picos, se acota el segmento con las semillas que caen sobre la recta
+//    y se devuelve en coordenadas del frame completo.
+//
+// Con la máscara resultante el apilado por media excluye los píxeles de la traza: rechazo
+// similar al de la mediana con el coste de la media.
+public class TrailDetector {
+
+    public static final int DOWNSAMPLE = 4;
+    private static final int THETA_BINS = 180;
+    private static final int TILE = 128;
+    private static final int MOMENT_RADIUS = 3;
+    // Distancia máxima (px reducidos) de una semilla a la recta y hueco máximo dentro de una traza
+    private static final float LINE_TOLERANCE = 2f;
+    private static final float MAX_GAP = 12f;
+
+    private final float mSigmaThreshold;
+    private final float mMinElongation;
+    private final int mMinVotes;
+    private final int mMaxTrails;
+    private final ExecutorService mExecutor;
+
+    private static final float[] COS = new float[THETA_BINS];
+    private static final float[] SIN = new float[THETA_BINS];
+
+    static {
+        for (int t = 0; t < THETA_BINS; t++) {
+            double theta = Math.PI * t / THETA_BINS;
+            COS[t] = (float) Math.cos(theta);
+            SIN[t] = (float) Math.sin(theta);
+        }
+    }
+
+    // Segmento de traza en coordenadas del frame completo.
+    public static final class Trail {
+        public final float x0, y0, x1, y1;
+        public final float halfWidth;
+
+        public Trail(float x0, float y0, float x1, float y1, float halfWidth) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.halfWidth = halfWidth;
+        }
+    }
+
+    public TrailDetector(ExecutorService executor) {
+        this(3.0f, 3.0f, 24, 8, executor);
+    }
+
+    public TrailDetector(float sigmaThreshold, float minElongation, int minVotes, int maxTrails, ExecutorService executor) {
+        mSigmaThreshold = sigmaThreshold;
+        mMinElongation = minElongation;
+        mMinVotes = minVotes;
+        mMaxTrails = maxTrails;
+        mExecutor = executor;
+    }
+
+    public List<Trail> detect(float[] frame, int width, int height) throws InterruptedException {
+        final int w = width / DOWNSAMPLE;
+        final int h = height / DOWNSAMPLE;
+        if (w < 8 || h < 8) return new ArrayList<>();
+        final float[] small = downsample(frame, width, w, h);
+
+        // Fondo y ruido robustos (mediana y MAD sobre una muestra)
+        float[] sample = new float[Math.min(small.length, 65536)];
+        int step = Math.max(1, small.length / sample.length);
+        int n = 0;
+        for (int i = 0; i < small.length && n < sample.length; i += step) {
+            if (!Float.isNaN(small[i])) sample[n++] = small[i];
+        }
+        if (n == 0) return new ArrayList<>();
+        Arrays.sort(sample, 0, n);
+        float median = sample[n / 2];
+        for (int i = 0; i < n; i++) sample[i] = Math.abs(sample[i] - median);
+        Arrays.sort(sample, 0, n);
+        float sigma = Math.max(1e-6f, 1.4826f * sample[n / 2]);
+        final float threshold = median + mSigmaThreshold * sigma;
+
+        final BitSet bright = new BitSet(w * h);
+        for (int i = 0; i < small.length; i++) {
+            if (small[i] > threshold) bright.set(i);
+        }
+        final BitSet seeds = findSeeds(bright, w, h);
+
+        // Hough por tiles en paralelo, un acumulador por tarea
+        final int rhoMax = (int) Math.ceil(Math.hypot(w, h));
+        final int rhoBins = 2 * rhoMax + 1;
+        int tilesX = (w + TILE - 1) / TILE;
+        int tilesY = (h + TILE - 1) / TILE;
+        final int tileCount = tilesX * tilesY;
+        int workers = mExecutor != null ? Math.min(tileCount, Runtime.getRuntime().availableProcessors()) : 1;
+        final int tilesPerRow = tilesX;
+        List<Callable<int[]>> tasks = new ArrayList<>(workers);
+        for (int k = 0; k < workers; k++) {
+            final int first = k;
+            final int stride = workers;
+            tasks.add(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    int[] acc = new int[THETA_BINS * rhoBins];
+                    for (int tile = first; tile < tileCount; tile += stride) {
+                        int tx0 = (tile % tilesPerRow) * TILE;
+                        int ty0 = (tile / tilesPerRow) * TILE;
+                        vote(seeds, w, tx0, ty0, Math.min(w, tx0 + TILE), Math.min(h, ty0 + TILE), rhoMax, rhoBins, acc);
+                    }
+                    return acc;
+                }
+            });
+        }
+        int[] acc = null;
+        for (int[] partial : runAll(tasks)) {
+            if (acc == null) {
+                acc = partial;
+            } else {
+                for (int i = 0; i < acc.length; i++) acc[i] += partial[i];
+            }
+        }
+
+        // Hough progresiva: tras aceptar una traza se retiran sus semillas del acumulador,
+        // así el mismo trazo ancho no genera picos duplicados a ángulos vecinos.
+        List<Trail> trails = new ArrayList<>();
+        int attempts = 0;
+        while (trails.size() < mMaxTrails && attempts++ < 4 * mMaxTrails) {
+            int best = findPeak(acc);
+            if (best < 0) break;
+            Trail trail = extractSegment(seeds, w, best / rhoBins, best % rhoBins - rhoMax, rhoMax, rhoBins, acc);
+            if (trail != null) {
+                trails.add(trail);
+            } else {
+                acc[best] = 0;
+            }
+        }
+        return trails;
+    }
+
+    private static float[] downsample(float[] frame, int width, int w, int h) {
+        float[] small = new float[w * h];
+        float norm = 1f / (DOWNSAMPLE * DOWNSAMPLE);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                float sum = 0f;
+                for (int dy = 0; dy < DOWNSAMPLE; dy++) {
+                    int row = (y * DOWNSAMPLE + dy) * width + x * DOWNSAMPLE;
+                    for (int dx = 0; dx < DOWNSAMPLE; dx++) sum += frame[row + dx];
+                }
+                small[y * w + x] = sum * norm;
+            }
+        }
+        return small;
+    }
+
+    // Semilla = píxel brillante cuyo vecindario brillante tiene momentos de segundo orden alargados.
+    private BitSet findSeeds(BitSet bright, int w, int h) {
+        BitSet seeds = new BitSet(w * h);
+        int r = MOMENT_RADIUS;
+        for (int i = bright.nextSetBit(0); i >= 0; i = bright.nextSetBit(i + 1)) {
+            int cx = i % w;
+            int cy = i / w;
+            int count = 0;
+            double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+            for (int y = Math.max(0, cy - r); y <= Math.min(h - 1, cy + r); y++) {
+                for (int x = Math.max(0, cx - r); x <= Math.min(w - 1, cx + r); x++) {
+                    if (!bright.get(y * w + x)) continue;
+                    int dx = x - cx, dy = y - cy;
+                    count++;
+                    sx += dx;
+                    sy += dy;
+                    sxx += dx * dx;
+                    syy += dy * dy;
+                    sxy += dx * dy;
+                }
+            }
+            if (count < 4) continue;
+            double mx = sx / count, my = sy / count;
+            double cxx = sxx / count - mx * mx;
+            double cyy = syy / count - my * my;
+            double cxy = sxy / count - mx * my;
+            double tr = cxx + cyy;
+            double disc = Math.sqrt(Math.max(0, (cxx - cyy) * (cxx - cyy) / 4 + cxy * cxy));
+            double l1 = tr / 2 + disc;
+            double l2 = tr / 2 - disc;
+            if (l1 >= mMinElongation * mMinElongation * Math.max(l2, 0.05)) {
+                seeds.set(i);
+            }
+        }
+        return seeds;
+    }
+
+    private static void vote(BitSet seeds, int w, int x0, int y0, int x1, int y1, int rhoMax, int rhoBins, int[] acc) {
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            for (int i = seeds.nextSetBit(row + x0); i >= 0 && i < row + x1; i = seeds.nextSetBit(i + 1)) {
+                int x = i - row;
+                for (int t = 0; t < THETA_BINS; t++) {
+                    int rho = Math.round(x * COS[t] + y * SIN[t]) + rhoMax;
+                    acc[t * rhoBins + rho]++;
+                }
+            }
+        }
+    }
+
+    private int findPeak(int[] acc) {
+        int best = -1;
+        int bestVotes = mMinVotes - 1;
+        for (int i = 0; i < acc.length; i++) {
+            if (acc[i] > bestVotes) {
+                bestVotes = acc[i];
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Acota el segmento con las semillas cercanas a la recta del pico. Como theta está cuantizado a
+    // 1 grado, la recta se reajusta (ejes principales del tramo) y se vuelven a recoger las semillas.
+    // Se queda el tramo continuo más largo (huecos > MAX_GAP lo cortan). Las semillas usadas se
+    // retiran de 'seeds' y sus votos de 'acc'.
+    private Trail extractSegment(BitSet seeds, int w, int thetaBin, int rho, int rhoMax, int rhoBins, int[] acc) {
+        float c = COS[thetaBin];
+        float s = SIN[thetaBin];
+        float r = rho;
+        List<float[]> run = null;
+        for (int pass = 0; pass < 2; pass++) {
+            run = longestRun(collectNear(seeds, w, c, s, r));
+            if (run == null) return null;
+            // Ajuste por momentos: dirección principal de las semillas del tramo
+            double mx = 0, my = 0;
+            for (float[] p : run) {
+                mx += p[1];
+                my += p[2];
+            }
+            mx /= run.size();
+            my /= run.size();
+            double sxx = 0, syy = 0, sxy = 0;
+            for (float[] p : run) {
+                double dx = p[1] - mx, dy = p[2] - my;
+                sxx += dx * dx;
+                syy += dy * dy;
+                sxy += dx * dy;
+            }
+            double angle = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+            // Normal a la dirección principal
+            c = (float) -Math.sin(angle);
+            s = (float) Math.cos(angle);
+            r = (float) (mx * c + my * s);
+        }
+
+        float tMin = run.get(0)[0];
+        float tMax = run.get(run.size() - 1)[0];
+        for (float[] p : run) {
+            int x = (int) p[1];
+            int y = (int) p[2];
+            seeds.clear(y * w + x);
+            for (int t = 0; t < THETA_BINS; t++) {
+                acc[t * rhoBins + Math.round(x * COS[t] + y * SIN[t]) + rhoMax]--;
+            }
+        }
+        float px = r * c, py = r * s;
+        float margin = 2f;
+        float d = DOWNSAMPLE;
+        return new Trail(
+            (px - (tMin - margin) * s) * d + d / 2, (py + (tMin - margin) * c) * d + d / 2,
+            (px - (tMax + margin) * s) * d + d / 2, (py + (tMax + margin) * c) * d + d / 2,
+            (LINE_TOLERANCE + 1f) * d);
+    }
+
+    // Semillas a <= LINE_TOLERANCE de la recta x*c + y*s = r como {t, x, y}, t a lo largo de (-s, c).
+    private static List<float[]> collectNear(BitSet seeds, int w, float c, float s, float r) {
+        List<float[]> near = new ArrayList<>();
+        for (int i = seeds.nextSetBit(0); i >= 0; i = seeds.nextSetBit(i + 1)) {
+            int x = i % w;
+            int y = i / w;
+            if (Math.abs(x * c + y * s - r) > LINE_TOLERANCE) continue;
+            near.add(new float[] {-x * s + y * c, x, y});
+        }
+        near.sort((p, q) -> Float.compare(p[0], q[0]));
+        return near;
+    }
+
+    private List<float[]> longestRun(List<float[]> near) {
+        int runStart = 0, bestStart = 0, bestEnd = 0;
+        for (int k = 1; k <= near.size(); k++) {
+            if (k == near.size() || near.get(k)[0] - near.get(k - 1)[0] > MAX_GAP) {
+                if (k - runStart > bestEnd - bestStart) {
+                    bestStart = runStart;
+                    bestEnd = k;
+                }
+                runStart = k;
+            }
+        }
+        return bestEnd - bestStart < mMinVotes ? null : near.subList(bestStart, bestEnd);
+    }
+
+    // Dibuja las trazas en una máscara de píxeles (índice y*width + x) del frame completo.
+    // Recorre el eje principal del segmento y marca una banda de +-halfWidth en perpendicular.
+    public static void rasterize(List<Trail> trails, int width, int height, BitSet mask) {
+        for (Trail trail : trails) {
+            float dx = trail.x1 - trail.x0;
+            float dy = trail.y1 - trail.y0;
+            boolean alongX = Math.abs(dx) >= Math.abs(dy);
+            float len = (float) Math.hypot(dx, dy);
+            if (len == 0f) continue;
+            // Semiancho de la banda medido sobre el eje secundario
+            float band = trail.halfWidth * len / Math.max(Math.abs(alongX ? dx : dy), 1e-3f);
+            float from = alongX ? Math.min(trail.x0, trail.x1) : Math.min(trail.y0, trail.y1);
+            float to = alongX ? Math.max(trail.x0, trail.x1) : Math.max(trail.y0, trail.y1);
+            int limit = alongX ? width : height;
+            int other = alongX ? height : width;
+            float slope = alongX ? dy / dx : dx / dy;
+            float origin = alongX ? trail.x0 : trail.y0;
+            float base = alongX ? trail.y0 : trail.x0;
+            for (int a = Math.max(0, (int) Math.floor(from)); a <= Math.min(limit - 1, (int) Math.ceil(to)); a++) {
+                float center = base + (a - origin) * slope;
+                int b0 = Math.max(0, (int) Math.floor(center - band));
+                int b1 = Math.min(other - 1, (int) Math.ceil(center + band));
+                for (int b = b0; b <= b1; b++) {
+                    mask.set(alongX ? b * width + a : a * width + b);
+                }
+            }
+        }
+    }
+
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws InterruptedException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (mExecutor == null) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw new IllegalStateException("Fallo en la transformada de Hough", e);
+                }
+            }
+            return results;
+        }
+        for (Future<T> future : mExecutor.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Fallo en la transformada de Hough", e.getCause());
+            }
+        }
+        return results;
+    }
+}
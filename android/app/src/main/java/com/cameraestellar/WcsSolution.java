@@ -0,0 +1,92 @@
+package com.cameraestellar;
+
+// Solución astrométrica WCS con proyección gnomónica (TAN), como CTYPE 'RA---TAN'/'DEC--TAN'.
+//   (xi, eta) = CD * (pixel - crpix)      coordenadas estándar en grados
+//   (ra, dec) = TAN^-1(xi, eta) alrededor de crval
+// A diferencia de FITS, crpix está en coordenadas de píxel 0-based (las mismas que Star).
+public final class WcsSolution {
+    public final double crval1, crval2;
+    public final double crpix1, crpix2;
+    public final double cd11, cd12, cd21, cd22;
+    // Estrellas del catálogo emparejadas al verificar la solución
+    public final int matchedStars;
+
+    public WcsSolution(double crval1, double crval2, double crpix1, double crpix2,
+                       double cd11, double cd12, double cd21, double cd22, int matchedStars) {
+        this.crval1 = crval1;
+        this.crval2 = crval2;
+        this.crpix1 = crpix1;
+        this.crpix2 = crpix2;
+        this.cd11 = cd11;
+        this.cd12 = cd12;
+        this.cd21 = cd21;
+        this.cd22 = cd22;
+        this.matchedStars = matchedStars;
+    }
+
+    // Escala media en segundos de arco por píxel.
+    public double getPixelScaleArcsec() {
+        return Math.sqrt(Math.abs(cd11 * cd22 - cd12 * cd21)) * 3600.0;
+    }
+
+    // Ángulo de posición del borde superior de la imagen (norte hacia el este), en grados.
+    public double getRotationDeg() {
+        return Math.toDegrees(Math.atan2(-cd12, -cd22));
+    }
+
+    // Con y hacia abajo, una foto normal del cielo (norte arriba, este a la izquierda) tiene
+    // determinante positivo; negativo indica imagen especular (diagonal, espejo...).
+    public boolean isMirrored() {
+        return cd11 * cd22 - cd12 * cd21 < 0;
+    }
+
+    // {ra, dec} en grados del píxel (x, y).
+    public double[] pixelToSky(double x, double y) {
+        double dx = x - crpix1, dy = y - crpix2;
+        double[] sky = new double[2];
+        deproject(cd11 * dx + cd12 * dy, cd21 * dx + cd22 * dy, crval1, crval2, sky);
+        return sky;
+    }
+
+    // {x, y} del punto (ra, dec), o null si cae en el hemisferio opuesto al centro.
+    public double[] skyToPixel(double ra, double dec) {
+        double[] std = new double[2];
+        if (!project(ra, dec, crval1, crval2, std)) return null;
+        double det = cd11 * cd22 - cd12 * cd21;
+        return new double[] {
+            crpix1 + (cd22 * std[0] - cd12 * std[1]) / det,
+            crpix2 + (-cd21 * std[0] + cd11 * std[1]) / det
+        };
+    }
+
+    // Proyección gnomónica de (ra, dec) sobre el plano tangente en (ra0, dec0). Todo en grados.
+    static boolean project(double ra, double dec, double ra0, double dec0, double[] out) {
+        double a = Math.toRadians(ra - ra0);
+        double d = Math.toRadians(dec);
+        double d0 = Math.toRadians(dec0);
+        double cosC = Math.sin(d0) * Math.sin(d) + Math.cos(d0) * Math.cos(d) * Math.cos(a);
+        if (cosC <= 1e-6) return false;
+        out[0] = Math.toDegrees(Math.cos(d) * Math.sin(a) / cosC);
+        out[1] = Math.toDegrees((Math.cos(d0) * Math.sin(d) - Math.sin(d0) * Math.cos(d) * Math.cos(a)) / cosC);
+        return true;
+    }
+
+    static void deproject(double xi, double eta, double ra0, double dec0, double[] out) {
+        double x = Math.toRadians(xi);
+        double y = Math.toRadians(eta);
+        double d0 = Math.toRadians(dec0);
+        double denom = Math.cos(d0) - y * Math.sin(d0);
+        double ra = ra0 + Math.toDegrees(Math.atan2(x, denom));
+        out[0] = ((ra % 360.0) + 360.0) % 360.0;
+        out[1] = Math.toDegrees(Math.atan2(Math.sin(d0) + y * Math.cos(d0), Math.hypot(x, denom)));
+    }
+
+    // Separación angular en grados.
+    static double separation(double ra1, double dec1, double ra2, double dec2) {
+        double d1 = Math.toRadians(dec1), d2 = Math.toRadians(dec2);
+        double dra = Math.toRadians(ra2 - ra1);
+        double s = Math.sin((d2 - d1) / 2), t = Math.sin(dra / 2);
+        double h = s * s + Math.cos(d1) * Math.cos(d2) * t * t;
+        return Math.toDegrees(2 * Math.asin(Math.min(1, Math.sqrt(h))));
+    }
+}
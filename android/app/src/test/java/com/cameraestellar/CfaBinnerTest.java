@@ -0,0 +1,198 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+// CfaBinner: suma y media CFA 2x2 / 3x3 conservando la fase Bayer, superpíxel, geometría de
+// salida y niveles de blanco/negro.
+public class CfaBinnerTest {
+
+    // Valor de cada color del mosaico RGGB: R, Gr / Gb, B
+    private static final int R = 10, GR = 20, GB = 30, B = 40;
+
+    private static ByteBuffer bayer(int width, int height, int rowStride) {
+        ByteBuffer data = ByteBuffer.allocate(rowStride * height).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = (y & 1) == 0 ? ((x & 1) == 0 ? R : GR) : ((x & 1) == 0 ? GB : B);
+                data.putShort(y * rowStride + 2 * x, (short) v);
+            }
+        }
+        return data;
+    }
+
+    private static ByteBuffer output(CfaBinner binner, int width, int height) {
+        int bytes = binner.outputWidth(width) * binner.outputHeight(height) * 2;
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int px(ByteBuffer out, int outW, int x, int y) {
+        return out.getShort((y * outW + x) * 2) & 0xFFFF;
+    }
+
+    // Cada píxel de salida tiene el color de su posición en el patrón: R Gr / Gb B
+    private static void assertBayer(ByteBuffer out, int outW, int outH, int scale) {
+        for (int y = 0; y < outH; y++) {
+            for (int x = 0; x < outW; x++) {
+                int expected = (y & 1) == 0 ? ((x & 1) == 0 ? R : GR) : ((x & 1) == 0 ? GB : B);
+                assertEquals("píxel " + x + "," + y, expected * scale, px(out, outW, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void cfaSumAndAverage2x2KeepBayerPhase() throws Exception {
+        int width = 16, height = 12, stride = width * 2 + 8;
+        ByteBuffer src = bayer(width, height, stride);
+
+        CfaBinner sum = new CfaBinner(2, CfaBinner.Layout.CFA, false);
+        assertEquals(8, sum.outputWidth(width));
+        assertEquals(6, sum.outputHeight(height));
+        ByteBuffer out = output(sum, width, height);
+        assertEquals(8 * 6 * 2, sum.bin(src, stride, width, height, out, null));
+        assertBayer(out, 8, 6, 4);
+
+        CfaBinner average = new CfaBinner(2, CfaBinner.Layout.CFA, true);
+        out = output(average, width, height);
+        average.bin(src, stride, width, height, out, null);
+        assertBayer(out, 8, 6, 1);
+    }
+
+    @Test
+    public void cfaSumAndAverage3x3KeepBayerPhase() throws Exception {
+        // 13 x 14: lo que no completa un bloque 6x6 se descarta
+        int width = 13, height = 14, stride = width * 2 + 2;
+        ByteBuffer src = bayer(width, height, stride);
+
+        CfaBinner sum = new CfaBinner(3, CfaBinner.Layout.CFA, false);
+        assertEquals(4, sum.outputWidth(width));
+        assertEquals(4, sum.outputHeight(height));
+        ByteBuffer out = output(sum, width, height);
+        sum.bin(src, stride, width, height, out, null);
+        assertBayer(out, 4, 4, 9);
+
+        CfaBinner average = new CfaBinner(3, CfaBinner.Layout.CFA, true);
+        out = output(average, width, height);
+        average.bin(src, stride, width, height, out, null);
+        assertBayer(out, 4, 4, 1);
+    }
+
+    // Un único fotosito caliente sólo afecta a la celda de su color y su bloque.
+    @Test
+    public void cfaGroupsOnlySameColorPhotosites() throws Exception {
+        int width = 12, height = 12, stride = width * 2;
+        ByteBuffer src = ByteBuffer.allocate(stride * height).order(ByteOrder.LITTLE_ENDIAN);
+        // (9, 7): columna impar, fila impar -> B; bloque 6x6 (1, 1) en 3x3
+        src.putShort(7 * stride + 2 * 9, (short) 900);
+        CfaBinner binner = new CfaBinner(3, CfaBinner.Layout.CFA, false);
+        ByteBuffer out = output(binner, width, height);
+        binner.bin(src, stride, width, height, out, null);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertEquals("píxel " + x + "," + y, x == 3 && y == 3 ? 900 : 0, px(out, 4, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void superpixelSumsEachBayerQuad() throws Exception {
+        int width = 10, height = 6, stride = width * 2 + 4;
+        ByteBuffer src = bayer(width, height, stride);
+
+        CfaBinner sum = new CfaBinner(2, CfaBinner.Layout.SUPERPIXEL, false);
+        assertEquals(5, sum.outputWidth(width));
+        assertEquals(3, sum.outputHeight(height));
+        ByteBuffer out = output(sum, width, height);
+        sum.bin(src, stride, width, height, out, null);
+        for (int i = 0; i < 5 * 3; i++) assertEquals(R + GR + GB + B, out.getShort(2 * i) & 0xFFFF);
+
+        CfaBinner average = new CfaBinner(2, CfaBinner.Layout.SUPERPIXEL, true);
+        out = output(average, width, height);
+        average.bin(src, stride, width, height, out, null);
+        for (int i = 0; i < 5 * 3; i++) assertEquals((R + GR + GB + B + 2) / 4, out.getShort(2 * i) & 0xFFFF);
+    }
+
+    @Test
+    public void sumSaturatesAt16Bits() throws Exception {
+        int width = 4, height = 4, stride = width * 2;
+        ByteBuffer src = ByteBuffer.allocate(stride * height).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < width * height; i++) src.putShort(2 * i, (short) 20000);
+        CfaBinner binner = new CfaBinner(2, CfaBinner.Layout.CFA, false);
+        ByteBuffer out = output(binner, width, height);
+        binner.bin(src, stride, width, height, out, null);
+        for (int i = 0; i < 4; i++) assertEquals(65535, out.getShort(2 * i) & 0xFFFF);
+    }
+
+    @Test
+    public void whiteAndBlackLevelsFollowTheMode() {
+        CfaBinner sum2 = new CfaBinner(2, CfaBinner.Layout.CFA, false);
+        assertEquals(4092, sum2.outputWhiteLevel(1023));
+        assertEquals(256, sum2.outputBlackLevel(64));
+
+        CfaBinner sum3 = new CfaBinner(3, CfaBinner.Layout.CFA, false);
+        assertEquals(9207, sum3.outputWhiteLevel(1023));
+        assertEquals(576, sum3.outputBlackLevel(64));
+        assertEquals(65535, sum3.outputWhiteLevel(16383));
+
+        CfaBinner superpixel = new CfaBinner(2, CfaBinner.Layout.SUPERPIXEL, false);
+        assertEquals(4092, superpixel.outputWhiteLevel(1023));
+        assertEquals(256, superpixel.outputBlackLevel(64));
+
+        CfaBinner average = new CfaBinner(3, CfaBinner.Layout.CFA, true);
+        assertEquals(1023, average.outputWhiteLevel(1023));
+        assertEquals(64, average.outputBlackLevel(64));
+    }
+
+    // Varias bandas en paralelo dan lo mismo que en serie.
+    @Test
+    public void executorMatchesSerial() throws Exception {
+        int width = 400, height = 820, stride = width * 2 + 16;
+        ByteBuffer src = ByteBuffer.allocate(stride * height).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(7);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) src.putShort(y * stride + 2 * x, (short) random.nextInt(4096));
+        }
+        CfaBinner binner = new CfaBinner(3, CfaBinner.Layout.CFA, true);
+        ByteBuffer serial = output(binner, width, height);
+        ByteBuffer parallel = output(binner, width, height);
+        binner.bin(src, stride, width, height, serial, null);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            binner.bin(src, stride, width, height, parallel, executor);
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < serial.capacity(); i += 2) assertEquals(serial.getShort(i), parallel.getShort(i));
+    }
+
+    @Test
+    public void rejectsUnsupportedConfigurationsAndSmallOutput() throws Exception {
+        try {
+            new CfaBinner(4, CfaBinner.Layout.CFA, false);
+            fail("factor 4");
+        } catch (IllegalArgumentException expected) {
+            // Sólo 2x2 y 3x3
+        }
+        try {
+            new CfaBinner(3, CfaBinner.Layout.SUPERPIXEL, false);
+            fail("superpíxel 3x3");
+        } catch (IllegalArgumentException expected) {
+            // El superpíxel es un cuadro Bayer 2x2
+        }
+        CfaBinner binner = new CfaBinner(2, CfaBinner.Layout.CFA, false);
+        try {
+            binner.bin(bayer(8, 8, 16), 16, 8, 8, ByteBuffer.allocate(8), null);
+            fail("salida pequeña");
+        } catch (IllegalArgumentException expected) {
+            // 4 x 4 x 2 bytes no caben en 8
+        }
+    }
+}
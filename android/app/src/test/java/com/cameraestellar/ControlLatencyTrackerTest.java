@@ -0,0 +1,77 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+// ControlLatencyTracker frente a un HAL simulado con 3 frames de tubería a 30 fps y una lente que
+// tarda varios frames en llegar al foco pedido.
+public class ControlLatencyTrackerTest {
+
+    private static final long FRAME_NS = 33_333_333L;
+    private static final int PIPELINE_DEPTH = 3;
+
+    // ISO/exposición: el resultado coincide al salir de la tubería, con el redondeo del HAL.
+    @Test
+    public void exposureMatchesAfterPipeline() {
+        ControlLatencyTracker tracker = new ControlLatencyTracker();
+        tracker.onRequested(1600, 50_000_000L, Float.NaN, 0);
+        long latency = -1;
+        for (int frame = 1; frame <= 10 && latency < 0; frame++) {
+            boolean applied = frame >= PIPELINE_DEPTH;
+            latency = tracker.onResult(applied ? 1600 : 800, applied ? 49_980_000L : 20_000_000L, 0f, 0,
+                frame * FRAME_NS);
+        }
+        assertEquals(PIPELINE_DEPTH, tracker.getLastFrames());
+        assertEquals(PIPELINE_DEPTH * FRAME_NS, latency);
+        assertFalse(tracker.isPending());
+        assertEquals("sin pendiente no hay muestra", -1, tracker.onResult(1600, 50_000_000L, 0f, 0, 20 * FRAME_NS));
+    }
+
+    // Foco: aunque el valor ya coincida, no cuenta mientras la lente se mueve.
+    @Test
+    public void focusWaitsForLensToStop() {
+        ControlLatencyTracker tracker = new ControlLatencyTracker();
+        tracker.onRequested(800, 0, 2.0f, 0);
+        float focus = 0f;
+        long latency = -1;
+        int frame = 0;
+        while (latency < 0 && frame < 30) {
+            frame++;
+            boolean moving = frame >= PIPELINE_DEPTH && focus < 2.0f;
+            if (moving) focus = Math.min(2.0f, focus + 0.5f);
+            latency = tracker.onResult(800, 20_000_000L, focus, moving ? ControlLatencyTracker.LENS_STATE_MOVING : 0,
+                frame * FRAME_NS);
+        }
+        // Llega a 2.0 en el frame 6 todavía moviéndose; parada en el 7
+        assertEquals(PIPELINE_DEPTH + 4, tracker.getLastFrames());
+    }
+
+    // Un cambio nuevo antes de verse el anterior reinicia el reloj con el nuevo objetivo.
+    @Test
+    public void newRequestSupersedesPending() {
+        ControlLatencyTracker tracker = new ControlLatencyTracker();
+        tracker.onRequested(400, 0, Float.NaN, 0);
+        tracker.onResult(200, 0, 0f, 0, FRAME_NS);
+        tracker.onRequested(3200, 0, Float.NaN, 2 * FRAME_NS);
+        assertEquals("el objetivo antiguo ya no cuenta", -1, tracker.onResult(400, 0, 0f, 0, 3 * FRAME_NS));
+        long latency = tracker.onResult(3200, 0, 0f, 0, 5 * FRAME_NS);
+        assertEquals("latencia medida desde el último cambio", 3 * FRAME_NS, latency);
+        assertEquals(1, tracker.getSampleCount());
+        assertEquals(latency, tracker.getMedianNs());
+    }
+
+    @Test
+    public void unmatchedRequestGivesUp() {
+        ControlLatencyTracker tracker = new ControlLatencyTracker();
+        tracker.onRequested(12800, 0, Float.NaN, 0);
+        for (int frame = 1; frame <= ControlLatencyTracker.MAX_FRAMES; frame++) {
+            // El HAL limita el ISO a 6400
+            tracker.onResult(6400, 0, 0f, 0, frame * FRAME_NS);
+        }
+        assertFalse(tracker.isPending());
+        assertEquals(1, tracker.getUnmatchedCount());
+        assertEquals(0, tracker.getSampleCount());
+    }
+}
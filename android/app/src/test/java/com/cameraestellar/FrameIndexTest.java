@@ -0,0 +1,134 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// FrameIndex: ida y vuelta Writer -> Reader, métricas en sitio, recuento y registro truncado.
+public class FrameIndexTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "frameindex_" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        File[] children = mDir.listFiles();
+        if (children != null) for (File child : children) child.delete();
+        mDir.delete();
+    }
+
+    private static FrameIndex.Record record(int i) {
+        FrameIndex.Record r = new FrameIndex.Record();
+        r.timestampNs = 1_000_000_000L * i + 7;
+        r.exposureNs = 30_000_000_000L + i;
+        r.frameDurationNs = 30_100_000_000L + i;
+        r.iso = 800 + 100 * i;
+        r.focusDistance = 0.25f * i;
+        r.cameraId = "0";
+        r.uri = "content://media/external/images/" + i + "/ñ";
+        r.flags = i;
+        return r;
+    }
+
+    @Test
+    public void appendAndReopenRoundTrip() throws IOException {
+        try (FrameIndex.Writer writer = new FrameIndex.Writer(mDir)) {
+            for (int i = 0; i < 3; i++) assertEquals(i, writer.append(record(i)));
+        }
+        // Reabrir para seguir añadiendo continúa tras el último registro
+        try (FrameIndex.Writer writer = new FrameIndex.Writer(mDir)) {
+            assertEquals(3, writer.getCount());
+            assertEquals(3, writer.append(record(3)));
+        }
+        assertEquals(4, FrameIndex.countRecords(mDir));
+        try (FrameIndex.Reader reader = new FrameIndex.Reader(mDir)) {
+            assertEquals(4, reader.getCount());
+            for (int i = 0; i < 4; i++) {
+                FrameIndex.Record r = record(i);
+                assertEquals(r.timestampNs, reader.getTimestampNs(i));
+                assertEquals(r.exposureNs, reader.getExposureNs(i));
+                assertEquals(r.frameDurationNs, reader.getFrameDurationNs(i));
+                assertEquals(r.iso, reader.getIso(i));
+                assertEquals(r.focusDistance, reader.getFocusDistance(i), 0f);
+                assertEquals(r.cameraId, reader.getCameraId(i));
+                assertEquals(r.uri, reader.getUri(i));
+                assertEquals(r.flags, reader.getFlags(i));
+                // Sin métricas todavía
+                assertTrue(Float.isNaN(reader.getQuality(i)));
+                assertEquals(-1, reader.getStarCount(i));
+            }
+        }
+    }
+
+    @Test
+    public void updateQualityRewritesOnlyMetrics() throws IOException {
+        try (FrameIndex.Writer writer = new FrameIndex.Writer(mDir)) {
+            writer.append(record(0));
+            writer.append(record(1));
+            writer.updateQuality(1, 2.5f, 210f, 0.8f, 42);
+        }
+        try (FrameIndex.Reader reader = new FrameIndex.Reader(mDir)) {
+            assertEquals(2.5f, reader.getFwhm(1), 0f);
+            assertEquals(210f, reader.getBackground(1), 0f);
+            assertEquals(0.8f, reader.getQuality(1), 0f);
+            assertEquals(42, reader.getStarCount(1));
+            assertEquals(record(1).uri, reader.getUri(1));
+            assertEquals(record(1).iso, reader.getIso(1));
+            assertTrue(Float.isNaN(reader.getFwhm(0)));
+        }
+    }
+
+    @Test
+    public void updateQualityRejectsMissingRecord() throws IOException {
+        try (FrameIndex.Writer writer = new FrameIndex.Writer(mDir)) {
+            writer.append(record(0));
+            try {
+                writer.updateQuality(1, 1f, 1f, 1f, 1);
+                fail("posición fuera del índice");
+            } catch (IndexOutOfBoundsException expected) {
+                // Un registro que no existe no se crea al actualizar métricas
+            }
+            assertEquals(1, writer.getCount());
+        }
+    }
+
+    // Crash a mitad de un append: el registro incompleto no cuenta y el siguiente lo sustituye.
+    @Test
+    public void truncatedLastRecordIsIgnored() throws IOException {
+        try (FrameIndex.Writer writer = new FrameIndex.Writer(mDir)) {
+            writer.append(record(0));
+            writer.append(record(1));
+        }
+        File index = new File(mDir, FrameIndex.INDEX_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(file.length() - FrameIndex.RECORD_BYTES / 2);
+        }
+        assertEquals(1, FrameIndex.countRecords(mDir));
+        try (FrameIndex.Reader reader = new FrameIndex.Reader(mDir)) {
+            assertEquals(1, reader.getCount());
+            assertEquals(record(0).uri, reader.getUri(0));
+        }
+        try (FrameIndex.Writer writer = new FrameIndex.Writer(mDir)) {
+            assertEquals(1, writer.getCount());
+            assertEquals(1, writer.append(record(2)));
+        }
+        try (FrameIndex.Reader reader = new FrameIndex.Reader(mDir)) {
+            assertEquals(2, reader.getCount());
+            assertEquals(record(2).timestampNs, reader.getTimestampNs(1));
+            assertEquals(record(2).uri, reader.getUri(1));
+        }
+        assertEquals(0, FrameIndex.countRecords(new File(mDir, "inexistente")));
+    }
+}
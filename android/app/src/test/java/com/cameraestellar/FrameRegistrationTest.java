@@ -0,0 +1,96 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+// FrameRegistration frente a rotaciones de campo y derivas conocidas, con estrellas que entran y
+// salen del encuadre.
+public class FrameRegistrationTest {
+
+    private static final int W = 640;
+    private static final int H = 480;
+
+    private static List<Star> randomField(int count, long seed) {
+        Random random = new Random(seed);
+        List<Star> stars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stars.add(new Star(random.nextFloat() * W, random.nextFloat() * H, 100f + random.nextFloat() * 5000f, 3f));
+        }
+        return stars;
+    }
+
+    // Las estrellas de la referencia vistas en un frame con transformación frame -> referencia 't'.
+    private static List<Star> observe(List<Star> reference, FrameTransform t, float jitter, long seed) {
+        FrameTransform inverse = t.inverse();
+        Random random = new Random(seed);
+        List<Star> stars = new ArrayList<>();
+        for (Star s : reference) {
+            float x = (float) (inverse.mapX(s.x, s.y) + jitter * random.nextGaussian());
+            float y = (float) (inverse.mapY(s.x, s.y) + jitter * random.nextGaussian());
+            if (x < 0 || y < 0 || x >= W || y >= H) continue;
+            stars.add(new Star(x, y, s.flux, s.fwhm));
+        }
+        return stars;
+    }
+
+    private static void assertTransform(FrameTransform expected, FrameTransform actual) {
+        assertNotNull(actual);
+        // Error de posición en las esquinas del encuadre
+        double[][] corners = {{0, 0}, {W, 0}, {0, H}, {W, H}};
+        for (double[] p : corners) {
+            assertEquals(expected.mapX(p[0], p[1]), actual.mapX(p[0], p[1]), 0.2);
+            assertEquals(expected.mapY(p[0], p[1]), actual.mapY(p[0], p[1]), 0.2);
+        }
+    }
+
+    @Test
+    public void recoversRotationAndDrift() {
+        List<Star> reference = randomField(80, 1);
+        FrameTransform truth = FrameTransform.rigid(Math.toRadians(1.5), 12.3, -7.8);
+        List<Star> frame = observe(reference, truth, 0.05f, 2);
+        // Estrellas nuevas que no están en la referencia
+        frame.addAll(randomField(10, 3));
+        assertTransform(truth, FrameRegistration.register(reference, frame, 2f));
+    }
+
+    @Test
+    public void identityForSameField() {
+        List<Star> reference = randomField(40, 4);
+        assertTransform(FrameTransform.identity(), FrameRegistration.register(reference, reference, 1f));
+    }
+
+    @Test
+    public void unrelatedFieldsDoNotRegister() {
+        assertNull(FrameRegistration.register(randomField(40, 5), randomField(40, 6), 1f));
+        assertNull("pocas estrellas", FrameRegistration.register(randomField(4, 7), randomField(4, 7), 1f));
+    }
+
+    // De imagen a transformación: detección sobre dos frames renderizados y registro.
+    @Test
+    public void registersDetectedStars() {
+        List<Star> field = randomField(50, 8);
+        FrameTransform truth = FrameTransform.rigid(Math.toRadians(-0.8), -5.4, 3.1);
+        List<Star> moved = observe(field, truth, 0f, 9);
+        StarDetector detector = new StarDetector();
+        List<Star> reference = detector.detect(render(field), W, H);
+        List<Star> frame = detector.detect(render(moved), W, H);
+        assertTransform(truth, FrameRegistration.register(reference, frame, 2f));
+    }
+
+    private static float[] render(List<Star> stars) {
+        float[] x = new float[stars.size()], y = new float[stars.size()], peak = new float[stars.size()];
+        for (int i = 0; i < stars.size(); i++) {
+            x[i] = stars.get(i).x;
+            y[i] = stars.get(i).y;
+            peak[i] = 300f + stars.get(i).flux / 5f;
+        }
+        return StarDetectorTest.render(W, H, x, y, peak, 3f, 10);
+    }
+}
@@ -0,0 +1,213 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// LiveStacker de principio a fin: frames RAW16 Bayer con deriva conocida -> sesión persistida.
+public class LiveStackerTest {
+
+    private static final int W = 400;
+    private static final int H = 300;
+    private static final int BLACK = 64;
+
+    private File mDir;
+    private ExecutorService mPool;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "livestack_" + System.nanoTime());
+        mPool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+        delete(mDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) delete(child);
+        file.delete();
+    }
+
+    // Campo fijo de estrellas desplazado (dx, dy) en píxeles del plano superpíxel, como RAW16 Bayer
+    // con nivel de negro y relleno al final de cada fila. Con 'trail', un satélite lo cruza en diagonal.
+    private static ByteBuffer bayerFrame(float dx, float dy, int rowStride, long seed) {
+        return bayerFrame(dx, dy, rowStride, seed, false);
+    }
+
+    private static ByteBuffer bayerFrame(float dx, float dy, int rowStride, long seed, boolean trail) {
+        Random stars = new Random(42);
+        int count = 30;
+        float[] sx = new float[count], sy = new float[count], peak = new float[count];
+        for (int i = 0; i < count; i++) {
+            sx[i] = 15 + stars.nextFloat() * (W / 2 - 30) + dx;
+            sy[i] = 15 + stars.nextFloat() * (H / 2 - 30) + dy;
+            peak[i] = 400 + stars.nextFloat() * 2000;
+        }
+        float[] plane = StarDetectorTest.render(W / 2, H / 2, sx, sy, peak, 3f, seed);
+        if (trail) {
+            for (int x = 0; x < W / 2; x++) {
+                float y = 10 + x * 0.6f;
+                for (int yy = (int) y - 1; yy <= (int) y + 1; yy++) {
+                    if (yy >= 0 && yy < H / 2) plane[yy * (W / 2) + x] += 600f;
+                }
+            }
+        }
+        ByteBuffer data = ByteBuffer.allocate(rowStride * H).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                float v = plane[(y / 2) * (W / 2) + x / 2] + BLACK;
+                data.putShort(y * rowStride + 2 * x, (short) Math.max(0, Math.min(65535, Math.round(v))));
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void luminanceAveragesBayerQuadsMinusBlack() {
+        int rowStride = W * 2 + 32;
+        ByteBuffer data = ByteBuffer.allocate(rowStride * 2).order(ByteOrder.LITTLE_ENDIAN);
+        data.putShort(0, (short) 100).putShort(2, (short) 200).putShort(rowStride, (short) 300).putShort(rowStride + 2, (short) 400);
+        float[] plane = LiveStacker.luminance(data, rowStride, W, 2, false, BLACK);
+        assertEquals(W / 2, plane.length);
+        assertEquals(250f - BLACK, plane[0], 1e-3);
+        assertEquals(0, data.position());
+    }
+
+    @Test
+    public void planesAreRecycledUpToTheLimit() {
+        try {
+            LiveStacker.trimPlanes();
+            LiveStacker.setPlaneLimit(2);
+            float[] a = LiveStacker.acquirePlane(16);
+            float[] b = LiveStacker.acquirePlane(16);
+            float[] c = LiveStacker.acquirePlane(16);
+            LiveStacker.releasePlane(a);
+            LiveStacker.releasePlane(b);
+            LiveStacker.releasePlane(c);
+            assertEquals(2, LiveStacker.idlePlaneCount());
+            assertSame(c, LiveStacker.acquirePlane(16));
+            // Otro tamaño no reutiliza los ociosos
+            assertEquals(9, LiveStacker.acquirePlane(9).length);
+            LiveStacker.setPlaneLimit(0);
+            assertEquals(0, LiveStacker.idlePlaneCount());
+            LiveStacker.releasePlane(a);
+            assertEquals(0, LiveStacker.idlePlaneCount());
+        } finally {
+            LiveStacker.setPlaneLimit(LiveStacker.DEFAULT_PLANE_LIMIT);
+        }
+    }
+
+    @Test
+    public void integratesRegisteredFramesAndPersists() throws Exception {
+        int rowStride = W * 2 + 16;
+        int pw = LiveStacker.planeWidth(W, false), ph = LiveStacker.planeHeight(H, false);
+        float[][] drifts = {{0f, 0f}, {1.3f, -0.7f}, {2.6f, -1.4f}, {3.9f, -2.1f}};
+        LiveStacker stacker = LiveStacker.open(mDir, pw, ph, mPool);
+        try {
+            for (int i = 0; i < drifts.length; i++) {
+                float[] plane = LiveStacker.luminance(bayerFrame(drifts[i][0], drifts[i][1], rowStride, i + 1),
+                    rowStride, W, H, false, BLACK);
+                LiveStacker.FrameStats stats = stacker.addFrame(plane, i);
+                assertNotNull(stats);
+                assertTrue("frame " + i + " integrado", stats.integrated);
+                // Fondo del cielo sintético (200) ya sin nivel de negro
+                assertEquals(200f, stats.background, 5f);
+                assertEquals(1f, stats.quality, 0.2f);
+            }
+            assertNull("un frame ya integrado no se repite", stacker.addFrame(new float[pw * ph], 2));
+            // Un frame sin estrellas no se registra
+            float[] empty = new float[pw * ph];
+            Random noise = new Random(9);
+            for (int i = 0; i < empty.length; i++) empty[i] = (float) noise.nextGaussian() * 4f;
+            assertFalse(stacker.addFrame(empty, 10).integrated);
+
+            // Frame cruzado por un satélite: se integra igual, con la traza enmascarada y guardada
+            float[] crossed = LiveStacker.luminance(bayerFrame(0.5f, 0.5f, rowStride, 11, true),
+                rowStride, W, H, false, BLACK);
+            LiveStacker.FrameStats stats = stacker.addFrame(crossed, 4);
+            assertTrue(stats.integrated);
+            assertTrue("traza detectada", stats.trailCount >= 1);
+        } finally {
+            stacker.close();
+        }
+        assertNull("cerrado: no integra", stacker.addFrame(new float[pw * ph], 11));
+
+        try (StackingSession session = StackingSession.open(mDir, Integer.MAX_VALUE)) {
+            assertEquals(drifts.length + 1, session.getFrameCount());
+            assertFalse(session.isFrameIntegrated(10));
+            assertTrue(session.readTrailMask(0).isEmpty());
+            assertFalse(session.readTrailMask(4).isEmpty());
+            assertTrue(session.getReferenceStars().size() >= FrameRegistration.MIN_MATCHES);
+            // Todo el campo de referencia tiene peso
+            float[] stack = new float[pw * ph];
+            session.createIntegrator(null).finish(stack);
+            assertFalse(Float.isNaN(stack[(ph / 2) * pw + pw / 2]));
+        }
+    }
+
+    // N frames limpios + uno cruzado por un satélite: sobre la traza el apilado queda en el fondo
+    // del cielo (la traza suma 600 en su frame) y con el peso de N frames, no de N + 1.
+    @Test
+    public void trailPixelsAreExcludedFromTheStack() throws Exception {
+        int rowStride = W * 2;
+        int pw = LiveStacker.planeWidth(W, false), ph = LiveStacker.planeHeight(H, false);
+        int clean = 4;
+        LiveStacker stacker = LiveStacker.open(mDir, pw, ph, mPool);
+        try {
+            for (int i = 0; i < clean; i++) {
+                float[] plane = LiveStacker.luminance(bayerFrame(0f, 0f, rowStride, 20 + i), rowStride, W, H, false, BLACK);
+                assertTrue(stacker.addFrame(plane, i).integrated);
+            }
+            float[] crossed = LiveStacker.luminance(bayerFrame(0f, 0f, rowStride, 30, true), rowStride, W, H, false, BLACK);
+            LiveStacker.FrameStats stats = stacker.addFrame(crossed, clean);
+            assertTrue(stats.integrated);
+            assertTrue("traza detectada", stats.trailCount >= 1);
+        } finally {
+            stacker.close();
+        }
+
+        try (StackingSession session = StackingSession.open(mDir, Integer.MAX_VALUE)) {
+            float[] stack = new float[pw * ph];
+            session.createIntegrator(null).finish(stack);
+            // Centro de la traza (y = 10 + 0.6 x) y, 30 filas más arriba, cielo fuera de la máscara
+            int n = 0;
+            float[] onFlux = new float[120], onWeight = new float[120], offWeight = new float[120];
+            for (int x = 60; x < 180; x++) {
+                int y = Math.round(10 + x * 0.6f);
+                onFlux[n] = stack[y * pw + x];
+                onWeight[n] = session.getWeightBuffer().get(y * pw + x);
+                offWeight[n] = session.getWeightBuffer().get((y - 30) * pw + x);
+                n++;
+            }
+            // Medianas: alguna estrella del campo puede caer sobre la traza
+            assertEquals("la traza no llega al apilado", 200f, median(onFlux), 5f);
+            float frames = median(onWeight) / median(offWeight) * (clean + 1);
+            assertEquals("peso sobre la traza en frames", clean, frames, 0.1f);
+        }
+    }
+
+    private static float median(float[] values) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,90 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Pool de buffers y gobernador de memoria con reloj simulado.
+public class MemoryPressureGovernorTest {
+
+    private static final class RecordingActions implements MemoryPressureGovernor.Actions {
+        private final FrameBufferPool mPool;
+        boolean previewDegraded = false;
+        boolean backpressure = false;
+
+        RecordingActions(FrameBufferPool pool) {
+            mPool = pool;
+        }
+
+        @Override
+        public void setPoolLimit(int buffers) {
+            mPool.setLimit(buffers);
+        }
+
+        @Override
+        public void setPreviewDegraded(boolean degraded) {
+            previewDegraded = degraded;
+        }
+
+        @Override
+        public void setCaptureBackpressure(boolean blocked) {
+            backpressure = blocked;
+        }
+    }
+
+    @Test
+    public void escalationAndCooldown() {
+        // 12 MP RAW16 con 512 MB de heap -> 5 buffers
+        FrameBufferPool pool = FrameBufferPool.forFrame(4000, 3000, 2, 512L * 1024 * 1024, true);
+        RecordingActions actions = new RecordingActions(pool);
+        MemoryPressureGovernor governor = new MemoryPressureGovernor(actions, MemoryPressureGovernor.ESCALATING);
+        governor.setPool(pool);
+
+        List<FrameBufferPool.Lease> held = new ArrayList<>();
+        for (int i = 0; i < pool.getInitialLimit(); i++) held.add(pool.tryAcquire());
+        assertNull("el pool debe agotarse en su límite", pool.tryAcquire());
+
+        long t = 0;
+        governor.signal(MemoryPressureGovernor.Level.MODERATE, t);
+        assertEquals("MODERATE encoge el pool a la mitad",
+            Math.max(FrameBufferPool.MIN_BUFFERS, pool.getInitialLimit() / 2), pool.getLimit());
+
+        // Devolver buffers con el límite reducido los libera en lugar de guardarlos
+        for (FrameBufferPool.Lease lease : held) lease.release();
+        held.clear();
+        assertTrue("los buffers sobrantes se sueltan al devolverse", pool.getAllocatedCount() <= pool.getLimit());
+
+        governor.signal(MemoryPressureGovernor.Level.CRITICAL, t += 1000);
+        assertTrue("CRITICAL degrada la vista previa y frena capturas", actions.previewDegraded && actions.backpressure);
+
+        // Una señal más baja no relaja el nivel
+        governor.signal(MemoryPressureGovernor.Level.MODERATE, t += 1000);
+        assertEquals(MemoryPressureGovernor.Level.CRITICAL, governor.getLevel());
+
+        governor.tick(t += MemoryPressureGovernor.COOLDOWN_MS);
+        assertEquals(MemoryPressureGovernor.Level.HIGH, governor.getLevel());
+        assertTrue(!actions.backpressure);
+        governor.tick(t += MemoryPressureGovernor.COOLDOWN_MS);
+        governor.tick(t += MemoryPressureGovernor.COOLDOWN_MS);
+        assertEquals(MemoryPressureGovernor.Level.NORMAL, governor.getLevel());
+        assertTrue("NORMAL restaura todo", !actions.previewDegraded && pool.getLimit() == pool.getInitialLimit());
+    }
+
+    @Test
+    public void leaseReferenceCounting() {
+        FrameBufferPool pool = FrameBufferPool.forFrame(400, 300, 2, 64L * 1024 * 1024, true);
+        FrameBufferPool.Lease shared = pool.tryAcquire();
+        shared.retain();
+        shared.release();
+        assertEquals("retain() mantiene el préstamo vivo", 1, pool.getLeasedCount());
+        assertEquals("el préstamo vivo aparece como posible fuga", 1, pool.findLeaks(0).size());
+        shared.release();
+        assertEquals(0, pool.getLeasedCount());
+        assertTrue("la última release() devuelve el buffer", pool.findLeaks(0).isEmpty());
+    }
+}
@@ -0,0 +1,94 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Pipeline de procesado sobre un frame RAW sintético (cielo con ruido + estrellas), sin binning y
+// con binning 2x2 / 3x3. Imprime el tiempo de cada etapa para cuantificar el ahorro aguas abajo y
+// comprueba que el binning abarata el total. Mide tiempos, así que no corre con el resto de pruebas:
+// ./gradlew :app:testDebugUnitTest -Pbenchmark (la corrección del binning está en CfaBinnerTest).
+public class PipelineBenchmarkTest {
+
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 900;
+    private static final int RUNS = 2;
+
+    @Test
+    public void binningShrinksDownstreamStages() throws Exception {
+        Assume.assumeTrue("benchmark desactivado (-Pbenchmark)", Boolean.getBoolean("benchmark"));
+        int stride = WIDTH * 2;
+        ByteBuffer raw = syntheticFrame(WIDTH, HEIGHT, stride);
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            System.out.println("binning   px(MP)   bin(ms)   compresión(ms)   drizzle(ms)   total(ms)");
+            long unbinnedNs = 0;
+            for (int factor = 1; factor <= 3; factor++) {
+                CfaBinner binner = factor > 1 ? new CfaBinner(factor, CfaBinner.Layout.CFA, false) : null;
+                int w = binner != null ? binner.outputWidth(WIDTH) : WIDTH;
+                int h = binner != null ? binner.outputHeight(HEIGHT) : HEIGHT;
+                assertEquals("el binning CFA conserva la paridad del mosaico", 0, w % 2);
+                ByteBuffer binned = binner != null
+                    ? ByteBuffer.allocateDirect(w * h * 2).order(ByteOrder.LITTLE_ENDIAN)
+                    : raw;
+                float[] plane = new float[w * h];
+                DrizzleIntegrator drizzle = new DrizzleIntegrator(w, h, 1, 1f, pool);
+
+                long binNs = 0, codecNs = 0, drizzleNs = 0;
+                for (int r = 0; r < RUNS; r++) {
+                    long t0 = System.nanoTime();
+                    if (binner != null) binner.bin(raw, stride, WIDTH, HEIGHT, binned, pool);
+                    long t1 = System.nanoTime();
+                    byte[][] stripes = RawArchiveCodec.encodeStripes(binned, w * 2, w, h,
+                        RawArchiveCodec.DEFAULT_STRIPE_ROWS, pool);
+                    assertTrue(stripes.length > 0);
+                    long t2 = System.nanoTime();
+                    for (int i = 0; i < plane.length; i++) plane[i] = binned.getShort(2 * i) & 0xFFFF;
+                    drizzle.addFrame(plane, FrameTransform.rigid(0.001 * r, 0.3 * r, 0.2 * r), 1f);
+                    long t3 = System.nanoTime();
+                    binNs += t1 - t0;
+                    codecNs += t2 - t1;
+                    drizzleNs += t3 - t2;
+                }
+                float[] stack = new float[w * h];
+                drizzle.finish(stack);
+                assertTrue("el centro queda cubierto", !Float.isNaN(stack[(h / 2) * w + w / 2]));
+                System.out.println(String.format(Locale.US, "%-9s %7.2f %9.1f %16.1f %13.1f %11.1f",
+                    factor == 1 ? "off" : factor + "x" + factor, w * (double) h / 1e6,
+                    binNs / 1e6 / RUNS, codecNs / 1e6 / RUNS, drizzleNs / 1e6 / RUNS,
+                    (binNs + codecNs + drizzleNs) / 1e6 / RUNS));
+                if (binner == null) {
+                    unbinnedNs = binNs + codecNs + drizzleNs;
+                } else {
+                    // Con 4x / 9x menos píxeles el binning se paga solo
+                    assertTrue(factor + "x" + factor + " más lento que sin binning",
+                        binNs + codecNs + drizzleNs < unbinnedNs);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static ByteBuffer syntheticFrame(int width, int height, int stride) {
+        ByteBuffer raw = ByteBuffer.allocateDirect(stride * height).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = (int) (256 + ((x & 1) + (y & 1)) * 24 + random.nextGaussian() * 8);
+                if (random.nextInt(4000) == 0) v += 2000 + random.nextInt(8000);
+                raw.putShort(y * stride + 2 * x, (short) Math.max(0, Math.min(65535, v)));
+            }
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,102 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// PlateSolver contra un índice construido con QuadIndexBuilder a partir de un cielo sintético:
+// el campo se genera proyectando el catálogo con una WCS conocida.
+public class PlateSolverTest {
+
+    private static final int W = 4000;
+    private static final int H = 3000;
+
+    private File mIndexFile;
+    private float[][] mCatalog;
+
+    @Before
+    public void setUp() throws Exception {
+        // Estrellas uniformes en la esfera, magnitudes 1-6.5; ordenadas por dec como espera el índice
+        Random random = new Random(7);
+        mCatalog = new float[6000][];
+        for (int i = 0; i < mCatalog.length; i++) {
+            double ra = random.nextDouble() * 360.0;
+            double dec = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            mCatalog[i] = new float[] {(float) ra, (float) dec, 1f + 5.5f * random.nextFloat()};
+        }
+        Arrays.sort(mCatalog, new Comparator<float[]>() {
+            @Override
+            public int compare(float[] a, float[] b) {
+                return Float.compare(a[1], b[1]);
+            }
+        });
+        double[] scales = {6, 12};
+        List<int[]> quads = new ArrayList<>();
+        List<float[]> codes = new ArrayList<>();
+        QuadIndexBuilder.buildQuads(mCatalog, scales, quads, codes);
+        mIndexFile = File.createTempFile("stars", ".qidx");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(mIndexFile))) {
+            QuadIndexBuilder.write(out, mCatalog, quads, codes, 3f, 24f);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mIndexFile.delete();
+    }
+
+    // Estrellas del catálogo que caen en el frame según 'truth', con flujo según magnitud.
+    private List<Star> observe(WcsSolution truth, Random random) {
+        List<Star> stars = new ArrayList<>();
+        for (float[] s : mCatalog) {
+            double[] p = truth.skyToPixel(s[0], s[1]);
+            if (p == null || p[0] < 0 || p[1] < 0 || p[0] >= W || p[1] >= H) continue;
+            stars.add(new Star((float) (p[0] + 0.3 * random.nextGaussian()), (float) (p[1] + 0.3 * random.nextGaussian()),
+                (float) Math.pow(10, -0.4 * s[2]), 3f));
+        }
+        return stars;
+    }
+
+    @Test
+    public void solvesSyntheticField() throws Exception {
+        // 30 grados en el lado largo, girado 25 grados, norte arriba y este a la izquierda
+        double scale = 30.0 / W;
+        double angle = Math.toRadians(25);
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        WcsSolution truth = new WcsSolution(110.0, 25.0, W / 2.0, H / 2.0,
+            -scale * cos, scale * sin, -scale * sin, -scale * cos, 0);
+        assertFalse(truth.isMirrored());
+        List<Star> stars = observe(truth, new Random(3));
+        assertTrue("campo con estrellas suficientes", stars.size() >= 20);
+
+        WcsSolution wcs;
+        try (QuadIndex index = new QuadIndex(mIndexFile)) {
+            wcs = new PlateSolver(index, 15.0, 60.0, 20_000, PlateSolver.DEFAULT_MAX_STARS).solve(stars, W, H);
+        }
+        assertNotNull("sin solución", wcs);
+        double[] center = wcs.pixelToSky(W / 2.0, H / 2.0);
+        assertEquals(0.0, WcsSolution.separation(center[0], center[1], 110.0, 25.0), 0.05);
+        assertEquals(truth.getPixelScaleArcsec(), wcs.getPixelScaleArcsec(), truth.getPixelScaleArcsec() * 0.01);
+        assertEquals(truth.getRotationDeg(), wcs.getRotationDeg(), 0.2);
+        assertFalse(wcs.isMirrored());
+        // Una esquina también cae en su sitio (escala y rotación, no sólo el centro)
+        double[] corner = wcs.pixelToSky(0, 0);
+        double[] expected = truth.pixelToSky(0, 0);
+        assertEquals(0.0, WcsSolution.separation(corner[0], corner[1], expected[0], expected[1]), 0.1);
+    }
+}
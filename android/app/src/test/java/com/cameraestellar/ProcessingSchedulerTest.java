@@ -0,0 +1,192 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ProcessingScheduler con trabajos sintéticos en la JVM: prioridades, hilo reservado,
+// cancelación, pausa durante la secuencia, ciclo de trabajo y pool de cálculo.
+public class ProcessingSchedulerTest {
+
+    private ProcessingScheduler mScheduler;
+
+    @After
+    public void tearDown() {
+        if (mScheduler != null) mScheduler.shutdown();
+    }
+
+    // Con un solo hilo ocupado, la cola se vacía por prioridad y no por orden de llegada.
+    @Test
+    public void queueDrainsByPriority() throws InterruptedException {
+        mScheduler = new ProcessingScheduler(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        mScheduler.submit("bloqueo", ProcessingScheduler.Priority.LIVE, context -> {
+            gate.await();
+            return null;
+        });
+        ProcessingScheduler.JobHandle last = null;
+        for (ProcessingScheduler.Priority priority : new ProcessingScheduler.Priority[] {
+                ProcessingScheduler.Priority.BATCH, ProcessingScheduler.Priority.LIVE,
+                ProcessingScheduler.Priority.CAPTURE_CRITICAL}) {
+            final String name = priority.name();
+            ProcessingScheduler.JobHandle handle = mScheduler.submit(name, priority, context -> {
+                order.add(name);
+                return null;
+            });
+            if (priority == ProcessingScheduler.Priority.BATCH) last = handle;
+        }
+        gate.countDown();
+        assertTrue("los trabajos en cola terminan", last.await(2000));
+        assertEquals("[CAPTURE_CRITICAL, LIVE, BATCH]", order.toString());
+    }
+
+    // Con BATCH ocupando su cupo, un CAPTURE_CRITICAL arranca en el hilo reservado.
+    @Test
+    public void batchLeavesReservedWorker() throws InterruptedException {
+        mScheduler = new ProcessingScheduler(2);
+        final CountDownLatch gate = new CountDownLatch(1);
+        ProcessingScheduler.JobHandle batch1 = mScheduler.submit("lote1", ProcessingScheduler.Priority.BATCH, context -> {
+            gate.await();
+            return null;
+        });
+        ProcessingScheduler.JobHandle batch2 = mScheduler.submit("lote2", ProcessingScheduler.Priority.BATCH, context -> null);
+        ProcessingScheduler.JobHandle critical = mScheduler.submit("guardar", ProcessingScheduler.Priority.CAPTURE_CRITICAL,
+            context -> "frame");
+        assertTrue("el hilo reservado atiende la captura", critical.await(1000));
+        assertEquals("frame", critical.getResult());
+        assertEquals("BATCH no ocupa el hilo reservado", ProcessingScheduler.State.QUEUED, batch2.getState());
+        gate.countDown();
+        assertTrue("los BATCH terminan después", batch1.await(1000) && batch2.await(1000));
+    }
+
+    @Test
+    public void cancellationStopsRunningAndQueuedJobs() throws InterruptedException {
+        mScheduler = new ProcessingScheduler(2);
+        ProcessingScheduler.JobHandle job = mScheduler.submit("exportar", ProcessingScheduler.Priority.BATCH, context -> {
+            for (int i = 0; ; i++) {
+                context.checkpoint();
+                context.setProgress((i % 1000) / 1000f);
+                Thread.sleep(1);
+            }
+        });
+        Thread.sleep(50);
+        assertEquals(ProcessingScheduler.State.RUNNING, job.getState());
+        job.cancel();
+        assertTrue("la cancelación se atiende en el siguiente checkpoint", job.await(500));
+        assertEquals(ProcessingScheduler.State.CANCELLED, job.getState());
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        mScheduler.submit("bloqueo", ProcessingScheduler.Priority.BATCH, context -> {
+            gate.await();
+            return null;
+        });
+        ProcessingScheduler.JobHandle queued = mScheduler.submit("en cola", ProcessingScheduler.Priority.BATCH, context -> null);
+        assertTrue(queued.cancel());
+        assertEquals("un trabajo en cola se descarta", ProcessingScheduler.State.CANCELLED, queued.getState());
+        gate.countDown();
+    }
+
+    @Test
+    public void sequencePausesBatchWork() throws InterruptedException {
+        mScheduler = new ProcessingScheduler(2);
+        final int[] steps = new int[1];
+        ProcessingScheduler.JobHandle job = mScheduler.submit("apilar", ProcessingScheduler.Priority.BATCH, context -> {
+            for (int i = 0; i < 200; i++) {
+                context.checkpoint();
+                synchronized (steps) {
+                    steps[0]++;
+                }
+                Thread.sleep(2);
+            }
+            return null;
+        });
+        Thread.sleep(40);
+        mScheduler.setSequenceActive(true);
+        Thread.sleep(20);
+        int paused;
+        synchronized (steps) {
+            paused = steps[0];
+        }
+        Thread.sleep(100);
+        synchronized (steps) {
+            assertEquals("BATCH no avanza durante la secuencia", paused, steps[0]);
+        }
+        assertEquals(ProcessingScheduler.State.PAUSED, job.getState());
+        ProcessingScheduler.JobHandle live = mScheduler.submit("vista", ProcessingScheduler.Priority.LIVE, context -> null);
+        assertTrue("LIVE sigue funcionando durante la secuencia", live.await(500));
+        mScheduler.setSequenceActive(false);
+        assertTrue("BATCH reanuda y termina", job.await(2000));
+        assertEquals(ProcessingScheduler.State.SUCCEEDED, job.getState());
+    }
+
+    // Con un 25 % de ciclo de trabajo, 200 ms de CPU deben tardar unos 800 ms de reloj.
+    @Test
+    public void dutyCycleThrottlesBatchWork() throws InterruptedException {
+        mScheduler = new ProcessingScheduler(2);
+        mScheduler.setBatchBudget(0.25f, 50);
+        final long busyNs = 200_000_000L;
+        long start = System.nanoTime();
+        ProcessingScheduler.JobHandle job = mScheduler.submit("deconvolución", ProcessingScheduler.Priority.BATCH, context -> {
+            long done = 0;
+            while (done < busyNs) {
+                long t0 = System.nanoTime();
+                while (System.nanoTime() - t0 < 5_000_000L) {
+                    // CPU sintética
+                }
+                done += System.nanoTime() - t0;
+                context.checkpoint();
+            }
+            return null;
+        });
+        assertTrue("el trabajo con presupuesto termina", job.await(5000));
+        double wallMs = (System.nanoTime() - start) / 1e6;
+        assertTrue("el presupuesto limita la CPU de BATCH: " + wallMs + " ms", wallMs > 600 && wallMs < 1500);
+    }
+
+    // Las teselas en el pool de cálculo pasan por checkpoint() del trabajo: se paran con la
+    // secuencia y la cancelación las corta aunque el hilo del trabajo esté esperándolas.
+    @Test
+    public void computePoolTilesFollowPauseAndCancel() throws InterruptedException {
+        mScheduler = new ProcessingScheduler(2);
+        final AtomicInteger tiles = new AtomicInteger();
+        ProcessingScheduler.JobHandle job = mScheduler.submit("teselas", ProcessingScheduler.Priority.BATCH, context -> {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int k = 0; k < 2; k++) {
+                futures.add(mScheduler.getComputePool().submit(() -> {
+                    while (true) {
+                        context.checkpoint();
+                        tiles.incrementAndGet();
+                        Thread.sleep(2);
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) future.get();
+            return null;
+        });
+        Thread.sleep(40);
+        mScheduler.setSequenceActive(true);
+        Thread.sleep(20);
+        int paused = tiles.get();
+        Thread.sleep(100);
+        assertEquals("las teselas no avanzan durante la secuencia", paused, tiles.get());
+        mScheduler.setSequenceActive(false);
+        Thread.sleep(40);
+        assertTrue("las teselas reanudan", tiles.get() > paused);
+        job.cancel();
+        assertTrue("la cancelación llega al trabajo a través de las teselas", job.await(500));
+        assertEquals(ProcessingScheduler.State.CANCELLED, job.getState());
+        int cancelled = tiles.get();
+        Thread.sleep(50);
+        assertEquals("el pool deja de trabajar para el trabajo cancelado", cancelled, tiles.get());
+    }
+}
@@ -0,0 +1,102 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+// Ida y vuelta sin pérdida de RawArchiveCodec con geometrías y contenidos incómodos.
+public class RawArchiveCodecTest {
+
+    // Fondo suave con ruido, más píxeles calientes y muertos: residuos enormes dentro de bloques
+    // con k pequeño, que sólo caben con el código de escape (hasta 0 <-> 65535).
+    private static ByteBuffer frame(int width, int height, int rowStride, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer data = ByteBuffer.allocate(rowStride * height).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = 600 + x + y + random.nextInt(8);
+                int r = random.nextInt(200);
+                if (r == 0) v = 65535;
+                else if (r == 1) v = 0;
+                data.putShort(y * rowStride + 2 * x, (short) v);
+            }
+            // Relleno al final de la fila: no debe acabar en el archivo
+            for (int p = width * 2; p < rowStride; p += 2) data.putShort(y * rowStride + p, (short) 0x7777);
+        }
+        return data;
+    }
+
+    private static void roundTrip(int width, int height, int rowStride, int stripeRows, ExecutorService executor)
+            throws Exception {
+        ByteBuffer data = frame(width, height, rowStride, width * 31L + height);
+        RawArchiveCodec.Header header = new RawArchiveCodec.Header();
+        header.width = width;
+        header.height = height;
+        header.cfaArrangement = 0;
+        header.whiteLevel = 65535;
+        header.iso = 1600;
+        header.exposureNs = 30_000_000_000L;
+        header.timestampNs = 123456789L;
+        header.stripeRows = stripeRows;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytes = RawArchiveCodec.write(out, header, data, rowStride, executor);
+        assertEquals(out.size(), bytes);
+
+        RawArchiveCodec.Header read = new RawArchiveCodec.Header();
+        short[] pixels = RawArchiveCodec.read(new ByteArrayInputStream(out.toByteArray()), read);
+        assertEquals(width, read.width);
+        assertEquals(height, read.height);
+        assertEquals(header.exposureNs, read.exposureNs);
+        assertEquals(RawArchiveCodec.effectiveStripeRows(stripeRows), read.stripeRows);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals("píxel " + x + "," + y, data.getShort(y * rowStride + 2 * x), pixels[y * width + x]);
+            }
+        }
+    }
+
+    @Test
+    public void oddWidthWithRowPadding() throws Exception {
+        roundTrip(333, 97, 333 * 2 + 26, RawArchiveCodec.DEFAULT_STRIPE_ROWS, null);
+    }
+
+    // Alto de franja impar: se redondea a par al codificar y la cabecera debe reflejarlo.
+    @Test
+    public void oddStripeRows() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            roundTrip(257, 131, 257 * 2 + 2, 13, executor);
+            roundTrip(64, 40, 128, 1, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Los buffers de trabajo se reutilizan sucios entre archivos de distinta geometría; con límite 0
+    // no queda ninguno ocioso.
+    @Test
+    public void scratchReuseAndLimit() throws Exception {
+        try {
+            RawArchiveCodec.setScratchLimit(2);
+            roundTrip(400, 64, 800, 32, null);
+            assertEquals(1, RawArchiveCodec.idleScratchCount());
+            roundTrip(97, 33, 97 * 2 + 6, 8, null);
+            roundTrip(400, 64, 800, 64, null);
+            RawArchiveCodec.setScratchLimit(0);
+            assertEquals(0, RawArchiveCodec.idleScratchCount());
+            roundTrip(64, 40, 128, 16, null);
+            assertEquals(0, RawArchiveCodec.idleScratchCount());
+        } finally {
+            RawArchiveCodec.setScratchLimit(RawArchiveCodec.DEFAULT_SCRATCH_LIMIT);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+// RichardsonLucy sobre una imagen conocida emborronada con la misma PSF gaussiana: la estimación
+// debe acercarse al original y su reconvolución seguir explicando la observación.
+public class RichardsonLucyTest {
+
+    private static final int W = 300;
+    private static final int H = 200;
+    private static final float FWHM = 3f;
+
+    // Fondo + estrellas de un píxel + una barra: bordes y puntos que el emborronado suaviza.
+    private static float[] truth() {
+        float[] image = new float[W * H];
+        for (int i = 0; i < image.length; i++) image[i] = 50f;
+        for (int k = 0; k < 40; k++) {
+            int x = 10 + (k * 37) % (W - 20);
+            int y = 10 + (k * 53) % (H - 20);
+            image[y * W + x] += 2000f + 100f * k;
+        }
+        for (int y = 90; y < 110; y++) {
+            for (int x = 120; x < 180; x++) image[y * W + x] += 300f;
+        }
+        return image;
+    }
+
+    // Convolución directa con la gaussiana normalizada, borde replicado (como extract()).
+    private static float[] blur(float[] image) {
+        double sigma = FWHM / 2.3548;
+        int r = (int) Math.ceil(3 * sigma);
+        double[] kernel = new double[2 * r + 1];
+        double sum = 0;
+        for (int i = -r; i <= r; i++) sum += kernel[i + r] = Math.exp(-i * i / (2 * sigma * sigma));
+        for (int i = 0; i < kernel.length; i++) kernel[i] /= sum;
+        float[] tmp = new float[W * H];
+        float[] out = new float[W * H];
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                double acc = 0;
+                for (int i = -r; i <= r; i++) acc += kernel[i + r] * image[y * W + Math.max(0, Math.min(W - 1, x + i))];
+                tmp[y * W + x] = (float) acc;
+            }
+        }
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                double acc = 0;
+                for (int i = -r; i <= r; i++) acc += kernel[i + r] * tmp[Math.max(0, Math.min(H - 1, y + i)) * W + x];
+                out[y * W + x] = (float) acc;
+            }
+        }
+        return out;
+    }
+
+    private static double rms(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += (a[i] - b[i]) * (double) (a[i] - b[i]);
+        return Math.sqrt(sum / a.length);
+    }
+
+    @Test
+    public void reducesResidualAgainstKnownImage() throws Exception {
+        float[] truth = truth();
+        float[] observed = blur(truth);
+        float[] sharp = new float[W * H];
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        final List<Double> changes = new ArrayList<>();
+        try {
+            // Tiles pequeños para que haya costuras entre tiles en la imagen
+            int iterations = new RichardsonLucy(FWHM, 30, 0, 64, executor).run(observed, W, H, sharp,
+                new RichardsonLucy.Listener() {
+                    @Override
+                    public boolean onIteration(int iteration, long elapsedNs, double relativeChange) {
+                        changes.add(relativeChange);
+                        return true;
+                    }
+                });
+            assertEquals(30, iterations);
+        } finally {
+            executor.shutdown();
+        }
+        double before = rms(observed, truth);
+        double after = rms(sharp, truth);
+        assertTrue("RL debe acercarse al original: " + before + " -> " + after, after < 0.8 * before);
+        // La estimación reconvolucionada sigue explicando la observación
+        assertTrue("residuo de reconvolución", rms(blur(sharp), observed) < 0.1 * before);
+        assertTrue("converge", changes.get(changes.size() - 1) < changes.get(0));
+        // Flujo conservado (RL preserva la suma con PSF normalizada)
+        double fluxIn = 0, fluxOut = 0;
+        for (int i = 0; i < W * H; i++) {
+            fluxIn += observed[i];
+            fluxOut += sharp[i];
+        }
+        assertEquals(fluxIn, fluxOut, fluxIn * 0.01);
+    }
+
+    // Borde sin cobertura del drizzle (NaN): sigue en NaN en la salida y en la entrada, que se usa
+    // como observación sin copiarla; el resto de la salida es finito.
+    @Test
+    public void keepsUncoveredPixelsAsNaN() throws Exception {
+        float[] observed = blur(truth());
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < 12; x++) observed[y * W + x] = Float.NaN;
+        }
+        float[] input = observed.clone();
+        float[] sharp = new float[W * H];
+        new RichardsonLucy(FWHM, 5, 0, 64, null).run(input, W, H, sharp, null);
+        for (int i = 0; i < W * H; i++) {
+            if (Float.isNaN(observed[i])) {
+                assertTrue("salida NaN en " + i, Float.isNaN(sharp[i]));
+                assertTrue("entrada NaN en " + i, Float.isNaN(input[i]));
+            } else {
+                assertFalse("salida finita en " + i, Float.isNaN(sharp[i]) || Float.isInfinite(sharp[i]));
+                assertEquals(observed[i], input[i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void medianFwhmIgnoresInvalidStars() {
+        List<Star> stars = new ArrayList<>();
+        stars.add(new Star(0, 0, 1, 2.5f));
+        stars.add(new Star(0, 0, 1, Float.NaN));
+        stars.add(new Star(0, 0, 1, 3.5f));
+        stars.add(new Star(0, 0, 1, 0f));
+        stars.add(new Star(0, 0, 1, 3.0f));
+        assertEquals(3.0f, RichardsonLucy.medianFwhm(stars), 1e-6);
+        assertTrue(Float.isNaN(RichardsonLucy.medianFwhm(new ArrayList<Star>())));
+    }
+}
@@ -0,0 +1,92 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// StackingSession: reanudación tras un crash desde el último checkpoint e intervalo de checkpoint.
+public class StackingSessionTest {
+
+    private static final int W = 64;
+    private static final int H = 48;
+
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "session_" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        File[] children = mDir.listFiles();
+        if (children != null) for (File child : children) child.delete();
+        mDir.delete();
+    }
+
+    private static float[] frame(float value) {
+        float[] pixels = new float[W * H];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = value + (i % W) * 0.01f;
+        return pixels;
+    }
+
+    private static float[] copy(FloatBuffer buffer) {
+        float[] out = new float[W * H];
+        for (int i = 0; i < out.length; i++) out[i] = buffer.get(i);
+        return out;
+    }
+
+    // Dos checkpoints (uno en cada slot), un frame registrado después y otro a medio integrar; la
+    // sesión no se cierra (el proceso muere). Al reabrir queda exactamente el último snapshot.
+    @Test
+    public void crashResumesFromLastCheckpoint() throws Exception {
+        StackingSession crashed = StackingSession.create(mDir, W, H, 1, 1f, 2);
+        assertEquals(2, crashed.getCheckpointInterval());
+        DrizzleIntegrator integrator = crashed.createIntegrator(null);
+        for (int i = 0; i < 4; i++) {
+            integrator.addFrame(frame(100f + i), FrameTransform.identity(), 1f);
+            crashed.recordFrame(i, 1f - 0.1f * i);
+        }
+        float[] flux = copy(crashed.getFluxBuffer());
+        float[] weight = copy(crashed.getWeightBuffer());
+
+        integrator.addFrame(frame(500f), FrameTransform.identity(), 1f);
+        crashed.recordFrame(4, 0.5f);
+        integrator.addFrame(frame(900f), FrameTransform.identity(), 1f);
+        // Sin close(): 'crashed' hace de proceso muerto
+
+        try (StackingSession resumed = StackingSession.open(mDir, 2)) {
+            assertEquals(4, resumed.getFrameCount());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, resumed.getFrameIndex(i));
+                assertEquals(1f - 0.1f * i, resumed.getQualityScore(i), 1e-6f);
+                assertTrue(resumed.isFrameIntegrated(i));
+            }
+            assertFalse("el frame posterior al checkpoint se reprocesa", resumed.isFrameIntegrated(4));
+            assertFalse(resumed.isFrameIntegrated(5));
+            for (int i = 0; i < W * H; i++) {
+                assertEquals(flux[i], resumed.getFluxBuffer().get(i), 0f);
+                assertEquals(weight[i], resumed.getWeightBuffer().get(i), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void checkpointIntervalScalesWithGrid() {
+        // Rejilla pequeña: el intervalo pedido
+        assertEquals(8, StackingSession.checkpointInterval(8, 3_000_000L));
+        assertEquals(1, StackingSession.checkpointInterval(0, 1000L));
+        // 48 MP de rejilla: 384 MB por checkpoint -> no más de CHECKPOINT_BYTES_PER_FRAME por frame
+        int interval = StackingSession.checkpointInterval(8, 48_000_000L);
+        assertTrue(interval > 8);
+        assertTrue(48_000_000L * 8L / interval <= StackingSession.CHECKPOINT_BYTES_PER_FRAME);
+        assertEquals(StackingSession.MAX_FRAMES, StackingSession.checkpointInterval(Integer.MAX_VALUE, 1000L));
+    }
+}
@@ -0,0 +1,80 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+// StarDetector sobre campos sintéticos: gaussianas de posición y FWHM conocidas sobre fondo con ruido.
+public class StarDetectorTest {
+
+    private static final int W = 320;
+    private static final int H = 240;
+    private static final float BACKGROUND = 200f;
+    private static final float NOISE = 4f;
+
+    // Campo con estrellas gaussianas en (x[i], y[i]) (coordenadas continuas), pico 'peak' y FWHM común.
+    static float[] render(int w, int h, float[] x, float[] y, float[] peak, float fwhm, long seed) {
+        float[] image = new float[w * h];
+        Random random = new Random(seed);
+        for (int i = 0; i < image.length; i++) image[i] = BACKGROUND + NOISE * (float) random.nextGaussian();
+        double s = fwhm / 2.3548;
+        int r = (int) Math.ceil(4 * s);
+        for (int k = 0; k < x.length; k++) {
+            int cx = (int) x[k], cy = (int) y[k];
+            for (int py = Math.max(0, cy - r); py <= Math.min(h - 1, cy + r); py++) {
+                for (int px = Math.max(0, cx - r); px <= Math.min(w - 1, cx + r); px++) {
+                    double dx = px + 0.5 - x[k], dy = py + 0.5 - y[k];
+                    image[py * w + px] += (float) (peak[k] * Math.exp(-(dx * dx + dy * dy) / (2 * s * s)));
+                }
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void findsStarsWithSubpixelCentroidAndFwhm() {
+        float[] x = {40.3f, 120.7f, 200.5f, 280.1f, 160.9f};
+        float[] y = {50.6f, 80.2f, 150.5f, 200.8f, 30.4f};
+        float[] peak = {2000f, 1500f, 1000f, 800f, 500f};
+        float[] image = render(W, H, x, y, peak, 3f, 1);
+
+        List<Star> stars = new StarDetector().detect(image, W, H);
+        assertEquals(x.length, stars.size());
+        // Ordenadas por flujo: el orden de los picos
+        for (int k = 0; k < x.length; k++) {
+            Star star = stars.get(k);
+            assertEquals("x de la estrella " + k, x[k], star.x, 0.15);
+            assertEquals("y de la estrella " + k, y[k], star.y, 0.15);
+            assertEquals("FWHM de la estrella " + k, 3f, star.fwhm, 0.4);
+        }
+    }
+
+    @Test
+    public void rejectsHotPixelsAndNoise() {
+        float[] image = render(W, H, new float[] {100.5f}, new float[] {100.5f}, new float[] {1500f}, 3f, 2);
+        // Píxeles calientes aislados, muy por encima del umbral
+        image[60 * W + 200] += 3000f;
+        image[180 * W + 50] += 3000f;
+        List<Star> stars = new StarDetector().detect(image, W, H);
+        assertEquals(1, stars.size());
+        assertEquals(100.5f, stars.get(0).x, 0.15);
+    }
+
+    @Test
+    public void limitsToBrightest() {
+        int count = 30;
+        float[] x = new float[count], y = new float[count], peak = new float[count];
+        for (int k = 0; k < count; k++) {
+            x[k] = 20.5f + (k % 10) * 30;
+            y[k] = 40.5f + (k / 10) * 70;
+            peak[k] = 300f + 50f * k;
+        }
+        List<Star> stars = new StarDetector(5f, 10).detect(render(W, H, x, y, peak, 2.5f, 3), W, H);
+        assertEquals(10, stars.size());
+        for (Star star : stars) assertTrue("sólo las más brillantes", star.y > 150);
+    }
+}
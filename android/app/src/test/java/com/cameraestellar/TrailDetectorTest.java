@@ -0,0 +1,112 @@
+package com.cameraestellar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+// TrailDetector sobre campos sintéticos: recta de ángulo y posición conocidos, y campo de estrellas
+// sin trazas.
+public class TrailDetectorTest {
+
+    private static final int W = 480;
+    private static final int H = 360;
+
+    // Cielo con ruido (StarDetectorTest.render) y una recta de 3 px de ancho que pasa por (cx, cy)
+    // con ángulo 'degrees' respecto al eje x.
+    private static float[] lineFrame(float cx, float cy, double degrees, long seed) {
+        float[] image = StarDetectorTest.render(W, H, new float[0], new float[0], new float[0], 3f, seed);
+        double a = Math.toRadians(degrees);
+        double nx = -Math.sin(a), ny = Math.cos(a);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                double d = (x + 0.5 - cx) * nx + (y + 0.5 - cy) * ny;
+                if (Math.abs(d) <= 1.5) image[y * W + x] += 300f;
+            }
+        }
+        return image;
+    }
+
+    // Diferencia de orientación (0..90 grados) entre la traza y 'degrees'.
+    private static double angleError(TrailDetector.Trail trail, double degrees) {
+        double found = Math.toDegrees(Math.atan2(trail.y1 - trail.y0, trail.x1 - trail.x0));
+        double diff = Math.abs(found - degrees) % 180;
+        return Math.min(diff, 180 - diff);
+    }
+
+    // Distancia de (cx, cy) a la recta de la traza.
+    private static double offset(TrailDetector.Trail trail, float cx, float cy) {
+        double dx = trail.x1 - trail.x0, dy = trail.y1 - trail.y0;
+        return Math.abs((cx - trail.x0) * dy - (cy - trail.y0) * dx) / Math.hypot(dx, dy);
+    }
+
+    private static void assertFindsLine(float cx, float cy, double degrees, ExecutorService executor)
+            throws InterruptedException {
+        List<TrailDetector.Trail> trails = new TrailDetector(executor).detect(lineFrame(cx, cy, degrees, 3), W, H);
+        assertEquals("trazas a " + degrees + " grados", 1, trails.size());
+        TrailDetector.Trail trail = trails.get(0);
+        assertEquals("ángulo", 0, angleError(trail, degrees), 1.5);
+        assertEquals("desplazamiento", 0, offset(trail, cx, cy), 2.0);
+        // Cruza el frame casi de borde a borde
+        assertTrue(Math.hypot(trail.x1 - trail.x0, trail.y1 - trail.y0) > 0.8 * Math.min(W, H));
+    }
+
+    @Test
+    public void findsAngleAndOffsetOfALine() throws Exception {
+        assertFindsLine(240.5f, 180.5f, 31, null);
+        assertFindsLine(200.5f, 150.5f, 117, null);
+        // Casi vertical, fuera del centro
+        assertFindsLine(300.5f, 170.5f, 84, null);
+    }
+
+    @Test
+    public void findsLinesWithParallelTiles() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertFindsLine(240.5f, 180.5f, 31, executor);
+            assertFindsLine(120.5f, 200.5f, 160, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // La máscara cubre el centro de la recta y deja libre el cielo lejano.
+    @Test
+    public void rasterizeCoversTheLine() throws Exception {
+        float cx = 240.5f, cy = 180.5f;
+        List<TrailDetector.Trail> trails = new TrailDetector(null).detect(lineFrame(cx, cy, 31, 4), W, H);
+        BitSet mask = new BitSet(W * H);
+        TrailDetector.rasterize(trails, W, H, mask);
+        double slope = Math.tan(Math.toRadians(31));
+        for (int x = 60; x < 420; x += 10) {
+            int y = (int) Math.floor(cy + (x + 0.5 - cx) * slope);
+            assertTrue("sobre la traza en x=" + x, mask.get(y * W + x));
+            int far = y + 60 < H ? y + 60 : y - 60;
+            assertFalse("cielo en x=" + x, mask.get(far * W + x));
+        }
+    }
+
+    // Muchas estrellas brillantes y compactas: ninguna semilla alargada, ninguna traza.
+    @Test
+    public void noFalsePositivesOnAStarField() throws Exception {
+        Random random = new Random(11);
+        int count = 300;
+        float[] x = new float[count], y = new float[count], peak = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = 5 + random.nextFloat() * (W - 10);
+            y[i] = 5 + random.nextFloat() * (H - 10);
+            peak[i] = 200 + random.nextFloat() * 5000;
+        }
+        for (float fwhm : new float[] {2.5f, 4f, 6f}) {
+            float[] image = StarDetectorTest.render(W, H, x, y, peak, fwhm, 5);
+            assertEquals("FWHM " + fwhm, 0, new TrailDetector(null).detect(image, W, H).size());
+        }
+    }
+}